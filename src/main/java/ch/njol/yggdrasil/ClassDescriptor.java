@@ -0,0 +1,138 @@
+/*
+ *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
+ *
+ *  Yggdrasil is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Yggdrasil is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2013-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.yggdrasil;
+
+import java.io.NotSerializableException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.yggdrasil.YggdrasilSerializable.YggdrasilExtendedSerializable;
+
+/**
+ * Everything Yggdrasil needs to know about a class to (de)serialise its instances. Descriptors are created once per class by {@link Yggdrasil#getDescriptor(Class)} and are only
+ * valid until the next call to {@link Yggdrasil#invalidateCaches()}.
+ * 
+ * @author Peter Güttinger
+ */
+final class ClassDescriptor {
+	
+	final Class<?> c;
+	
+	final Tag tag;
+	
+	/** The class's ID, or null if it has none (or doesn't need one, e.g. for primitives) */
+	@Nullable
+	final String id;
+	
+	@Nullable
+	final YggdrasilSerializer<?> serializer;
+	
+	final boolean serializable;
+	
+	/** The fields to (de)serialise if this class uses the default serialisation, null otherwise */
+	@Nullable
+	final FieldAccessor[] fields;
+	
+	/**
+	 * The codec to use for this class if it uses the default serialisation and either has a {@link YggdrasilCodec generated codec} or codecs are
+	 * {@link Yggdrasil#setUseObjectCodecs(boolean) enabled}, null otherwise. In the latter case the codec is generated at runtime by {@link CodecGenerator} if possible.
+	 */
+	@Nullable
+	final ObjectCodec codec;
+	
+	/** A codec for this class's fields if it uses the default serialisation, regardless of whether codecs are enabled. Used by streams with class layouts. */
+	@Nullable
+	final ObjectCodec fieldsCodec;
+	
+	/** The nullary constructor if this class uses no {@link YggdrasilSerializer}, null otherwise */
+	@Nullable
+	final Constructor<?> constructor;
+	
+	ClassDescriptor(final Yggdrasil y, final Class<?> c) {
+		this.c = c;
+		tag = Tag.getType(c);
+		id = tag == Tag.T_OBJECT || tag == Tag.T_ENUM ? y.getIDNoError(c) : null;
+		final YggdrasilSerializer<?> s = tag == Tag.T_OBJECT ? y.getSerializer(c) : null;
+		serializer = s;
+		
+		final YggdrasilCodec<?> generated = tag == Tag.T_OBJECT && s == null ? y.getGeneratedCodec(c) : null;
+		if (generated != null) { // the annotation processor already checked that the class is serialisable and has a nullary constructor
+			serializable = true;
+			this.fields = null;
+			codec = new ObjectCodec(generated);
+			fieldsCodec = codec;
+			this.constructor = getNullaryConstructor(c); // used if the codec cannot access the constructor
+			return;
+		}
+		serializable = y.checkSerializable(c);
+		
+		FieldAccessor[] fields = null;
+		Constructor<?> constructor = null;
+		if (tag == Tag.T_OBJECT && s == null && serializable && !Modifier.isAbstract(c.getModifiers())) {
+			if (!YggdrasilExtendedSerializable.class.isAssignableFrom(c)) {
+				try {
+					fields = Fields.getAccessors(c);
+				} catch (final NotSerializableException e) {} // thrown again when an object of this class is actually used
+			}
+			constructor = getNullaryConstructor(c);
+		}
+		this.fields = fields;
+		final YggdrasilCodec<?> runtimeCodec = fields != null && y.usesObjectCodecs() ? CodecGenerator.getCodec(c) : null;
+		fieldsCodec = runtimeCodec != null ? new ObjectCodec(runtimeCodec) : fields != null ? new ObjectCodec(c, fields) : null;
+		codec = y.usesObjectCodecs() ? fieldsCodec : null;
+		this.constructor = constructor;
+	}
+	
+	@Nullable
+	private final static Constructor<?> getNullaryConstructor(final Class<?> c) {
+		try {
+			final Constructor<?> constructor = c.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			return constructor;
+		} catch (final NoSuchMethodException e) {
+			return null;
+		} catch (final SecurityException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * @return This class's ID
+	 * @throws NotSerializableException If this class has no ID or is not serialisable
+	 */
+	public String getID() throws NotSerializableException {
+		final String id = this.id;
+		if (id == null)
+			throw new NotSerializableException("No ID found for " + c);
+		if (!serializable)
+			throw new NotSerializableException(c.getCanonicalName());
+		return id;
+	}
+	
+	@Override
+	public String toString() {
+		return "ClassDescriptor[" + c.getName() + "]";
+	}
+	
+}
@@ -0,0 +1,596 @@
+/*
+ *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
+ *
+ *  Yggdrasil is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Yggdrasil is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2013-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.yggdrasil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Generates a {@link YggdrasilCodec} for a class at runtime, i.e. the same code as the annotation processor generates at compile time, but directly as bytecode. Used if
+ * {@link Yggdrasil#setUseObjectCodecs(boolean) object codecs} are enabled for classes that don't have a codec generated at compile time.
+ * <p>
+ * The codec is defined in the package of its class: as a hidden class in the class's nest on Java 15 and later, which can access private fields of the class, and as a normal
+ * class with <tt>MethodHandles.Lookup.defineClass</tt> (Java 9 to 14, or if a hidden class cannot be defined, e.g. because the class is in another module than
+ * Yggdrasil) or <tt>ClassLoader.defineClass</tt> (Java 7 and 8) otherwise, which can only access non-private fields. Final fields and fields that the codec cannot access are left to {@link YggdrasilCodec}, which uses reflection for them. Codecs are generated once per class and
+ * shared by all Yggdrasil instances.
+ * 
+ * @author Peter Güttinger
+ */
+final class CodecGenerator {
+	
+	private CodecGenerator() {}
+	
+	private final static String CODEC = "ch/njol/yggdrasil/YggdrasilCodec",
+			CODEC_CONSTRUCTOR = "(Ljava/lang/Class;Ljava/lang/String;[Ljava/lang/String;[Ljava/lang/String;[Ljava/lang/Class;)V";
+	
+	/** <tt>MethodHandles.privateLookupIn</tt>, null before Java 9 */
+	@Nullable
+	private final static Method privateLookupIn;
+	
+	/** <tt>Lookup.defineHiddenClass</tt>, null before Java 15 */
+	@Nullable
+	private final static Method defineHiddenClass;
+	
+	/** The options passed to {@link #defineHiddenClass}, i.e. <tt>{ClassOption.NESTMATE}</tt> */
+	@Nullable
+	private final static Object hiddenClassOptions;
+	
+	/** <tt>Class.getNestHost</tt>, only set if {@link #defineHiddenClass} is */
+	@Nullable
+	private final static Method getNestHost;
+	
+	/**
+	 * <tt>Lookup.defineClass</tt> if {@link #privateLookupIn} is set, which is also used if a hidden class cannot be defined, or the protected <tt>ClassLoader.defineClass</tt>
+	 * otherwise. May be null if neither is usable.
+	 */
+	@Nullable
+	private final static Method defineClass;
+	
+	static {
+		Method privateLookup = null, defineHidden = null, nestHost = null, define = null;
+		Object options = null;
+		try {
+			privateLookup = MethodHandles.class.getMethod("privateLookupIn", Class.class, MethodHandles.Lookup.class);
+			define = MethodHandles.Lookup.class.getMethod("defineClass", byte[].class);
+			try {
+				final Class<?> option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+				options = Array.newInstance(option, 1);
+				Array.set(options, 0, option.getField("NESTMATE").get(null));
+				defineHidden = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class, options.getClass());
+				nestHost = Class.class.getMethod("getNestHost");
+			} catch (final ReflectiveOperationException e) { // Java 9 to 14
+				defineHidden = null;
+				options = null;
+			}
+		} catch (final NoSuchMethodException e) { // Java 7 or 8
+			privateLookup = null;
+			try {
+				define = ClassLoader.class.getDeclaredMethod("defineClass", String.class, byte[].class, int.class, int.class);
+				define.setAccessible(true);
+			} catch (final NoSuchMethodException e2) {
+				define = null;
+			} catch (final SecurityException e2) {
+				define = null;
+			}
+		}
+		privateLookupIn = privateLookup;
+		defineHiddenClass = defineHidden;
+		hiddenClassOptions = options;
+		getNestHost = nestHost;
+		defineClass = define;
+	}
+	
+	/** Stored instead of null for classes for which no codec can be generated */
+	private final static Object NONE = new Object();
+	
+	private final static ClassValue<Object> codecs = new ClassValue<Object>() {
+		@Override
+		protected Object computeValue(final @Nullable Class<?> c) {
+			assert c != null;
+			final YggdrasilCodec<?> codec = generate(c);
+			return codec == null ? NONE : codec;
+		}
+	};
+	
+	/**
+	 * @param c A class that uses the default serialisation
+	 * @return The codec of the given class, or null if none can be generated for it (e.g. if it is not serialisable or is loaded by the bootstrap class loader, or if the JRE
+	 *         doesn't allow defining classes)
+	 */
+	@Nullable
+	static YggdrasilCodec<?> getCodec(final Class<?> c) {
+		final Object codec = codecs.get(c);
+		return codec == NONE ? null : (YggdrasilCodec<?>) codec;
+	}
+	
+	@Nullable
+	private final static YggdrasilCodec<?> generate(final Class<?> c) {
+		final FieldAccessor[] fields;
+		try {
+			fields = Fields.getAccessors(c);
+		} catch (final NotSerializableException e) {
+			return null;
+		}
+		if (c.getClassLoader() == null || defineHiddenClass == null && defineClass == null || Modifier.isAbstract(c.getModifiers()) || c.getName().indexOf('/') != -1) // hidden classes cannot be named
+			return null;
+		try {
+			if (defineHiddenClass != null) {
+				try {
+					return generate(c, fields, true);
+				} catch (final IllegalAccessException e) {
+					// defining a hidden class requires full privilege access, which is not available if c is in another module, e.g. loaded by another class loader.
+					// Lookup.defineClass only requires package access, but the codec is not a nestmate of c then.
+				}
+			}
+			return generate(c, fields, false);
+		} catch (final IOException e) {
+			throw new YggdrasilException(e); // not thrown by ByteArrayOutputStream
+		} catch (final ReflectiveOperationException e) { // not allowed to define a class in c's package, e.g. because it is in a named module
+			return null;
+		} catch (final RuntimeException e) { // e.g. InaccessibleObjectException
+			return null;
+		} catch (final LinkageError e) { // e.g. if c's class loader cannot load YggdrasilCodec
+			return null;
+		}
+	}
+	
+	/**
+	 * @param nestmate Whether to define the codec as a hidden class in the nest of <tt>c</tt>, or as a normal class in its package
+	 */
+	@Nullable
+	private final static YggdrasilCodec<?> generate(final Class<?> c, final FieldAccessor[] fields, final boolean nestmate) throws IOException, ReflectiveOperationException {
+		final boolean[] direct = new boolean[fields.length];
+		boolean any = false;
+		for (int i = 0; i < fields.length; i++)
+			any |= direct[i] = isDirect(fields[i].field, c, nestmate);
+		Constructor<?> constructor;
+		try {
+			constructor = c.getDeclaredConstructor();
+			if (Modifier.isPrivate(constructor.getModifiers()) && !nestmate)
+				constructor = null;
+		} catch (final NoSuchMethodException e) {
+			constructor = null;
+		}
+		if (!any && constructor == null)
+			return null;
+		
+		final String[] names = new String[fields.length], ids = new String[fields.length];
+		final Class<?>[] types = new Class<?>[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			names[i] = fields[i].field.getName();
+			ids[i] = fields[i].id;
+			types[i] = fields[i].field.getType();
+		}
+		final String name = c.getName() + "$YggdrasilCodec";
+		final byte[] bytes = new CodecWriter(name.replace('.', '/'), c, fields, direct, constructor != null).write();
+		final Class<?> codecClass = define(c, name, bytes, nestmate);
+		if (!YggdrasilCodec.class.isAssignableFrom(codecClass)) // c's class loader sees a different Yggdrasil
+			return null;
+		final Constructor<?> codecConstructor = codecClass.getDeclaredConstructor(Class.class, String.class, String[].class, String[].class, Class[].class);
+		codecConstructor.setAccessible(true);
+		// the ID is not used as generated codecs are not registered with any Yggdrasil
+		return (YggdrasilCodec<?>) codecConstructor.newInstance(c, c.getName(), names, ids, types);
+	}
+	
+	private final static Class<?> define(final Class<?> c, final String name, final byte[] bytes, final boolean hidden) throws ReflectiveOperationException {
+		final Method privateLookupIn = CodecGenerator.privateLookupIn, defineHiddenClass = CodecGenerator.defineHiddenClass, defineClass = CodecGenerator.defineClass;
+		try {
+			if (privateLookupIn == null) {
+				assert defineClass != null;
+				return (Class<?>) defineClass.invoke(c.getClassLoader(), name, bytes, 0, bytes.length);
+			}
+			final Object lookup = privateLookupIn.invoke(null, c, MethodHandles.lookup());
+			if (hidden) {
+				assert defineHiddenClass != null;
+				return ((MethodHandles.Lookup) defineHiddenClass.invoke(lookup, bytes, true, hiddenClassOptions)).lookupClass();
+			}
+			assert defineClass != null;
+			return (Class<?>) defineClass.invoke(lookup, bytes);
+		} catch (final InvocationTargetException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof ReflectiveOperationException)
+				throw (ReflectiveOperationException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw e;
+		}
+	}
+	
+	@SuppressWarnings("null")
+	private final static Object nestHost(final Class<?> c) {
+		final Method getNestHost = CodecGenerator.getNestHost;
+		assert getNestHost != null;
+		try {
+			return getNestHost.invoke(c);
+		} catch (final ReflectiveOperationException e) {
+			return c;
+		}
+	}
+	
+	/**
+	 * @return Whether classes in the package of <tt>c</tt> (or in its nest, if <tt>nestmate</tt> is true) can access the given field directly
+	 */
+	private final static boolean isDirect(final Field f, final Class<?> c, final boolean nestmate) {
+		final int m = f.getModifiers();
+		if (Modifier.isFinal(m) || !isAccessible(f.getType(), c)) // final fields can only be written in constructors
+			return false;
+		final Class<?> declaringClass = f.getDeclaringClass();
+		if (!isAccessible(declaringClass, c)) // the field is accessed through its declaring class
+			return false;
+		if (Modifier.isPrivate(m))
+			return nestmate && nestHost(declaringClass) == nestHost(c);
+		return Modifier.isPublic(m) || isSamePackage(declaringClass, c);
+	}
+	
+	/**
+	 * @return Whether classes in the package of <tt>c</tt> can refer to the given type
+	 */
+	private final static boolean isAccessible(Class<?> type, final Class<?> c) {
+		while (type.isArray())
+			type = type.getComponentType();
+		// nested classes that are public or protected in the source are public in the bytecode
+		return type.isPrimitive() || (type.getModifiers() & (Modifier.PUBLIC | Modifier.PROTECTED)) != 0 || isSamePackage(type, c);
+	}
+	
+	private final static boolean isSamePackage(final Class<?> c1, final Class<?> c2) {
+		if (c1.getClassLoader() != c2.getClassLoader())
+			return false;
+		final String n1 = c1.getName(), n2 = c2.getName();
+		final int i = n1.lastIndexOf('.');
+		return i == n2.lastIndexOf('.') && n1.regionMatches(0, n2, 0, i + 1);
+	}
+	
+	/**
+	 * Writes the class file of a codec. The codec overrides the accessors of {@link YggdrasilCodec} with a <tt>switch</tt> over the field index that accesses the fields it
+	 * can access directly, and calls the super method for all other fields.
+	 */
+	private final static class CodecWriter {
+		
+		private final static String[] PRIMITIVE_NAMES = {"Boolean", "Byte", "Short", "Char", "Int", "Long", "Float", "Double"};
+		private final static Class<?>[] PRIMITIVES = {boolean.class, byte.class, short.class, char.class, int.class, long.class, float.class, double.class};
+		
+		private final String name;
+		private final Class<?> c;
+		private final String cName;
+		private final FieldAccessor[] fields;
+		private final boolean[] direct;
+		private final boolean constructor;
+		
+		private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+		private final DataOutputStream pool = new DataOutputStream(poolBytes);
+		private final Map<String, Integer> poolEntries = new HashMap<String, Integer>();
+		private int poolSize = 1;
+		
+		private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+		private final DataOutputStream methods = new DataOutputStream(methodBytes);
+		private int methodCount = 0;
+		
+		CodecWriter(final String name, final Class<?> c, final FieldAccessor[] fields, final boolean[] direct, final boolean constructor) {
+			this.name = name;
+			this.c = c;
+			cName = c.getName().replace('.', '/');
+			this.fields = fields;
+			this.direct = direct;
+			this.constructor = constructor;
+		}
+		
+		public byte[] write() throws IOException {
+			writeConstructor();
+			if (constructor)
+				writeNewInstance();
+			writeAccessors(Object.class, "get", "set");
+			for (int i = 0; i < PRIMITIVES.length; i++)
+				writeAccessors(PRIMITIVES[i], "get" + PRIMITIVE_NAMES[i], "set" + PRIMITIVE_NAMES[i]);
+			
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream(bytes);
+			final int thisClass = classRef(name), superClass = classRef(CODEC);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0); // minor version
+			out.writeShort(51); // Java 7
+			out.writeShort(poolSize);
+			poolBytes.writeTo(out);
+			out.writeShort(0x0010 | 0x0020); // ACC_FINAL | ACC_SUPER
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0); // interfaces
+			out.writeShort(0); // fields
+			out.writeShort(methodCount);
+			methodBytes.writeTo(out);
+			out.writeShort(0); // attributes
+			return bytes.toByteArray();
+		}
+		
+		// constant pool
+		
+		private final int entry(final String key, final int tag, final Object... values) throws IOException {
+			final Integer index = poolEntries.get(key);
+			if (index != null)
+				return index;
+			pool.writeByte(tag);
+			for (final Object v : values) {
+				if (v instanceof String)
+					pool.writeUTF((String) v);
+				else
+					pool.writeShort((Integer) v);
+			}
+			poolEntries.put(key, poolSize);
+			return poolSize++;
+		}
+		
+		private final int utf8(final String s) throws IOException {
+			return entry("U" + s, 1, s);
+		}
+		
+		private final int classRef(final String internalName) throws IOException {
+			return entry("C" + internalName, 7, utf8(internalName));
+		}
+		
+		private final int memberRef(final int tag, final String owner, final String member, final String descriptor) throws IOException {
+			final int ownerIndex = classRef(owner);
+			final int nameAndType = entry("N" + member + " " + descriptor, 12, utf8(member), utf8(descriptor));
+			return entry(tag + owner + "." + member + " " + descriptor, tag, ownerIndex, nameAndType);
+		}
+		
+		private final static String descriptor(final Class<?> type) {
+			if (type.isArray())
+				return type.getName().replace('.', '/');
+			if (!type.isPrimitive())
+				return "L" + type.getName().replace('.', '/') + ";";
+			if (type == boolean.class)
+				return "Z";
+			if (type == long.class)
+				return "J";
+			return "" + Character.toUpperCase(type.getName().charAt(0)); // B, S, C, I, F, D
+		}
+		
+		/**
+		 * @return The name to use in <tt>checkcast</tt>, which is the descriptor for arrays
+		 */
+		private final static String className(final Class<?> type) {
+			return type.isArray() ? descriptor(type) : type.getName().replace('.', '/');
+		}
+		
+		// methods
+		
+		/**
+		 * Writes a public method.
+		 * 
+		 * @param branchTargets The offsets of all branch targets in the code. The frames at these targets must be equal to the frame at the start of the method.
+		 */
+		private final void method(final String name, final String descriptor, final int maxLocals, final byte[] code, final List<Integer> branchTargets) throws IOException {
+			methods.writeShort(0x0001); // ACC_PUBLIC
+			methods.writeShort(utf8(name));
+			methods.writeShort(utf8(descriptor));
+			methods.writeShort(1); // attributes
+			
+			final ByteArrayOutputStream frameBytes = new ByteArrayOutputStream();
+			final DataOutputStream frames = new DataOutputStream(frameBytes);
+			int last = -1;
+			for (final int target : branchTargets) { // sorted, without duplicates
+				final int delta = target - last - 1;
+				if (delta <= 63) {
+					frames.writeByte(delta); // same_frame
+				} else {
+					frames.writeByte(251); // same_frame_extended
+					frames.writeShort(delta);
+				}
+				last = target;
+			}
+			
+			methods.writeShort(utf8("Code"));
+			methods.writeInt(12 + code.length + (branchTargets.isEmpty() ? 0 : 8 + frameBytes.size()));
+			methods.writeShort(6); // max stack
+			methods.writeShort(maxLocals);
+			methods.writeInt(code.length);
+			methods.write(code);
+			methods.writeShort(0); // exceptions
+			if (branchTargets.isEmpty()) {
+				methods.writeShort(0);
+			} else {
+				methods.writeShort(1);
+				methods.writeShort(utf8("StackMapTable"));
+				methods.writeInt(2 + frameBytes.size());
+				methods.writeShort(branchTargets.size());
+				frameBytes.writeTo(methods);
+			}
+			methodCount++;
+		}
+		
+		private final void writeConstructor() throws IOException {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final DataOutputStream code = new DataOutputStream(bytes);
+			code.writeByte(0x2a); // aload_0
+			code.writeByte(0x2b); // aload_1
+			code.writeByte(0x2c); // aload_2
+			code.writeByte(0x2d); // aload_3
+			code.writeByte(0x19); // aload 4
+			code.writeByte(4);
+			code.writeByte(0x19); // aload 5
+			code.writeByte(5);
+			code.writeByte(0xb7); // invokespecial
+			code.writeShort(memberRef(10, CODEC, "<init>", CODEC_CONSTRUCTOR));
+			code.writeByte(0xb1); // return
+			method("<init>", CODEC_CONSTRUCTOR, 6, bytes.toByteArray(), new ArrayList<Integer>());
+		}
+		
+		private final void writeNewInstance() throws IOException {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final DataOutputStream code = new DataOutputStream(bytes);
+			code.writeByte(0xbb); // new
+			code.writeShort(classRef(cName));
+			code.writeByte(0x59); // dup
+			code.writeByte(0xb7); // invokespecial
+			code.writeShort(memberRef(10, cName, "<init>", "()V"));
+			code.writeByte(0xb0); // areturn
+			method("newInstance", "()Ljava/lang/Object;", 1, bytes.toByteArray(), new ArrayList<Integer>());
+		}
+		
+		/**
+		 * Writes the getter and setter for fields of the given type if the codec can access any such field directly.
+		 * 
+		 * @param type A primitive type, or Object for all reference types
+		 */
+		private final void writeAccessors(final Class<?> type, final String getter, final String setter) throws IOException {
+			boolean any = false;
+			for (int i = 0; i < fields.length; i++)
+				any |= direct[i] && isOfType(i, type);
+			if (!any)
+				return;
+			final String valueDescriptor = descriptor(type);
+			final int load, ret;
+			if (type == Object.class) {
+				load = 0x2d; // aload_3
+				ret = 0xb0; // areturn
+			} else if (type == long.class) {
+				load = 0x21; // lload_3
+				ret = 0xad; // lreturn
+			} else if (type == float.class) {
+				load = 0x25; // fload_3
+				ret = 0xae; // freturn
+			} else if (type == double.class) {
+				load = 0x29; // dload_3
+				ret = 0xaf; // dreturn
+			} else {
+				load = 0x1d; // iload_3
+				ret = 0xac; // ireturn
+			}
+			writeSwitch(getter, "(Ljava/lang/Object;I)" + valueDescriptor, 3, type, -1, ret);
+			writeSwitch(setter, "(Ljava/lang/Object;I" + valueDescriptor + ")V", type == long.class || type == double.class ? 5 : 4, type, load, 0xb1);
+		}
+		
+		private final boolean isOfType(final int field, final Class<?> type) {
+			final Class<?> t = fields[field].field.getType();
+			return type == Object.class ? !t.isPrimitive() : t == type;
+		}
+		
+		/**
+		 * Writes a getter or setter:
+		 * 
+		 * <pre>
+		 * switch (field) {
+		 * 	case i:
+		 * 		return ((C) o).field; // or ((C) o).field = (Type) value; return;
+		 * 	...
+		 * 	default:
+		 * 		return super.method(o, field); // or super.method(o, field, value); return;
+		 * }
+		 * </pre>
+		 * 
+		 * @param load The opcode to load the value to set, or -1 to write a getter
+		 * @param ret The return opcode
+		 */
+		private final void writeSwitch(final String method, final String descriptor, final int maxLocals, final Class<?> type, final int load, final int ret) throws IOException {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final DataOutputStream code = new DataOutputStream(bytes);
+			code.writeByte(0x1c); // iload_2
+			code.writeByte(0xaa); // tableswitch
+			while (bytes.size() % 4 != 0)
+				code.writeByte(0);
+			final int table = bytes.size();
+			code.writeInt(0); // default, patched below
+			code.writeInt(0); // low
+			code.writeInt(fields.length - 1); // high
+			for (int i = 0; i < fields.length; i++)
+				code.writeInt(0); // patched below
+			
+			final int[] offsets = new int[fields.length];
+			final List<Integer> targets = new ArrayList<Integer>();
+			final int cClass = classRef(cName);
+			for (int i = 0; i < fields.length; i++) {
+				if (!direct[i] || !isOfType(i, type))
+					continue;
+				offsets[i] = bytes.size();
+				targets.add(bytes.size());
+				final Field f = fields[i].field;
+				final String owner = f.getDeclaringClass().getName().replace('.', '/'); // not cName, which would find a field of the same name declared in a subclass
+				code.writeByte(0x2b); // aload_1
+				code.writeByte(0xc0); // checkcast
+				code.writeShort(cClass);
+				if (load == -1) {
+					code.writeByte(0xb4); // getfield
+					code.writeShort(memberRef(9, owner, f.getName(), descriptor(f.getType())));
+				} else {
+					code.writeByte(load);
+					if (type == Object.class && f.getType() != Object.class) {
+						code.writeByte(0xc0); // checkcast
+						code.writeShort(classRef(className(f.getType())));
+					}
+					code.writeByte(0xb5); // putfield
+					code.writeShort(memberRef(9, owner, f.getName(), descriptor(f.getType())));
+				}
+				code.writeByte(ret);
+			}
+			final int defaultOffset = bytes.size();
+			targets.add(defaultOffset);
+			code.writeByte(0x2a); // aload_0
+			code.writeByte(0x2b); // aload_1
+			code.writeByte(0x1c); // iload_2
+			if (load != -1)
+				code.writeByte(load);
+			code.writeByte(0xb7); // invokespecial
+			code.writeShort(memberRef(10, CODEC, method, descriptor));
+			code.writeByte(ret);
+			
+			final byte[] b = bytes.toByteArray();
+			writeInt(b, table, defaultOffset);
+			for (int i = 0; i < fields.length; i++)
+				writeInt(b, table + 12 + 4 * i, offsets[i] == 0 ? defaultOffset : offsets[i]);
+			method(method, descriptor, maxLocals, b, targets);
+		}
+		
+		/**
+		 * Writes a branch offset relative to the <tt>tableswitch</tt> instruction at offset 1.
+		 */
+		private final static void writeInt(final byte[] b, final int offset, final int target) {
+			final int value = target - 1;
+			b[offset] = (byte) (value >>> 24);
+			b[offset + 1] = (byte) (value >>> 16);
+			b[offset + 2] = (byte) (value >>> 8);
+			b[offset + 3] = (byte) value;
+		}
+		
+		@Override
+		public String toString() {
+			return "CodecWriter[" + c.getName() + "]";
+		}
+		
+	}
+	
+}
@@ -1,333 +1,902 @@
-/*
- *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
- *
- *  Yggdrasil is free software: you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation, either version 3 of the License, or
- *  (at your option) any later version.
- *
- *  Yggdrasil is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
- * 
- * 
- * Copyright 2013-2014 Peter Güttinger
- * 
- */
-
-package ch.njol.yggdrasil;
-
-import static ch.njol.yggdrasil.Tag.*;
-
-import java.io.EOFException;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.StreamCorruptedException;
-import java.lang.reflect.Array;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.List;
-
-import org.eclipse.jdt.annotation.NonNull;
-
-//Naming conventions:
-// x(): read info & data (e.g. content type, contents) [i.e. no tag]
-// _x(): read data only (e.g. contents)
-
-public final class DefaultYggdrasilInputStream extends YggdrasilInputStream {
-	
-	@SuppressWarnings("null")
-	private final static Charset UTF_8 = Charset.forName("UTF-8");
-	
-	private final short version;
-	
-	final InputStream in;
-	
-	public DefaultYggdrasilInputStream(final Yggdrasil y, final InputStream in) throws IOException {
-		super(y);
-		this.in = in;
-		final int m = readInt();
-		if (m != Yggdrasil.MAGIC_NUMBER)
-			throw new StreamCorruptedException("Not an Yggdrasil stream");
-		version = readShort();
-		if (version <= 0 || version > Yggdrasil.LATEST_VERSION)
-			throw new StreamCorruptedException("Input was saved using a later version of Yggdrasil");
-	}
-	
-	// private
-	
-	/**
-	 * @throws EOFException If the end of the stream is reached
-	 */
-	private int read() throws IOException {
-		final int b = in.read();
-		if (b < 0)
-			throw new EOFException();
-		return b;
-	}
-	
-	private void readFully(final byte[] buf) throws IOException {
-		readFully(buf, 0, buf.length);
-	}
-	
-	private void readFully(final byte[] buf, int off, final int len) throws IOException {
-		int l = len;
-		while (l > 0) {
-			final int n = in.read(buf, off, l);
-			if (n < 0)
-				throw new EOFException("Expected " + len + " bytes, but could only read " + (len - l));
-			off += n;
-			l -= n;
-		}
-	}
-	
-	private final List<String> readShortStrings = new ArrayList<String>();
-	
-	private String readShortString() throws IOException {
-		final int length = read();
-		if (length == (T_REFERENCE.tag & 0xFF)) {
-			final int i = version <= 1 ? readInt() : readUnsignedInt();
-			if (i < 0 || i > readShortStrings.size())
-				throw new StreamCorruptedException("Invalid short string reference " + i);
-			return "" + readShortStrings.get(i);
-		} else {
-			final byte[] d = new byte[length];
-			readFully(d);
-			final String s = new String(d, UTF_8);
-			if (length > 4)
-				readShortStrings.add(s);
-			return s;
-		}
-	}
-	
-	// Tag
-	
-	@Override
-	protected Tag readTag() throws IOException {
-		final int t = read();
-		final Tag tag = Tag.byID(t);
-		if (tag == null)
-			throw new StreamCorruptedException("Invalid tag 0x" + Integer.toHexString(t));
-		return tag;
-	}
-	
-	// Primitives
-	
-	private byte readByte() throws IOException {
-		return (byte) read();
-	}
-	
-	private short readShort() throws IOException {
-		return (short) (read() << 8 | read());
-	}
-	
-	private short readUnsignedShort() throws IOException {
-		final int b = read();
-		if ((b & 0x80) != 0)
-			return (short) (b & ~0x80);
-		else
-			return (short) (b << 8 | read());
-	}
-	
-	private int readInt() throws IOException {
-		return read() << 24
-				| read() << 16
-				| read() << 8
-				| read();
-	}
-	
-	private int readUnsignedInt() throws IOException {
-		final int b = read();
-		if ((b & 0x80) != 0)
-			return (b & ~0x80) << 8 | read();
-		else
-			return b << 24 | read() << 16 | read() << 8 | read();
-	}
-	
-	private long readLong() throws IOException {
-		return (long) read() << 56
-				| (long) read() << 48
-				| (long) read() << 40
-				| (long) read() << 32
-				| (long) read() << 24
-				| read() << 16
-				| read() << 8
-				| read();
-	}
-	
-	private float readFloat() throws IOException {
-		return Float.intBitsToFloat(readInt());
-	}
-	
-	private double readDouble() throws IOException {
-		return Double.longBitsToDouble(readLong());
-	}
-	
-	private char readChar() throws IOException {
-		return (char) readShort();
-	}
-	
-	private boolean readBoolean() throws IOException {
-		final int r = read();
-		if (r == 0)
-			return false;
-		else if (r == 1)
-			return true;
-		throw new StreamCorruptedException("Invalid boolean value " + r);
-	}
-	
-	@SuppressWarnings("null")
-	@Override
-	protected Object readPrimitive(final Tag type) throws IOException {
-		switch (type) {
-			case T_BYTE:
-				return readByte();
-			case T_SHORT:
-				return readShort();
-			case T_INT:
-				return readInt();
-			case T_LONG:
-				return readLong();
-			case T_FLOAT:
-				return readFloat();
-			case T_DOUBLE:
-				return readDouble();
-			case T_CHAR:
-				return readChar();
-			case T_BOOLEAN:
-				return readBoolean();
-				//$CASES-OMITTED$
-			default:
-				throw new YggdrasilException("Internal error; " + type);
-		}
-	}
-	
-	@Override
-	protected Object readPrimitive_(final Tag type) throws IOException {
-		return readPrimitive(type);
-	}
-	
-	// String
-	
-	@Override
-	protected String readString() throws IOException {
-		final int length = readUnsignedInt();
-		final byte[] d = new byte[length];
-		readFully(d);
-		return new String(d, UTF_8);
-	}
-	
-	// Array
-	
-	@Override
-	protected Class<?> readArrayComponentType() throws IOException {
-		return readClass();
-	}
-	
-	@Override
-	protected int readArrayLength() throws IOException {
-		return readUnsignedInt();
-	}
-	
-	// Enum
-	
-	@Override
-	protected Class<?> readEnumType() throws IOException {
-		return yggdrasil.getClass(readShortString());
-	}
-	
-	@Override
-	protected String readEnumID() throws IOException {
-		return readShortString();
-	}
-	
-	// Class
-	
-	@SuppressWarnings("null")
-	@Override
-	protected Class<?> readClass() throws IOException {
-		Tag type;
-		int dim = 0;
-		while ((type = readTag()) == T_ARRAY)
-			dim++;
-		@NonNull
-		Class<?> c;
-		switch (type) {
-			case T_OBJECT:
-			case T_ENUM:
-				c = yggdrasil.getClass(readShortString());
-				break;
-			case T_BOOLEAN:
-			case T_BOOLEAN_OBJ:
-			case T_BYTE:
-			case T_BYTE_OBJ:
-			case T_CHAR:
-			case T_CHAR_OBJ:
-			case T_DOUBLE:
-			case T_DOUBLE_OBJ:
-			case T_FLOAT:
-			case T_FLOAT_OBJ:
-			case T_INT:
-			case T_INT_OBJ:
-			case T_LONG:
-			case T_LONG_OBJ:
-			case T_SHORT:
-			case T_SHORT_OBJ:
-			case T_CLASS:
-			case T_STRING:
-				c = type.c;
-				assert c != null;
-				break;
-			case T_NULL:
-			case T_REFERENCE:
-				throw new StreamCorruptedException("unexpected tag " + type);
-			case T_ARRAY:
-			default:
-				throw new YggdrasilException("Internal error; " + type);
-		}
-		while (dim-- > 0)
-			c = Array.newInstance(c, 0).getClass();
-		return c;
-	}
-	
-	// Reference
-	
-	@Override
-	protected int readReference() throws IOException {
-		return readUnsignedInt();
-	}
-	
-	// generic Object
-	
-	@Override
-	protected Class<?> readObjectType() throws IOException {
-		return yggdrasil.getClass(readShortString());
-	}
-	
-	@Override
-	protected short readNumFields() throws IOException {
-		return readUnsignedShort();
-	}
-	
-	@Override
-	protected String readFieldID() throws IOException {
-		return readShortString();
-	}
-	
-	// stream
-	
-	@Override
-	public void close() throws IOException {
-		try {
-			read();
-			throw new StreamCorruptedException("Stream still has data, at least " + (1 + in.available()) + " bytes remain");
-		} catch (final EOFException e) {} finally {
-			in.close();
-		}
-	}
-	
-}
+/*
+ *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
+ *
+ *  Yggdrasil is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Yggdrasil is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2013-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.yggdrasil;
+
+import static ch.njol.yggdrasil.Tag.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+//Naming conventions:
+// x(): read info & data (e.g. content type, contents) [i.e. no tag]
+// _x(): read data only (e.g. contents)
+
+public final class DefaultYggdrasilInputStream extends YggdrasilInputStream {
+	
+	@SuppressWarnings("null")
+	private final static Charset UTF_8 = Charset.forName("UTF-8");
+	
+	/** The default size of the internal buffer in bytes */
+	public final static int DEFAULT_BUFFER_SIZE = 1 << 16;
+	
+	/** The minimum size of the internal buffer, must be large enough to hold any primitive */
+	public final static int MIN_BUFFER_SIZE = 16;
+	
+	/** The maximum size of a region of a memory-mapped file, as a {@link ByteBuffer} cannot be larger */
+	final static long MAX_REGION_SIZE = Integer.MAX_VALUE;
+	
+	private final short version;
+	
+	/** Whether int and long values are written as zigzag-encoded variable-length integers */
+	private final boolean varInts;
+	
+	private final boolean classLayouts;
+	
+	private final boolean packedArrays;
+	
+	private final boolean sharedReferencesOnly;
+	
+	/** The stream the data is read from, or null if it is read from a channel or from a buffer */
+	@Nullable
+	final InputStream in;
+	
+	/** The channel the data is read from, or null if it is read from a stream or from a buffer */
+	@Nullable
+	private final ReadableByteChannel channel;
+	
+	/** The buffer the data is read from if it is neither read from a stream nor from a channel. Its position is updated when this stream is closed. */
+	@Nullable
+	private final ByteBuffer source;
+	
+	/** The regions of a memory-mapped file if the data is read from such a file, null otherwise */
+	@Nullable
+	private final ByteBuffer[] regions;
+	
+	/** The index of the region to continue reading from after the current one */
+	private int nextRegion;
+	
+	/** Holds data that spans two or more {@link #regions}, created when first needed */
+	@Nullable
+	private ByteBuffer bridge = null;
+	
+	/**
+	 * Data is read from {@link #in} or {@link #channel} in large blocks into this buffer and decoded from there. Its position is the next byte to read, and its limit the end
+	 * of the data read so far. If this stream reads from a {@link #source} buffer this is a duplicate of that buffer. If this stream reads from the {@link #regions} of a
+	 * memory-mapped file this is either the current region or the {@link #bridge}.
+	 */
+	private ByteBuffer buf;
+	
+	public DefaultYggdrasilInputStream(final Yggdrasil y, final InputStream in) throws IOException {
+		this(y, in, DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * @param bufferSize The size of the internal buffer in bytes, must be at least {@link #MIN_BUFFER_SIZE}.
+	 */
+	public DefaultYggdrasilInputStream(final Yggdrasil y, final InputStream in, final int bufferSize) throws IOException {
+		this(y, in, null, null, null, allocate(bufferSize, false));
+	}
+	
+	public DefaultYggdrasilInputStream(final Yggdrasil y, final ReadableByteChannel channel) throws IOException {
+		this(y, channel, DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Creates a stream that reads from a channel using a direct buffer. The channel must be blocking.
+	 * 
+	 * @param bufferSize The size of the internal buffer in bytes, must be at least {@link #MIN_BUFFER_SIZE}.
+	 */
+	public DefaultYggdrasilInputStream(final Yggdrasil y, final ReadableByteChannel channel, final int bufferSize) throws IOException {
+		this(y, null, channel, null, null, allocate(bufferSize, true));
+	}
+	
+	/**
+	 * Creates a stream that reads directly from the given buffer, from its position up to its limit. The buffer's position is updated when this stream is closed, but its
+	 * byte order is not changed.
+	 */
+	@SuppressWarnings("null")
+	public DefaultYggdrasilInputStream(final Yggdrasil y, final ByteBuffer source) throws IOException {
+		this(y, null, null, source, null, source.duplicate().order(ByteOrder.BIG_ENDIAN));
+	}
+	
+	/**
+	 * Creates a stream that reads the regions of a memory-mapped file one after another, as returned by {@link #map(FileChannel, long)}.
+	 */
+	DefaultYggdrasilInputStream(final Yggdrasil y, final ByteBuffer[] regions) throws IOException {
+		this(y, null, null, null, regions, regions.length == 0 ? allocate(MIN_BUFFER_SIZE, false) : regions[0]);
+	}
+	
+	private DefaultYggdrasilInputStream(final Yggdrasil y, final @Nullable InputStream in, final @Nullable ReadableByteChannel channel, final @Nullable ByteBuffer source,
+			final @Nullable ByteBuffer[] regions, final ByteBuffer buf) throws IOException {
+		super(y);
+		this.in = in;
+		this.channel = channel;
+		this.source = source;
+		this.regions = regions;
+		nextRegion = 1;
+		this.buf = buf;
+		final int m = readInt();
+		if (m != Yggdrasil.MAGIC_NUMBER)
+			throw new StreamCorruptedException("Not an Yggdrasil stream");
+		version = readShort();
+		if (version <= 0 || version > Yggdrasil.LATEST_VERSION)
+			throw new StreamCorruptedException("Input was saved using a later version of Yggdrasil");
+		final int flags = version >= 2 ? read() : 0;
+		if ((flags & ~(DefaultYggdrasilOutputStream.FLAG_VARINTS | DefaultYggdrasilOutputStream.FLAG_CLASS_LAYOUTS | DefaultYggdrasilOutputStream.FLAG_DECLARED_FIELD_TYPES
+				| DefaultYggdrasilOutputStream.FLAG_PACKED_ARRAYS | DefaultYggdrasilOutputStream.FLAG_SHARED_REFERENCES_ONLY)) != 0)
+			throw new StreamCorruptedException("Input uses unsupported features (flags: 0x" + Integer.toHexString(flags) + ")");
+		varInts = (flags & DefaultYggdrasilOutputStream.FLAG_VARINTS) != 0;
+		classLayouts = (flags & DefaultYggdrasilOutputStream.FLAG_CLASS_LAYOUTS) != 0;
+		packedArrays = (flags & DefaultYggdrasilOutputStream.FLAG_PACKED_ARRAYS) != 0;
+		sharedReferencesOnly = (flags & DefaultYggdrasilOutputStream.FLAG_SHARED_REFERENCES_ONLY) != 0;
+	}
+	
+	// private
+	
+	/**
+	 * @return A new, empty buffer
+	 */
+	private final static ByteBuffer allocate(final int bufferSize, final boolean direct) {
+		if (bufferSize < MIN_BUFFER_SIZE)
+			throw new IllegalArgumentException("Buffer size must be at least " + MIN_BUFFER_SIZE + ", but is " + bufferSize);
+		final ByteBuffer buf = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+		assert buf != null;
+		buf.limit(0);
+		return buf;
+	}
+	
+	/**
+	 * Maps a file into memory in regions of at most <tt>regionSize</tt> bytes each, which must not be larger than {@link #MAX_REGION_SIZE}.
+	 */
+	@SuppressWarnings("null")
+	static ByteBuffer[] map(final FileChannel channel, final long regionSize) throws IOException {
+		assert 0 < regionSize && regionSize <= MAX_REGION_SIZE;
+		final long size = channel.size();
+		final ByteBuffer[] regions = new ByteBuffer[(int) ((size + regionSize - 1) / regionSize)];
+		for (int i = 0; i < regions.length; i++) {
+			final long position = i * regionSize;
+			regions[i] = channel.map(MapMode.READ_ONLY, position, Math.min(regionSize, size - position));
+		}
+		return regions;
+	}
+	
+	/**
+	 * Makes sure that at least <tt>n</tt> bytes are available in the buffer.
+	 * 
+	 * @param n The number of bytes required, must not be larger than the buffer's capacity
+	 * @throws EOFException If the end of the stream is reached before <tt>n</tt> bytes are available
+	 */
+	private void require(final int n) throws IOException {
+		if (buf.remaining() < n)
+			fill(n);
+	}
+	
+	/**
+	 * Moves the remaining data to the start of the buffer and reads as much data as fits into the buffer, but at least enough to have <tt>n</tt> bytes available.
+	 */
+	private void fill(final int n) throws IOException {
+		final ByteBuffer[] regions = this.regions;
+		if (regions != null) {
+			fillFromRegions(regions, n);
+			return;
+		}
+		assert n <= buf.capacity();
+		final int r = buf.remaining();
+		final InputStream in = this.in;
+		final ReadableByteChannel channel = this.channel;
+		if (in == null && channel == null)
+			throw new EOFException("Expected " + (n - r) + " more bytes, but the buffer ends");
+		buf.compact();
+		try {
+			while (buf.position() < n) {
+				final int l;
+				if (in != null) {
+					l = in.read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+					if (l > 0)
+						buf.position(buf.position() + l);
+				} else {
+					assert channel != null;
+					l = channel.read(buf);
+				}
+				if (l < 0)
+					throw new EOFException("Expected " + (n - r) + " more bytes, but could only read " + (buf.position() - r));
+			}
+		} finally {
+			buf.flip();
+		}
+	}
+	
+	/**
+	 * Continues reading in the next region if the current one has been read completely. If less than <tt>n</tt> bytes are left in the current region, they are copied into
+	 * the {@link #bridge} together with the first bytes of the following regions, and reading continues in the next region once the bridge has been read.
+	 */
+	private void fillFromRegions(final ByteBuffer[] regions, final int n) throws EOFException {
+		if (!buf.hasRemaining() && nextRegion < regions.length) {
+			final ByteBuffer region = regions[nextRegion++];
+			assert region != null;
+			buf = region;
+			if (region.remaining() >= n)
+				return;
+		}
+		ByteBuffer bridge = this.bridge;
+		if (bridge == null || bridge.capacity() < n) {
+			final ByteBuffer b = ByteBuffer.allocate(Math.max(n, MIN_BUFFER_SIZE));
+			assert b != null;
+			b.put(buf);
+			this.bridge = bridge = b;
+		} else if (bridge == buf) {
+			bridge.compact();
+		} else {
+			bridge.clear();
+			bridge.put(buf);
+		}
+		final int r = bridge.position();
+		try {
+			while (bridge.position() < n) {
+				if (nextRegion >= regions.length)
+					throw new EOFException("Expected " + (n - r) + " more bytes, but could only read " + (bridge.position() - r));
+				final ByteBuffer region = regions[nextRegion];
+				final int limit = region.limit();
+				region.limit(region.position() + Math.min(n - bridge.position(), region.remaining()));
+				bridge.put(region);
+				region.limit(limit);
+				if (!region.hasRemaining())
+					nextRegion++;
+			}
+		} finally {
+			bridge.flip();
+			buf = bridge;
+		}
+	}
+	
+	/**
+	 * @throws EOFException If the end of the stream is reached
+	 */
+	private int read() throws IOException {
+		require(1);
+		return buf.get() & 0xFF;
+	}
+	
+	private void readFully(final byte[] d) throws IOException {
+		readFully(d, 0, d.length);
+	}
+	
+	private void readFully(final byte[] d, int off, final int len) throws IOException {
+		int l = len;
+		final int b = Math.min(l, buf.remaining());
+		buf.get(d, off, b);
+		off += b;
+		l -= b;
+		if (l == 0)
+			return;
+		final InputStream in = this.in;
+		final ReadableByteChannel channel = this.channel;
+		if (in == null && channel == null) { // the data is already in memory and can be copied in chunks
+			while (l > 0) {
+				require(1);
+				final int n = Math.min(l, buf.remaining());
+				buf.get(d, off, n);
+				off += n;
+				l -= n;
+			}
+			return;
+		}
+		if (l <= buf.capacity()) {
+			require(l);
+			buf.get(d, off, l);
+			return;
+		}
+		final ByteBuffer wrapped = channel != null ? ByteBuffer.wrap(d, off, l) : null;
+		while (l > 0) {
+			final int n = in != null ? in.read(d, off, l) : wrapped != null ? channel.read(wrapped) : -1;
+			if (n < 0)
+				throw new EOFException("Expected " + len + " bytes, but could only read " + (len - l));
+			off += n;
+			l -= n;
+		}
+	}
+	
+	/** Decodes strings that don't fit into the buffer or are read from a direct buffer, created when first needed */
+	@Nullable
+	private CharsetDecoder decoder = null;
+	
+	/**
+	 * Reads <tt>length</tt> bytes of UTF-8 encoded text directly from the buffer. Text that doesn't fit into the buffer is decoded in chunks while refilling the buffer, as is
+	 * all text if the buffer is not backed by an array.
+	 */
+	private String readUTF8(final int length) throws IOException {
+		if (length <= buf.capacity() && buf.hasArray()) {
+			require(length);
+			final String s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, UTF_8);
+			buf.position(buf.position() + length);
+			return s;
+		}
+		CharsetDecoder decoder = this.decoder;
+		if (decoder == null) {
+			decoder = UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+			assert decoder != null;
+			this.decoder = decoder;
+		} else {
+			decoder.reset();
+		}
+		final CharBuffer chars = CharBuffer.allocate(length); // UTF-8 never needs fewer bytes than UTF-16 needs chars
+		int left = length;
+		while (left > 0) {
+			final int n = Math.min(left, buf.remaining()), limit = buf.limit(), position = buf.position();
+			buf.limit(position + n);
+			decoder.decode(buf, chars, n == left);
+			buf.limit(limit);
+			left -= buf.position() - position;
+			if (left > 0 && buf.remaining() < Math.min(left, 4)) // the buffer is empty or ends with an incomplete character
+				require(Math.min(left, buf.remaining() + 1));
+		}
+		decoder.flush(chars);
+		chars.flip();
+		final String s = chars.toString();
+		assert s != null;
+		return s;
+	}
+	
+	/**
+	 * Maps the encoded bytes of class IDs and field names to their decoded strings, so that each distinct string is only decoded once per stream and the same instance is
+	 * returned whenever it occurs again, without allocating anything.
+	 */
+	private final static class ShortStringTable {
+		
+		/** Always a power of two */
+		private byte[][] keys = new byte[64][];
+		private String[] values = new String[64];
+		private int size = 0;
+		
+		private final static int hash(final byte[] d, final int off, final int len) {
+			int h = len;
+			for (int i = off; i < off + len; i++)
+				h = 31 * h + d[i];
+			return h ^ h >>> 16;
+		}
+		
+		private final static boolean equals(final byte[] k, final byte[] d, final int off, final int len) {
+			if (k.length != len)
+				return false;
+			for (int i = 0; i < len; i++) {
+				if (k[i] != d[off + i])
+					return false;
+			}
+			return true;
+		}
+		
+		/**
+		 * @return The string encoded by the given bytes
+		 */
+		@SuppressWarnings("null")
+		public String get(final byte[] d, final int off, final int len) {
+			final byte[][] keys = this.keys;
+			final int mask = keys.length - 1;
+			int i = hash(d, off, len) & mask;
+			for (byte[] k; (k = keys[i]) != null; i = i + 1 & mask) {
+				if (equals(k, d, off, len))
+					return values[i];
+			}
+			final String s = new String(d, off, len, UTF_8);
+			keys[i] = Arrays.copyOfRange(d, off, off + len);
+			values[i] = s;
+			if (++size > keys.length / 3 * 2)
+				resize();
+			return s;
+		}
+		
+		private final void resize() {
+			final byte[][] oldKeys = keys;
+			final String[] oldValues = values;
+			keys = new byte[oldKeys.length * 2][];
+			values = new String[oldKeys.length * 2];
+			final int mask = keys.length - 1;
+			for (int j = 0; j < oldKeys.length; j++) {
+				final byte[] k = oldKeys[j];
+				if (k == null)
+					continue;
+				int i = hash(k, 0, k.length) & mask;
+				while (keys[i] != null)
+					i = i + 1 & mask;
+				keys[i] = k;
+				values[i] = oldValues[j];
+			}
+		}
+		
+	}
+	
+	private final ShortStringTable shortStrings = new ShortStringTable();
+	
+	/** Holds short strings that cannot be decoded directly from the buffer, created when first needed */
+	@Nullable
+	private byte[] shortStringBytes = null;
+	
+	private final List<String> readShortStrings = new ArrayList<String>();
+	
+	private String readShortString() throws IOException {
+		final int length = read();
+		if (length == (T_REFERENCE.tag & 0xFF)) {
+			final int i = version <= 1 ? readInt() : readVarInt();
+			if (i < 0 || i >= readShortStrings.size())
+				throw new StreamCorruptedException("Invalid short string reference " + i);
+			final String s = readShortStrings.get(i);
+			assert s != null;
+			return s;
+		}
+		final String s;
+		if (length <= buf.capacity() && buf.hasArray()) {
+			require(length);
+			s = shortStrings.get(buf.array(), buf.arrayOffset() + buf.position(), length);
+			buf.position(buf.position() + length);
+		} else {
+			byte[] d = shortStringBytes;
+			if (d == null)
+				shortStringBytes = d = new byte[T_REFERENCE.tag & 0xFF];
+			readFully(d, 0, length);
+			s = shortStrings.get(d, 0, length);
+		}
+		if (length > 4)
+			readShortStrings.add(s);
+		return s;
+	}
+	
+	// Tag
+	
+	@Override
+	protected Tag readTag() throws IOException {
+		final int t = read();
+		final Tag tag = Tag.byID(t);
+		if (tag == null)
+			throw new StreamCorruptedException("Invalid tag 0x" + Integer.toHexString(t));
+		return tag;
+	}
+	
+	// Primitives
+	
+	private byte readByte() throws IOException {
+		return (byte) read();
+	}
+	
+	private short readShort() throws IOException {
+		require(2);
+		return buf.getShort();
+	}
+	
+	private short readUnsignedShort() throws IOException {
+		if (version >= 2) {
+			final int s = readVarInt();
+			if (s < 0 || s > Short.MAX_VALUE)
+				throw new StreamCorruptedException("Invalid unsigned short " + s);
+			return (short) s;
+		}
+		final int b = read();
+		if ((b & 0x80) != 0)
+			return (short) (b & ~0x80);
+		else
+			return (short) (b << 8 | read());
+	}
+	
+	private int readInt() throws IOException {
+		require(4);
+		return buf.getInt();
+	}
+	
+	private int readUnsignedInt() throws IOException {
+		if (version >= 2) {
+			final int i = readVarInt();
+			if (i < 0)
+				throw new StreamCorruptedException("Invalid unsigned int " + (i & 0xFFFFFFFFL));
+			return i;
+		}
+		require(1);
+		if ((buf.get(buf.position()) & 0x80) != 0) {
+			require(2);
+			return buf.getShort() & 0x7FFF;
+		} else {
+			require(4);
+			return buf.getInt();
+		}
+	}
+	
+	/**
+	 * Reads an unsigned variable-length integer (LEB128) as written by {@link DefaultYggdrasilOutputStream}.
+	 * 
+	 * @throws StreamCorruptedException If the value does not fit into an int, i.e. the fifth byte has any bits other than the lowest four set
+	 */
+	private int readVarInt() throws IOException {
+		int i = 0;
+		for (int shift = 0; shift < 28; shift += 7) {
+			final int b = read();
+			i |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return i;
+		}
+		final int b = read();
+		if ((b & 0xF0) != 0)
+			throw new StreamCorruptedException("Variable-length int is too long");
+		return i | b << 28;
+	}
+	
+	/**
+	 * @see #readVarInt()
+	 */
+	private long readVarLong() throws IOException {
+		long l = 0;
+		for (int shift = 0; shift < 63; shift += 7) {
+			final int b = read();
+			l |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return l;
+		}
+		final int b = read();
+		if ((b & 0xFE) != 0)
+			throw new StreamCorruptedException("Variable-length long is too long");
+		return l | (long) b << 63;
+	}
+	
+	private long readLong() throws IOException {
+		require(8);
+		return buf.getLong();
+	}
+	
+	private float readFloat() throws IOException {
+		return Float.intBitsToFloat(readInt());
+	}
+	
+	private double readDouble() throws IOException {
+		return Double.longBitsToDouble(readLong());
+	}
+	
+	private char readChar() throws IOException {
+		return (char) readShort();
+	}
+	
+	private boolean readBoolean() throws IOException {
+		final int r = read();
+		if (r == 0)
+			return false;
+		else if (r == 1)
+			return true;
+		throw new StreamCorruptedException("Invalid boolean value " + r);
+	}
+	
+	@SuppressWarnings("null")
+	@Override
+	protected Object readPrimitive(final Tag type) throws IOException {
+		switch (type) {
+			case T_BYTE:
+				return readByte();
+			case T_SHORT:
+				return readShort();
+			case T_INT:
+				return readIntValue();
+			case T_LONG:
+				return readLongValue();
+			case T_FLOAT:
+				return readFloat();
+			case T_DOUBLE:
+				return readDouble();
+			case T_CHAR:
+				return readChar();
+			case T_BOOLEAN:
+				return readBoolean();
+				//$CASES-OMITTED$
+			default:
+				throw new YggdrasilException("Internal error; " + type);
+		}
+	}
+	
+	@Override
+	protected Object readPrimitive_(final Tag type) throws IOException {
+		return readPrimitive(type);
+	}
+	
+	@Override
+	protected boolean readBooleanValue() throws IOException {
+		return readBoolean();
+	}
+	
+	@Override
+	protected byte readByteValue() throws IOException {
+		return readByte();
+	}
+	
+	@Override
+	protected short readShortValue() throws IOException {
+		return readShort();
+	}
+	
+	@Override
+	protected char readCharValue() throws IOException {
+		return readChar();
+	}
+	
+	@Override
+	protected int readIntValue() throws IOException {
+		if (!varInts)
+			return readInt();
+		final int i = readVarInt();
+		return i >>> 1 ^ -(i & 1);
+	}
+	
+	@Override
+	protected long readLongValue() throws IOException {
+		if (!varInts)
+			return readLong();
+		final long l = readVarLong();
+		return l >>> 1 ^ -(l & 1);
+	}
+	
+	@Override
+	protected float readFloatValue() throws IOException {
+		return readFloat();
+	}
+	
+	@Override
+	protected double readDoubleValue() throws IOException {
+		return readDouble();
+	}
+	
+	// String
+	
+	@Override
+	protected String readString() throws IOException {
+		final int length = readUnsignedInt();
+		return readUTF8(length);
+	}
+	
+	// Array
+	
+	@Override
+	protected Class<?> readArrayComponentType() throws IOException {
+		return readClass();
+	}
+	
+	@Override
+	protected int readArrayLength() throws IOException {
+		return readUnsignedInt();
+	}
+	
+	@Override
+	protected boolean readsPackedArrays() {
+		return packedArrays;
+	}
+	
+	@Override
+	protected boolean readsSharedReferencesOnly() {
+		return sharedReferencesOnly;
+	}
+	
+	@Override
+	protected long readArrayLengthAndPacking() throws IOException {
+		return readVarLong();
+	}
+	
+	@Override
+	protected int readArrayElementFlags() throws IOException {
+		return read();
+	}
+	
+	/**
+	 * Copies the data from the buffer into the array in as large blocks as possible using views of the buffer.
+	 */
+	@Override
+	protected void readPrimitiveArrayContents(final Object array) throws IOException {
+		if (array instanceof byte[]) {
+			readFully((byte[]) array);
+		} else if (array instanceof int[]) {
+			final int[] a = (int[]) array;
+			for (int off = 0; off < a.length;) {
+				require(4);
+				final int n = Math.min(a.length - off, buf.remaining() >> 2);
+				buf.asIntBuffer().get(a, off, n);
+				buf.position(buf.position() + (n << 2));
+				off += n;
+			}
+		} else if (array instanceof long[]) {
+			final long[] a = (long[]) array;
+			for (int off = 0; off < a.length;) {
+				require(8);
+				final int n = Math.min(a.length - off, buf.remaining() >> 3);
+				buf.asLongBuffer().get(a, off, n);
+				buf.position(buf.position() + (n << 3));
+				off += n;
+			}
+		} else if (array instanceof short[]) {
+			final short[] a = (short[]) array;
+			for (int off = 0; off < a.length;) {
+				require(2);
+				final int n = Math.min(a.length - off, buf.remaining() >> 1);
+				buf.asShortBuffer().get(a, off, n);
+				buf.position(buf.position() + (n << 1));
+				off += n;
+			}
+		} else if (array instanceof char[]) {
+			final char[] a = (char[]) array;
+			for (int off = 0; off < a.length;) {
+				require(2);
+				final int n = Math.min(a.length - off, buf.remaining() >> 1);
+				buf.asCharBuffer().get(a, off, n);
+				buf.position(buf.position() + (n << 1));
+				off += n;
+			}
+		} else if (array instanceof double[]) {
+			final double[] a = (double[]) array;
+			for (int off = 0; off < a.length;) {
+				require(8);
+				final int n = Math.min(a.length - off, buf.remaining() >> 3);
+				buf.asDoubleBuffer().get(a, off, n);
+				buf.position(buf.position() + (n << 3));
+				off += n;
+			}
+		} else if (array instanceof float[]) {
+			final float[] a = (float[]) array;
+			for (int off = 0; off < a.length;) {
+				require(4);
+				final int n = Math.min(a.length - off, buf.remaining() >> 2);
+				buf.asFloatBuffer().get(a, off, n);
+				buf.position(buf.position() + (n << 2));
+				off += n;
+			}
+		} else if (array instanceof boolean[]) {
+			final boolean[] a = (boolean[]) array;
+			for (int i = 0; i < a.length; i++)
+				a[i] = readBoolean();
+		} else {
+			throw new YggdrasilException("Not a primitive array: " + array.getClass().getCanonicalName());
+		}
+	}
+	
+	// Enum
+	
+	@Override
+	protected Class<?> readEnumType() throws IOException {
+		return yggdrasil.getClass(readShortString());
+	}
+	
+	@Override
+	protected String readEnumID() throws IOException {
+		return readShortString();
+	}
+	
+	// Class
+	
+	@SuppressWarnings("null")
+	@Override
+	protected Class<?> readClass() throws IOException {
+		Tag type;
+		int dim = 0;
+		while ((type = readTag()) == T_ARRAY)
+			dim++;
+		@NonNull
+		Class<?> c;
+		switch (type) {
+			case T_OBJECT:
+			case T_ENUM:
+				c = yggdrasil.getClass(readShortString());
+				break;
+			case T_BOOLEAN:
+			case T_BOOLEAN_OBJ:
+			case T_BYTE:
+			case T_BYTE_OBJ:
+			case T_CHAR:
+			case T_CHAR_OBJ:
+			case T_DOUBLE:
+			case T_DOUBLE_OBJ:
+			case T_FLOAT:
+			case T_FLOAT_OBJ:
+			case T_INT:
+			case T_INT_OBJ:
+			case T_LONG:
+			case T_LONG_OBJ:
+			case T_SHORT:
+			case T_SHORT_OBJ:
+			case T_CLASS:
+			case T_STRING:
+				c = type.c;
+				assert c != null;
+				break;
+			case T_NULL:
+			case T_REFERENCE:
+				throw new StreamCorruptedException("unexpected tag " + type);
+			case T_ARRAY:
+			default:
+				throw new YggdrasilException("Internal error; " + type);
+		}
+		while (dim-- > 0)
+			c = Array.newInstance(c, 0).getClass();
+		return c;
+	}
+	
+	// Reference
+	
+	@Override
+	protected int readReference() throws IOException {
+		return readUnsignedInt();
+	}
+	
+	// generic Object
+	
+	@Override
+	protected Class<?> readObjectType() throws IOException {
+		return yggdrasil.getClass(readShortString());
+	}
+	
+	@Override
+	protected short readNumFields() throws IOException {
+		return readUnsignedShort();
+	}
+	
+	@Override
+	protected String readFieldID() throws IOException {
+		return readShortString();
+	}
+	
+	@Override
+	protected boolean readsClassLayouts() {
+		return classLayouts;
+	}
+	
+	@Override
+	protected int readLayoutID() throws IOException {
+		return readUnsignedInt();
+	}
+	
+	// stream
+	
+	@Override
+	public void close() throws IOException {
+		final InputStream in = this.in;
+		final ReadableByteChannel channel = this.channel;
+		final ByteBuffer source = this.source;
+		try {
+			require(1);
+			throw new StreamCorruptedException("Stream still has data, at least " + (buf.remaining() + (in != null ? in.available() : 0)) + " bytes remain");
+		} catch (final EOFException e) {} finally {
+			if (in != null)
+				in.close();
+			else if (channel != null)
+				channel.close();
+			else if (source != null)
+				source.position(buf.position());
+		}
+	}
+	
+}
@@ -1,308 +1,767 @@
-/*
- *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
- *
- *  Yggdrasil is free software: you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation, either version 3 of the License, or
- *  (at your option) any later version.
- *
- *  Yggdrasil is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
- * 
- * 
- * Copyright 2013-2014 Peter Güttinger
- * 
- */
-
-package ch.njol.yggdrasil;
-
-import static ch.njol.yggdrasil.Tag.*;
-
-import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.charset.Charset;
-import java.util.HashMap;
-
-public final class DefaultYggdrasilOutputStream extends YggdrasilOutputStream {
-	
-	@SuppressWarnings("null")
-	private final static Charset UTF_8 = Charset.forName("UTF-8");
-	
-	private final OutputStream out;
-	
-	private final short version;
-	
-	public DefaultYggdrasilOutputStream(final Yggdrasil y, final OutputStream out) throws IOException {
-		super(y);
-		this.out = out;
-		version = y.version;
-		writeInt(Yggdrasil.MAGIC_NUMBER);
-		writeShort(version);
-	}
-	
-	// private
-	
-	private void write(final int b) throws IOException {
-		out.write(b);
-	}
-	
-	@Override
-	protected void writeTag(final Tag t) throws IOException {
-		out.write(t.tag);
-	}
-	
-	private final HashMap<String, Integer> writtenShortStrings = new HashMap<String, Integer>();
-	int nextShortStringID = 0;
-	
-	/**
-	 * Writes a class ID or Field name
-	 */
-	private void writeShortString(final String s) throws IOException {
-		if (writtenShortStrings.containsKey(s)) {
-			writeTag(T_REFERENCE);
-			if (version <= 1)
-				writeInt(writtenShortStrings.get(s));
-			else
-				writeUnsignedInt(writtenShortStrings.get(s));
-		} else {
-			if (nextShortStringID < 0)
-				throw new YggdrasilException("Too many field names/class IDs (max: " + Integer.MAX_VALUE + ")");
-			final byte[] d = s.getBytes(UTF_8);
-			if (d.length >= (T_REFERENCE.tag & 0xFF))
-				throw new YggdrasilException("Field name or Class ID too long: " + s);
-			write(d.length);
-			out.write(d);
-			if (d.length > 4)
-				writtenShortStrings.put(s, nextShortStringID++);
-		}
-	}
-	
-	// Primitives
-	
-	private void writeByte(final byte b) throws IOException {
-		write(b & 0xFF);
-	}
-	
-	private void writeShort(final short s) throws IOException {
-		write((s >>> 8) & 0xFF);
-		write(s & 0xFF);
-	}
-	
-	private void writeUnsignedShort(final short s) throws IOException {
-		assert s >= 0;
-		if (s <= 0x7f)
-			writeByte((byte) (0x80 | s));
-		else
-			writeShort(s);
-	}
-	
-	private void writeInt(final int i) throws IOException {
-		write((i >>> 24) & 0xFF);
-		write((i >>> 16) & 0xFF);
-		write((i >>> 8) & 0xFF);
-		write(i & 0xFF);
-	}
-	
-	private void writeUnsignedInt(final int i) throws IOException {
-		assert i >= 0;
-		if (i <= 0x7FFF)
-			writeShort((short) (0x8000 | i));
-		else
-			writeInt(i);
-	}
-	
-	private void writeLong(final long l) throws IOException {
-		write((int) ((l >>> 56) & 0xFF));
-		write((int) ((l >>> 48) & 0xFF));
-		write((int) ((l >>> 40) & 0xFF));
-		write((int) ((l >>> 32) & 0xFF));
-		write((int) ((l >>> 24) & 0xFF));
-		write((int) ((l >>> 16) & 0xFF));
-		write((int) ((l >>> 8) & 0xFF));
-		write((int) (l & 0xFF));
-	}
-	
-	private void writeFloat(final float f) throws IOException {
-		writeInt(Float.floatToIntBits(f));
-	}
-	
-	private void writeDouble(final double d) throws IOException {
-		writeLong(Double.doubleToLongBits(d));
-	}
-	
-	private void writeChar(final char c) throws IOException {
-		writeShort((short) c);
-	}
-	
-	private void writeBoolean(final boolean b) throws IOException {
-		write(b ? 1 : 0);
-	}
-	
-	@SuppressWarnings("null")
-	@Override
-	protected void writePrimitive_(final Object o) throws IOException {
-		switch (getPrimitiveFromWrapper(o.getClass())) {
-			case T_BYTE:
-				writeByte((Byte) o);
-				break;
-			case T_SHORT:
-				writeShort((Short) o);
-				break;
-			case T_INT:
-				writeInt((Integer) o);
-				break;
-			case T_LONG:
-				writeLong((Long) o);
-				break;
-			case T_FLOAT:
-				writeFloat((Float) o);
-				break;
-			case T_DOUBLE:
-				writeDouble((Double) o);
-				break;
-			case T_CHAR:
-				writeChar((Character) o);
-				break;
-			case T_BOOLEAN:
-				writeBoolean((Boolean) o);
-				break;
-			//$CASES-OMITTED$
-			default:
-				throw new YggdrasilException("Invalid call to writePrimitive with argument " + o);
-		}
-	}
-	
-	@Override
-	protected void writePrimitiveValue(final Object o) throws IOException {
-		writePrimitive_(o);
-	}
-	
-	// String
-	
-	@Override
-	protected void writeStringValue(final String s) throws IOException {
-		final byte[] d = s.getBytes(UTF_8);
-		writeUnsignedInt(d.length);
-		out.write(d);
-	}
-	
-	// Array
-	
-	@Override
-	protected void writeArrayComponentType(final Class<?> componentType) throws IOException {
-		writeClass_(componentType);
-	}
-	
-	@Override
-	protected void writeArrayLength(final int length) throws IOException {
-		writeUnsignedInt(length);
-	}
-	
-	@Override
-	protected void writeArrayEnd() throws IOException {}
-	
-	// Class
-	
-	@Override
-	protected void writeClassType(final Class<?> c) throws IOException {
-		writeClass_(c);
-	}
-	
-	@SuppressWarnings("null")
-	private void writeClass_(Class<?> c) throws IOException {
-		while (c.isArray()) {
-			writeTag(T_ARRAY);
-			c = c.getComponentType();
-		}
-		final Tag t = getType(c);
-		switch (t) {
-			case T_OBJECT:
-			case T_ENUM:
-				writeTag(t);
-				writeShortString(yggdrasil.getID(c));
-				break;
-			case T_BOOLEAN:
-			case T_BOOLEAN_OBJ:
-			case T_BYTE:
-			case T_BYTE_OBJ:
-			case T_CHAR:
-			case T_CHAR_OBJ:
-			case T_DOUBLE:
-			case T_DOUBLE_OBJ:
-			case T_FLOAT:
-			case T_FLOAT_OBJ:
-			case T_INT:
-			case T_INT_OBJ:
-			case T_LONG:
-			case T_LONG_OBJ:
-			case T_SHORT:
-			case T_SHORT_OBJ:
-			case T_CLASS:
-			case T_STRING:
-				writeTag(t);
-				break;
-			case T_NULL:
-			case T_REFERENCE:
-			case T_ARRAY:
-			default:
-				throw new YggdrasilException("" + c.getCanonicalName());
-		}
-	}
-	
-	// Enum
-	
-	@Override
-	protected void writeEnumType(final String type) throws IOException {
-		writeShortString(type);
-	}
-	
-	@Override
-	protected void writeEnumID(final String id) throws IOException {
-		writeShortString(id);
-	}
-	
-	// generic Object
-	
-	@Override
-	protected void writeObjectType(final String type) throws IOException {
-		writeShortString(type);
-	}
-	
-	@Override
-	protected void writeNumFields(final short numFields) throws IOException {
-		writeUnsignedShort(numFields);
-	}
-	
-	@Override
-	protected void writeFieldID(final String id) throws IOException {
-		writeShortString(id);
-	}
-	
-	@Override
-	protected void writeObjectEnd() throws IOException {}
-	
-	// Reference
-	
-	@Override
-	protected void writeReferenceID(final int ref) throws IOException {
-		writeUnsignedInt(ref);
-	}
-	
-	// stream
-	
-	@Override
-	public void flush() throws IOException {
-		out.flush();
-	}
-	
-	@Override
-	public void close() throws IOException {
-		out.close();
-	}
-	
-}
+/*
+ *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
+ *
+ *  Yggdrasil is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Yggdrasil is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2013-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.yggdrasil;
+
+import static ch.njol.yggdrasil.Tag.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+public final class DefaultYggdrasilOutputStream extends YggdrasilOutputStream {
+	
+	@SuppressWarnings("null")
+	private final static Charset UTF_8 = Charset.forName("UTF-8");
+	
+	/** The default size of the internal buffer in bytes */
+	public final static int DEFAULT_BUFFER_SIZE = 1 << 16;
+	
+	/** The minimum size of the internal buffer, must be large enough to hold any primitive */
+	public final static int MIN_BUFFER_SIZE = 16;
+	
+	/** Header flag of version 2 and later: int and long values are written as zigzag-encoded variable-length integers */
+	final static int FLAG_VARINTS = 0x01;
+	
+	/** Header flag of version 2 and later: Objects that use the default serialisation are written using class layouts */
+	final static int FLAG_CLASS_LAYOUTS = 0x02;
+	
+	/** Header flag of version 2 and later: Class layouts can contain the types of fields, whose values are then written without their type */
+	final static int FLAG_DECLARED_FIELD_TYPES = 0x04;
+	
+	/** Header flag of version 2 and later: Arrays of a non-primitive type can be packed */
+	final static int FLAG_PACKED_ARRAYS = 0x08;
+	
+	/** Header flag of version 2 and later: Only objects that are referenced more than once have a reference ID */
+	final static int FLAG_SHARED_REFERENCES_ONLY = 0x10;
+	
+	/** The stream the data is written to, or null if it is written to a channel or into a buffer */
+	@Nullable
+	private final OutputStream out;
+	
+	/** The channel the data is written to, or null if it is written to a stream or into a buffer */
+	@Nullable
+	private final WritableByteChannel channel;
+	
+	/** The buffer the data is written into if it is neither written to a stream nor to a channel. Its position is updated when this stream is flushed or closed. */
+	@Nullable
+	private final ByteBuffer target;
+	
+	/**
+	 * All data is written to this buffer first, and only written to {@link #out} or {@link #channel} if it is full or if the stream is flushed. If this stream writes into
+	 * a {@link #target} buffer this is a duplicate of that buffer.
+	 */
+	private final ByteBuffer buf;
+	
+	private final short version;
+	
+	/** Whether int and long values are written as zigzag-encoded variable-length integers */
+	private final boolean varInts;
+	
+	private final boolean classLayouts;
+	
+	private final boolean declaredFieldTypes;
+	
+	private final boolean packedArrays;
+	
+	private final boolean sharedReferencesOnly;
+	
+	public DefaultYggdrasilOutputStream(final Yggdrasil y, final OutputStream out) throws IOException {
+		this(y, out, DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * @param bufferSize The size of the internal buffer in bytes, must be at least {@link #MIN_BUFFER_SIZE}.
+	 */
+	public DefaultYggdrasilOutputStream(final Yggdrasil y, final OutputStream out, final int bufferSize) throws IOException {
+		this(y, out, null, null, allocate(bufferSize, false));
+	}
+	
+	public DefaultYggdrasilOutputStream(final Yggdrasil y, final WritableByteChannel channel) throws IOException {
+		this(y, channel, DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Creates a stream that writes to a channel using a direct buffer. The channel must be blocking.
+	 * 
+	 * @param bufferSize The size of the internal buffer in bytes, must be at least {@link #MIN_BUFFER_SIZE}.
+	 */
+	public DefaultYggdrasilOutputStream(final Yggdrasil y, final WritableByteChannel channel, final int bufferSize) throws IOException {
+		this(y, null, channel, null, allocate(bufferSize, true));
+	}
+	
+	/**
+	 * Creates a stream that writes directly into the given buffer, starting at its position. The buffer's position is updated when this stream is flushed or closed, but its
+	 * byte order is not changed.
+	 * <p>
+	 * A {@link BufferOverflowException} is thrown if the buffer is too small to hold all data.
+	 */
+	@SuppressWarnings("null")
+	public DefaultYggdrasilOutputStream(final Yggdrasil y, final ByteBuffer target) throws IOException {
+		this(y, null, null, target, target.duplicate().order(ByteOrder.BIG_ENDIAN));
+	}
+	
+	private DefaultYggdrasilOutputStream(final Yggdrasil y, final @Nullable OutputStream out, final @Nullable WritableByteChannel channel, final @Nullable ByteBuffer target,
+			final ByteBuffer buf) throws IOException {
+		super(y);
+		this.out = out;
+		this.channel = channel;
+		this.target = target;
+		this.buf = buf;
+		version = y.version;
+		varInts = version >= 2 && y.usesVarInts();
+		classLayouts = version >= 2 && y.usesClassLayouts();
+		declaredFieldTypes = classLayouts && y.usesDeclaredFieldTypes();
+		packedArrays = version >= 2 && y.usesPackedArrays();
+		sharedReferencesOnly = version >= 2 && y.usesSharedReferencesOnly();
+		writeInt(Yggdrasil.MAGIC_NUMBER);
+		writeShort(version);
+		if (version >= 2)
+			writeByte((byte) ((varInts ? FLAG_VARINTS : 0) | (classLayouts ? FLAG_CLASS_LAYOUTS : 0) | (declaredFieldTypes ? FLAG_DECLARED_FIELD_TYPES : 0)
+					| (packedArrays ? FLAG_PACKED_ARRAYS : 0) | (sharedReferencesOnly ? FLAG_SHARED_REFERENCES_ONLY : 0)));
+	}
+	
+	// private
+	
+	private final static ByteBuffer allocate(final int bufferSize, final boolean direct) {
+		if (bufferSize < MIN_BUFFER_SIZE)
+			throw new IllegalArgumentException("Buffer size must be at least " + MIN_BUFFER_SIZE + ", but is " + bufferSize);
+		final ByteBuffer buf = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+		assert buf != null;
+		return buf;
+	}
+	
+	/**
+	 * Makes sure that the buffer has room for at least <tt>n</tt> more bytes.
+	 */
+	private void ensure(final int n) throws IOException {
+		if (buf.remaining() < n) {
+			drain();
+			if (buf.remaining() < n) // only if this stream writes into a buffer
+				throw new BufferOverflowException();
+		}
+	}
+	
+	/**
+	 * Writes the contents of the buffer to the underlying stream or channel and empties the buffer. Does nothing if this stream writes into a buffer.
+	 */
+	private void drain() throws IOException {
+		if (buf.position() == 0)
+			return;
+		final OutputStream out = this.out;
+		final WritableByteChannel channel = this.channel;
+		if (out != null) {
+			out.write(buf.array(), buf.arrayOffset(), buf.position());
+		} else if (channel != null) {
+			buf.flip();
+			while (buf.hasRemaining())
+				channel.write(buf);
+		} else {
+			return;
+		}
+		buf.clear();
+	}
+	
+	private void write(final int b) throws IOException {
+		ensure(1);
+		buf.put((byte) b);
+	}
+	
+	private void write(final byte[] d) throws IOException {
+		write(d, 0, d.length);
+	}
+	
+	private void write(final byte[] d, final int off, final int len) throws IOException {
+		if (len <= buf.remaining()) {
+			buf.put(d, off, len);
+			return;
+		}
+		drain();
+		if (len <= buf.capacity()) {
+			buf.put(d, off, len);
+			return;
+		}
+		final OutputStream out = this.out;
+		final WritableByteChannel channel = this.channel;
+		if (out != null) {
+			out.write(d, off, len);
+		} else if (channel != null) {
+			final ByteBuffer b = ByteBuffer.wrap(d, off, len);
+			while (b.hasRemaining())
+				channel.write(b);
+		} else {
+			throw new BufferOverflowException();
+		}
+	}
+	
+	@Override
+	protected void writeTag(final Tag t) throws IOException {
+		ensure(1);
+		buf.put(t.tag);
+	}
+	
+	/**
+	 * A class ID or field name written to this stream, with its encoded bytes so that it has to be encoded only once
+	 */
+	private final static class ShortString {
+		
+		final byte[] bytes;
+		
+		/** The ID used to reference this string, or -1 if it is always written in full, i.e. is not longer than 4 bytes */
+		final int id;
+		
+		ShortString(final byte[] bytes, final int id) {
+			this.bytes = bytes;
+			this.id = id;
+		}
+		
+	}
+	
+	private final HashMap<String, ShortString> writtenShortStrings = new HashMap<String, ShortString>();
+	int nextShortStringID = 0;
+	
+	/**
+	 * Writes a class ID or Field name
+	 */
+	private void writeShortString(final String s) throws IOException {
+		ShortString w = writtenShortStrings.get(s);
+		if (w != null && w.id >= 0) {
+			writeTag(T_REFERENCE);
+			if (version <= 1)
+				writeInt(w.id);
+			else
+				writeVarInt(w.id);
+			return;
+		}
+		if (w == null) {
+			if (nextShortStringID < 0)
+				throw new YggdrasilException("Too many field names/class IDs (max: " + Integer.MAX_VALUE + ")");
+			final byte[] d = s.getBytes(UTF_8);
+			if (d.length >= (T_REFERENCE.tag & 0xFF))
+				throw new YggdrasilException("Field name or Class ID too long: " + s);
+			w = new ShortString(d, d.length > 4 ? nextShortStringID++ : -1);
+			writtenShortStrings.put(s, w);
+		}
+		write(w.bytes.length);
+		write(w.bytes);
+	}
+	
+	// Primitives
+	
+	private void writeByte(final byte b) throws IOException {
+		write(b & 0xFF);
+	}
+	
+	private void writeShort(final short s) throws IOException {
+		ensure(2);
+		buf.putShort(s);
+	}
+	
+	private void writeUnsignedShort(final short s) throws IOException {
+		assert s >= 0;
+		if (version >= 2)
+			writeVarInt(s);
+		else if (s <= 0x7f)
+			writeByte((byte) (0x80 | s));
+		else
+			writeShort(s);
+	}
+	
+	private void writeInt(final int i) throws IOException {
+		ensure(4);
+		buf.putInt(i);
+	}
+	
+	private void writeUnsignedInt(final int i) throws IOException {
+		assert i >= 0;
+		if (version >= 2)
+			writeVarInt(i);
+		else if (i <= 0x7FFF)
+			writeShort((short) (0x8000 | i));
+		else
+			writeInt(i);
+	}
+	
+	/**
+	 * Writes an int as an unsigned variable-length integer (LEB128), i.e. 7 bits per byte starting with the lowest bits, with the highest bit set in all but the last byte.
+	 */
+	private void writeVarInt(int i) throws IOException {
+		ensure(5);
+		while ((i & ~0x7F) != 0) {
+			buf.put((byte) (i & 0x7F | 0x80));
+			i >>>= 7;
+		}
+		buf.put((byte) i);
+	}
+	
+	/**
+	 * @see #writeVarInt(int)
+	 */
+	private void writeVarLong(long l) throws IOException {
+		ensure(10);
+		while ((l & ~0x7FL) != 0) {
+			buf.put((byte) (l & 0x7F | 0x80));
+			l >>>= 7;
+		}
+		buf.put((byte) l);
+	}
+	
+	private void writeLong(final long l) throws IOException {
+		ensure(8);
+		buf.putLong(l);
+	}
+	
+	private void writeFloat(final float f) throws IOException {
+		writeInt(Float.floatToIntBits(f));
+	}
+	
+	private void writeDouble(final double d) throws IOException {
+		writeLong(Double.doubleToLongBits(d));
+	}
+	
+	private void writeChar(final char c) throws IOException {
+		writeShort((short) c);
+	}
+	
+	private void writeBoolean(final boolean b) throws IOException {
+		write(b ? 1 : 0);
+	}
+	
+	@SuppressWarnings("null")
+	@Override
+	protected void writePrimitive_(final Object o) throws IOException {
+		switch (getPrimitiveFromWrapper(o.getClass())) {
+			case T_BYTE:
+				writeByte((Byte) o);
+				break;
+			case T_SHORT:
+				writeShort((Short) o);
+				break;
+			case T_INT:
+				writeIntValue((Integer) o);
+				break;
+			case T_LONG:
+				writeLongValue((Long) o);
+				break;
+			case T_FLOAT:
+				writeFloat((Float) o);
+				break;
+			case T_DOUBLE:
+				writeDouble((Double) o);
+				break;
+			case T_CHAR:
+				writeChar((Character) o);
+				break;
+			case T_BOOLEAN:
+				writeBoolean((Boolean) o);
+				break;
+			//$CASES-OMITTED$
+			default:
+				throw new YggdrasilException("Invalid call to writePrimitive with argument " + o);
+		}
+	}
+	
+	@Override
+	protected void writePrimitiveValue(final Object o) throws IOException {
+		writePrimitive_(o);
+	}
+	
+	@Override
+	protected void writeBooleanValue(final boolean v) throws IOException {
+		writeBoolean(v);
+	}
+	
+	@Override
+	protected void writeByteValue(final byte v) throws IOException {
+		writeByte(v);
+	}
+	
+	@Override
+	protected void writeShortValue(final short v) throws IOException {
+		writeShort(v);
+	}
+	
+	@Override
+	protected void writeCharValue(final char v) throws IOException {
+		writeChar(v);
+	}
+	
+	/**
+	 * Writes an int value, zigzag-encoded as a variable-length integer if enabled.
+	 */
+	@Override
+	protected void writeIntValue(final int v) throws IOException {
+		if (varInts)
+			writeVarInt(v << 1 ^ v >> 31);
+		else
+			writeInt(v);
+	}
+	
+	/**
+	 * Writes a long value, zigzag-encoded as a variable-length integer if enabled.
+	 */
+	@Override
+	protected void writeLongValue(final long v) throws IOException {
+		if (varInts)
+			writeVarLong(v << 1 ^ v >> 63);
+		else
+			writeLong(v);
+	}
+	
+	@Override
+	protected void writeFloatValue(final float v) throws IOException {
+		writeFloat(v);
+	}
+	
+	@Override
+	protected void writeDoubleValue(final double v) throws IOException {
+		writeDouble(v);
+	}
+	
+	// String
+	
+	@Override
+	protected void writeStringValue(final String s) throws IOException {
+		final int n = s.length();
+		int ascii = 0;
+		while (ascii < n && s.charAt(ascii) < 0x80)
+			ascii++;
+		if (ascii == n) {
+			writeUnsignedInt(n);
+			writeASCII(s);
+		} else {
+			writeUnsignedInt(utf8Length(s, ascii));
+			writeUTF8(s);
+		}
+	}
+	
+	/**
+	 * @param start The number of ASCII characters at the start of the string, which don't have to be checked again
+	 * @return The number of bytes of the given string encoded as UTF-8, in the same way as {@link String#getBytes(Charset)} encodes it, i.e. with unpaired surrogates replaced
+	 *         by '?'
+	 */
+	private final static int utf8Length(final String s, final int start) {
+		final int n = s.length();
+		int length = n;
+		for (int i = start; i < n; i++) {
+			final char c = s.charAt(i);
+			if (c < 0x80)
+				continue;
+			if (c < 0x800) {
+				length++;
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 2; // 4 bytes for 2 chars
+				i++;
+			} else if (!Character.isSurrogate(c)) {
+				length += 2;
+			}
+		}
+		return length;
+	}
+	
+	/**
+	 * Writes a string that only consists of ASCII characters directly into the buffer, one byte per character.
+	 */
+	private void writeASCII(final String s) throws IOException {
+		final int n = s.length();
+		int i = 0;
+		while (i < n) {
+			ensure(1);
+			final int end = i + Math.min(n - i, buf.remaining());
+			for (; i < end; i++)
+				buf.put((byte) s.charAt(i));
+		}
+	}
+	
+	/**
+	 * Encodes a string as UTF-8 directly into the buffer. Produces the same bytes as {@link String#getBytes(Charset)}.
+	 */
+	private void writeUTF8(final String s) throws IOException {
+		final int n = s.length();
+		for (int i = 0; i < n; i++) {
+			final char c = s.charAt(i);
+			ensure(4);
+			if (c < 0x80) {
+				buf.put((byte) c);
+			} else if (c < 0x800) {
+				buf.put((byte) (0xC0 | c >> 6));
+				buf.put((byte) (0x80 | c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+				final int cp = Character.toCodePoint(c, s.charAt(++i));
+				buf.put((byte) (0xF0 | cp >> 18));
+				buf.put((byte) (0x80 | cp >> 12 & 0x3F));
+				buf.put((byte) (0x80 | cp >> 6 & 0x3F));
+				buf.put((byte) (0x80 | cp & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				buf.put((byte) '?');
+			} else {
+				buf.put((byte) (0xE0 | c >> 12));
+				buf.put((byte) (0x80 | c >> 6 & 0x3F));
+				buf.put((byte) (0x80 | c & 0x3F));
+			}
+		}
+	}
+	
+	// Array
+	
+	@Override
+	protected void writeArrayComponentType(final Class<?> componentType) throws IOException {
+		writeClass_(componentType);
+	}
+	
+	@Override
+	protected void writeArrayLength(final int length) throws IOException {
+		writeUnsignedInt(length);
+	}
+	
+	@Override
+	protected void writeArrayEnd() throws IOException {}
+	
+	@Override
+	protected boolean writesPackedArrays() {
+		return packedArrays;
+	}
+	
+	@Override
+	protected boolean writesSharedReferencesOnly() {
+		return sharedReferencesOnly;
+	}
+	
+	@Override
+	protected void writeArrayLengthAndPacking(final long lengthAndPacking) throws IOException {
+		writeVarLong(lengthAndPacking);
+	}
+	
+	@Override
+	protected void writeArrayElementFlags(final int flags) throws IOException {
+		write(flags);
+	}
+	
+	/**
+	 * Copies the array into the buffer in as large blocks as possible. Integral types and chars are copied using views of the buffer, floating point numbers are converted
+	 * individually as their bits have to be normalised.
+	 */
+	@Override
+	protected void writePrimitiveArrayContents(final Object array) throws IOException {
+		if (array instanceof byte[]) {
+			write((byte[]) array);
+		} else if (array instanceof int[]) {
+			final int[] a = (int[]) array;
+			for (int off = 0; off < a.length;) {
+				ensure(4);
+				final int n = Math.min(a.length - off, buf.remaining() >> 2);
+				buf.asIntBuffer().put(a, off, n);
+				buf.position(buf.position() + (n << 2));
+				off += n;
+			}
+		} else if (array instanceof long[]) {
+			final long[] a = (long[]) array;
+			for (int off = 0; off < a.length;) {
+				ensure(8);
+				final int n = Math.min(a.length - off, buf.remaining() >> 3);
+				buf.asLongBuffer().put(a, off, n);
+				buf.position(buf.position() + (n << 3));
+				off += n;
+			}
+		} else if (array instanceof short[]) {
+			final short[] a = (short[]) array;
+			for (int off = 0; off < a.length;) {
+				ensure(2);
+				final int n = Math.min(a.length - off, buf.remaining() >> 1);
+				buf.asShortBuffer().put(a, off, n);
+				buf.position(buf.position() + (n << 1));
+				off += n;
+			}
+		} else if (array instanceof char[]) {
+			final char[] a = (char[]) array;
+			for (int off = 0; off < a.length;) {
+				ensure(2);
+				final int n = Math.min(a.length - off, buf.remaining() >> 1);
+				buf.asCharBuffer().put(a, off, n);
+				buf.position(buf.position() + (n << 1));
+				off += n;
+			}
+		} else if (array instanceof double[]) {
+			for (final double d : (double[]) array) {
+				ensure(8);
+				buf.putLong(Double.doubleToLongBits(d));
+			}
+		} else if (array instanceof float[]) {
+			for (final float f : (float[]) array) {
+				ensure(4);
+				buf.putInt(Float.floatToIntBits(f));
+			}
+		} else if (array instanceof boolean[]) {
+			for (final boolean b : (boolean[]) array) {
+				ensure(1);
+				buf.put(b ? (byte) 1 : (byte) 0);
+			}
+		} else {
+			throw new YggdrasilException("Not a primitive array: " + array.getClass().getCanonicalName());
+		}
+	}
+	
+	// Class
+	
+	@Override
+	protected void writeClassType(final Class<?> c) throws IOException {
+		writeClass_(c);
+	}
+	
+	@SuppressWarnings("null")
+	private void writeClass_(Class<?> c) throws IOException {
+		while (c.isArray()) {
+			writeTag(T_ARRAY);
+			c = c.getComponentType();
+		}
+		final Tag t = getType(c);
+		switch (t) {
+			case T_OBJECT:
+			case T_ENUM:
+				writeTag(t);
+				writeShortString(yggdrasil.getID(c));
+				break;
+			case T_BOOLEAN:
+			case T_BOOLEAN_OBJ:
+			case T_BYTE:
+			case T_BYTE_OBJ:
+			case T_CHAR:
+			case T_CHAR_OBJ:
+			case T_DOUBLE:
+			case T_DOUBLE_OBJ:
+			case T_FLOAT:
+			case T_FLOAT_OBJ:
+			case T_INT:
+			case T_INT_OBJ:
+			case T_LONG:
+			case T_LONG_OBJ:
+			case T_SHORT:
+			case T_SHORT_OBJ:
+			case T_CLASS:
+			case T_STRING:
+				writeTag(t);
+				break;
+			case T_NULL:
+			case T_REFERENCE:
+			case T_ARRAY:
+			default:
+				throw new YggdrasilException("" + c.getCanonicalName());
+		}
+	}
+	
+	// Enum
+	
+	@Override
+	protected void writeEnumType(final String type) throws IOException {
+		writeShortString(type);
+	}
+	
+	@Override
+	protected void writeEnumID(final String id) throws IOException {
+		writeShortString(id);
+	}
+	
+	// generic Object
+	
+	@Override
+	protected void writeObjectType(final String type) throws IOException {
+		writeShortString(type);
+	}
+	
+	@Override
+	protected void writeNumFields(final short numFields) throws IOException {
+		writeUnsignedShort(numFields);
+	}
+	
+	@Override
+	protected void writeFieldID(final String id) throws IOException {
+		writeShortString(id);
+	}
+	
+	@Override
+	protected void writeObjectEnd() throws IOException {}
+	
+	@Override
+	protected boolean writesClassLayouts() {
+		return classLayouts;
+	}
+	
+	@Override
+	protected void writeLayoutID(final int id) throws IOException {
+		writeUnsignedInt(id);
+	}
+	
+	@Override
+	protected boolean writesDeclaredFieldTypes() {
+		return declaredFieldTypes;
+	}
+	
+	// Reference
+	
+	@Override
+	protected void writeReferenceID(final int ref) throws IOException {
+		writeUnsignedInt(ref);
+	}
+	
+	// stream
+	
+	/**
+	 * Writes all buffered data to the underlying stream or channel and flushes it, or updates the position of the buffer this stream writes into.
+	 */
+	@Override
+	public void flush() throws IOException {
+		drain();
+		final OutputStream out = this.out;
+		final ByteBuffer target = this.target;
+		if (out != null)
+			out.flush();
+		else if (target != null)
+			target.position(buf.position());
+	}
+	
+	/**
+	 * Writes all buffered data to the underlying stream or channel and closes it, or updates the position of the buffer this stream writes into.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			drain();
+		} finally {
+			final OutputStream out = this.out;
+			final WritableByteChannel channel = this.channel;
+			final ByteBuffer target = this.target;
+			if (out != null)
+				out.close();
+			else if (channel != null)
+				channel.close();
+			else if (target != null)
+				target.position(buf.position());
+		}
+	}
+	
+}
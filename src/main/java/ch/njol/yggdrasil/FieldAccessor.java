@@ -0,0 +1,323 @@
+/*
+ *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
+ *
+ *  Yggdrasil is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Yggdrasil is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2013-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.yggdrasil;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Reads and writes a single serialisable field using method handles, which can be inlined by the JIT unlike {@link Field#get(Object)} and {@link Field#set(Object, Object)}.
+ * <p>
+ * Primitive fields can be accessed with the typed methods like {@link #getInt(Object)} without boxing their values. These methods must only be used if the field is of exactly
+ * that type.
+ * <p>
+ * Accessors are created once per class by {@link Fields#getAccessors(Class)}.
+ * 
+ * @author Peter Güttinger
+ */
+final class FieldAccessor {
+	
+	private final static MethodType GENERIC_GETTER = MethodType.methodType(Object.class, Object.class),
+			GENERIC_SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+	
+	final Field field;
+	
+	/** The field's ID as returned by {@link Yggdrasil#getID(Field)} */
+	final String id;
+	
+	/** The field's type if it is a primitive, or {@link Tag#T_OBJECT} otherwise */
+	final Tag type;
+	
+	/** <tt>(Object)Object</tt> */
+	private final MethodHandle get;
+	/** <tt>(Object)fieldType</tt>, only used for primitives */
+	private final MethodHandle getExact;
+	
+	/** <tt>(Object, Object)void</tt>, or null if the field cannot be set with a method handle (i.e. on old JVMs if it is final) */
+	@Nullable
+	private final MethodHandle set;
+	/** <tt>(Object, fieldType)void</tt>, only used for primitives */
+	@Nullable
+	private final MethodHandle setExact;
+	
+	/**
+	 * @param f A non-static field which has already been made {@link Field#setAccessible(boolean) accessible}
+	 */
+	@SuppressWarnings("null")
+	FieldAccessor(final Field f) {
+		field = f;
+		id = Yggdrasil.getID(f);
+		final Class<?> t = f.getType();
+		type = t.isPrimitive() ? Tag.getType(t) : Tag.T_OBJECT;
+		final MethodHandles.Lookup lookup = MethodHandles.lookup();
+		try {
+			final MethodHandle g = lookup.unreflectGetter(f);
+			getExact = g.asType(MethodType.methodType(t, Object.class));
+			get = g.asType(GENERIC_GETTER);
+		} catch (final IllegalAccessException e) {
+			throw new YggdrasilException("Field " + f + " is not accessible", e);
+		}
+		MethodHandle s;
+		try {
+			s = lookup.unreflectSetter(f);
+		} catch (final IllegalAccessException e) { // final fields cannot be written with method handles before Java 9
+			s = null;
+		}
+		setExact = s == null ? null : s.asType(MethodType.methodType(void.class, Object.class, t));
+		set = s == null ? null : s.asType(GENERIC_SETTER);
+	}
+	
+	public boolean isPrimitive() {
+		return type != Tag.T_OBJECT;
+	}
+	
+	// getters
+	
+	/**
+	 * @return The value of this field, boxed if it is a primitive
+	 */
+	@Nullable
+	public Object get(final Object o) {
+		try {
+			return get.invokeExact(o);
+		} catch (final Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	public boolean getBoolean(final Object o) {
+		try {
+			return (boolean) getExact.invokeExact(o);
+		} catch (final Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	public byte getByte(final Object o) {
+		try {
+			return (byte) getExact.invokeExact(o);
+		} catch (final Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	public short getShort(final Object o) {
+		try {
+			return (short) getExact.invokeExact(o);
+		} catch (final Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	public char getChar(final Object o) {
+		try {
+			return (char) getExact.invokeExact(o);
+		} catch (final Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	public int getInt(final Object o) {
+		try {
+			return (int) getExact.invokeExact(o);
+		} catch (final Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	public long getLong(final Object o) {
+		try {
+			return (long) getExact.invokeExact(o);
+		} catch (final Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	public float getFloat(final Object o) {
+		try {
+			return (float) getExact.invokeExact(o);
+		} catch (final Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	public double getDouble(final Object o) {
+		try {
+			return (double) getExact.invokeExact(o);
+		} catch (final Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	// setters
+	
+	/**
+	 * Sets this field to the given value, which must be a wrapper if this field is a primitive.
+	 * 
+	 * @throws IllegalArgumentException If the value is not compatible with the field's type
+	 */
+	public void set(final Object o, final @Nullable Object value) throws IllegalArgumentException {
+		final MethodHandle set = this.set;
+		if (set == null) {
+			try {
+				field.set(o, value);
+			} catch (final IllegalAccessException e) {
+				throw new YggdrasilException(e);
+			}
+			return;
+		}
+		try {
+			set.invokeExact(o, value);
+		} catch (final ClassCastException e) {
+			throw new IllegalArgumentException(e);
+		} catch (final NullPointerException e) { // null for a primitive field
+			throw new IllegalArgumentException(e);
+		} catch (final Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	public void setBoolean(final Object o, final boolean value) {
+		final MethodHandle set = setExact;
+		if (set == null) {
+			set(o, value);
+			return;
+		}
+		try {
+			set.invokeExact(o, value);
+		} catch (final Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	public void setByte(final Object o, final byte value) {
+		final MethodHandle set = setExact;
+		if (set == null) {
+			set(o, value);
+			return;
+		}
+		try {
+			set.invokeExact(o, value);
+		} catch (final Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	public void setShort(final Object o, final short value) {
+		final MethodHandle set = setExact;
+		if (set == null) {
+			set(o, value);
+			return;
+		}
+		try {
+			set.invokeExact(o, value);
+		} catch (final Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	public void setChar(final Object o, final char value) {
+		final MethodHandle set = setExact;
+		if (set == null) {
+			set(o, value);
+			return;
+		}
+		try {
+			set.invokeExact(o, value);
+		} catch (final Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	public void setInt(final Object o, final int value) {
+		final MethodHandle set = setExact;
+		if (set == null) {
+			set(o, value);
+			return;
+		}
+		try {
+			set.invokeExact(o, value);
+		} catch (final Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	public void setLong(final Object o, final long value) {
+		final MethodHandle set = setExact;
+		if (set == null) {
+			set(o, value);
+			return;
+		}
+		try {
+			set.invokeExact(o, value);
+		} catch (final Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	public void setFloat(final Object o, final float value) {
+		final MethodHandle set = setExact;
+		if (set == null) {
+			set(o, value);
+			return;
+		}
+		try {
+			set.invokeExact(o, value);
+		} catch (final Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	public void setDouble(final Object o, final double value) {
+		final MethodHandle set = setExact;
+		if (set == null) {
+			set(o, value);
+			return;
+		}
+		try {
+			set.invokeExact(o, value);
+		} catch (final Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	/**
+	 * Method handles can throw any Throwable, but field accessors can only throw unchecked exceptions.
+	 */
+	private final static RuntimeException rethrow(final Throwable t) {
+		if (t instanceof RuntimeException)
+			return (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		return new YggdrasilException(t);
+	}
+	
+	@Override
+	public String toString() {
+		return "FieldAccessor[" + field + "]";
+	}
+	
+}
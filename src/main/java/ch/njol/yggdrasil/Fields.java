@@ -1,405 +1,932 @@
-/*
- *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
- *
- *  Yggdrasil is free software: you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation, either version 3 of the License, or
- *  (at your option) any later version.
- *
- *  Yggdrasil is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
- * 
- * 
- * Copyright 2013-2014 Peter Güttinger
- * 
- */
-
-package ch.njol.yggdrasil;
-
-import java.io.NotSerializableException;
-import java.io.StreamCorruptedException;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
-
-import javax.annotation.concurrent.NotThreadSafe;
-
-import org.eclipse.jdt.annotation.Nullable;
-
-import ch.njol.yggdrasil.Fields.FieldContext; // required - wtf
-import ch.njol.yggdrasil.YggdrasilSerializable.YggdrasilRobustSerializable;
-
-@NotThreadSafe
-public final class Fields implements Iterable<FieldContext> {
-	
-	/**
-	 * Holds a field's name and value, and throws {@link StreamCorruptedException}s if primitives or objects are used incorrectly.
-	 * 
-	 * @author Peter Güttinger
-	 */
-	@NotThreadSafe
-	public final static class FieldContext {
-		
-		final String id;
-		
-		/** not null if this {@link #isPrimitiveValue is a primitive} */
-		@Nullable
-		private Object value;
-		
-		private boolean isPrimitiveValue;
-		
-		FieldContext(final String id) {
-			this.id = id;
-		}
-		
-		FieldContext(final Field f, final Object o) throws IllegalArgumentException, IllegalAccessException {
-			id = Yggdrasil.getID(f);
-			value = f.get(o);
-			isPrimitiveValue = f.getType().isPrimitive();
-		}
-		
-		public String getID() {
-			return id;
-		}
-		
-		public boolean isPrimitive() {
-			return isPrimitiveValue;
-		}
-		
-		@Nullable
-		public Class<?> getType() {
-			final Object value = this.value;
-			if (value == null)
-				return null;
-			final Class<?> c = value.getClass();
-			assert c != null;
-			return isPrimitiveValue ? Tag.getPrimitiveFromWrapper(c).c : c;
-		}
-		
-		@Nullable
-		public Object getObject() throws StreamCorruptedException {
-			if (isPrimitiveValue)
-				throw new StreamCorruptedException("field " + id + " is a primitive, but expected an object");
-			return value;
-		}
-		
-		@SuppressWarnings("unchecked")
-		@Nullable
-		public <T> T getObject(final Class<T> expectedType) throws StreamCorruptedException {
-			if (isPrimitiveValue)
-				throw new StreamCorruptedException("field " + id + " is a primitive, but expected " + expectedType);
-			final Object value = this.value;
-			if (value != null && !expectedType.isInstance(value))
-				throw new StreamCorruptedException("Field " + id + " of " + value.getClass() + ", but expected " + expectedType);
-			return (T) value;
-		}
-		
-		public Object getPrimitive() throws StreamCorruptedException {
-			if (!isPrimitiveValue)
-				throw new StreamCorruptedException("field " + id + " is not a primitive, but expected one");
-			assert value != null;
-			return value;
-		}
-		
-		@SuppressWarnings("unchecked")
-		public <T> T getPrimitive(final Class<T> expectedType) throws StreamCorruptedException {
-			if (!isPrimitiveValue)
-				throw new StreamCorruptedException("field " + id + " is not a primitive, but expected " + expectedType);
-			assert expectedType.isPrimitive() || Tag.isWrapper(expectedType);
-			final Object value = this.value;
-			assert value != null;
-			if (!(expectedType.isPrimitive() ? Tag.getWrapperClass(expectedType).isInstance(value) : expectedType.isInstance(value)))
-				throw new StreamCorruptedException("Field " + id + " of " + value.getClass() + ", but expected " + expectedType);
-			return (T) value;
-		}
-		
-		public void setObject(final @Nullable Object value) {
-			this.value = value;
-			isPrimitiveValue = false;
-		}
-		
-		@SuppressWarnings("null")
-		public void setPrimitive(final Object value) {
-			assert value != null && Tag.isWrapper(value.getClass());
-			this.value = value;
-			isPrimitiveValue = true;
-		}
-		
-		public void setField(final Object o, final Field f, final Yggdrasil y) throws StreamCorruptedException {
-			if (Modifier.isStatic(f.getModifiers()))
-				throw new StreamCorruptedException("The field " + id + " of " + f.getDeclaringClass() + " is static");
-			if (Modifier.isTransient(f.getModifiers()))
-				throw new StreamCorruptedException("The field " + id + " of " + f.getDeclaringClass() + " is transient");
-			if (f.getType().isPrimitive() != isPrimitiveValue)
-				throw new StreamCorruptedException("The field " + id + " of " + f.getDeclaringClass() + " is " + (f.getType().isPrimitive() ? "" : "not ") + "primitive");
-			try {
-				f.setAccessible(true);
-				f.set(o, value);
-			} catch (final IllegalArgumentException e) {
-				if (!(o instanceof YggdrasilRobustSerializable) || !((YggdrasilRobustSerializable) o).incompatibleField(f, this))
-					y.incompatibleField(o, f, this);
-			} catch (final IllegalAccessException e) {
-				assert false;
-			}
-		}
-		
-		@Override
-		public int hashCode() {
-			return id.hashCode();
-		}
-		
-		@Override
-		public boolean equals(final @Nullable Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null)
-				return false;
-			if (!(obj instanceof FieldContext))
-				return false;
-			final FieldContext other = (FieldContext) obj;
-			return id.equals(other.id);
-		}
-		
-	}
-	
-	@Nullable
-	private final Yggdrasil yggdrasil;
-	
-	private final Map<String, FieldContext> fields = new HashMap<String, FieldContext>();
-	
-	/**
-	 * Creates an empty Fields object.
-	 */
-	public Fields() {
-		yggdrasil = null;
-	}
-	
-	public Fields(final Yggdrasil yggdrasil) {
-		this.yggdrasil = yggdrasil;
-	}
-	
-	/**
-	 * Creates a fields object and initialises it with all non-transient and non-static fields of the given class and its superclasses.
-	 * 
-	 * @param c Some class
-	 * @throws NotSerializableException If a field occurs more than once (i.e. if a class has a field with the same name as a field in one of its superclasses)
-	 */
-	public Fields(final Class<?> c, final Yggdrasil yggdrasil) throws NotSerializableException {
-		this.yggdrasil = yggdrasil;
-		for (final Field f : getFields(c)) {
-			assert f != null;
-			final String id = Yggdrasil.getID(f);
-			fields.put(id, new FieldContext(id));
-		}
-	}
-	
-	/**
-	 * Creates a fields object and initialises it with all non-transient and non-static fields of the given object.
-	 * 
-	 * @param o Some object
-	 * @throws NotSerializableException If a field occurs more than once (i.e. if a class has a field with the same name as a field in one of its superclasses)
-	 */
-	public Fields(final Object o) throws NotSerializableException {
-		this(o, null);
-	}
-	
-	/**
-	 * Creates a fields object and initialises it with all non-transient and non-static fields of the given object.
-	 * 
-	 * @param o Some object
-	 * @throws NotSerializableException If a field occurs more than once (i.e. if a class has a field with the same name as a field in one of its superclasses)
-	 */
-	public Fields(final Object o, @Nullable final Yggdrasil yggdrasil) throws NotSerializableException {
-		this.yggdrasil = yggdrasil;
-		final Class<?> c = o.getClass();
-		assert c != null;
-		for (final Field f : getFields(c)) {
-			assert f != null;
-			try {
-				fields.put(Yggdrasil.getID(f), new FieldContext(f, o));
-			} catch (final IllegalArgumentException e) {
-				assert false;
-			} catch (final IllegalAccessException e) {
-				assert false;
-			}
-		}
-	}
-	
-	private final static Map<Class<?>, Collection<Field>> cache = new HashMap<Class<?>, Collection<Field>>();
-	
-	/**
-	 * Gets all serialisable fields of the provided class, including superclasses.
-	 * 
-	 * @param c The class to get the fields of
-	 * @return All non-static and non-transient fields of the given class and its superclasses
-	 * @throws NotSerializableException If a field occurs more than once (i.e. if a class has a field with the same name as a field in one of its superclasses)
-	 */
-	public final static Collection<Field> getFields(final Class<?> c) throws NotSerializableException {
-		Collection<Field> fields = cache.get(c);
-		if (fields != null)
-			return fields;
-		fields = new ArrayList<Field>();
-		final Set<String> ids = new HashSet<String>();
-		for (Class<?> sc = c; sc != null; sc = sc.getSuperclass()) {
-			final Field[] fs = sc.getDeclaredFields();
-			for (final Field f : fs) {
-				final int m = f.getModifiers();
-				if (Modifier.isStatic(m) || Modifier.isTransient(m))
-					continue;
-				final String id = Yggdrasil.getID(f);
-				if (ids.contains(id))
-					throw new NotSerializableException(c + "/" + sc + ": duplicate field id '" + id + "'");
-				f.setAccessible(true);
-				fields.add(f);
-				ids.add(id);
-			}
-		}
-		fields = Collections.unmodifiableCollection(fields);
-		assert fields != null;
-		cache.put(c, fields);
-		return fields;
-	}
-	
-	/**
-	 * Sets all fields of the given Object to the values stored in this Fields object.
-	 * 
-	 * @param o The object whose fields should be set
-	 * @throws StreamCorruptedException
-	 * @throws NotSerializableException
-	 * @throws YggdrasilException If this was called on a Fields object not created by Yggdrasil itself
-	 */
-	public void setFields(final Object o) throws StreamCorruptedException, NotSerializableException {
-		final Yggdrasil y = yggdrasil;
-		if (y == null)
-			throw new YggdrasilException("");
-		final Set<FieldContext> excessive = new HashSet<FieldContext>(fields.values());
-		final Class<?> oc = o.getClass();
-		assert oc != null;
-		for (final Field f : getFields(oc)) {
-			assert f != null;
-			final String id = Yggdrasil.getID(f);
-			final FieldContext c = fields.get(id);
-			if (c == null) {
-				if (!(o instanceof YggdrasilRobustSerializable) || !((YggdrasilRobustSerializable) o).missingField(f))
-					y.missingField(o, f);
-			} else {
-				c.setField(o, f, y);
-			}
-			excessive.remove(c);
-		}
-		for (final FieldContext f : excessive) {
-			assert f != null;
-			if (!(o instanceof YggdrasilRobustSerializable) || !((YggdrasilRobustSerializable) o).excessiveField(f))
-				y.excessiveField(o, f);
-		}
-	}
-	
-	@Deprecated
-	public void setFields(final Object o, final Yggdrasil y) throws StreamCorruptedException, NotSerializableException {
-		assert yggdrasil == y;
-		setFields(o);
-	}
-	
-	/**
-	 * @return The number of fields defined
-	 */
-	public int size() {
-		return fields.size();
-	}
-	
-	public void putObject(final String fieldID, final @Nullable Object value) {
-		FieldContext c = fields.get(fieldID);
-		if (c == null)
-			fields.put(fieldID, c = new FieldContext(fieldID));
-		c.setObject(value);
-	}
-	
-	public void putPrimitive(final String fieldID, final Object value) {
-		FieldContext c = fields.get(fieldID);
-		if (c == null)
-			fields.put(fieldID, c = new FieldContext(fieldID));
-		c.setPrimitive(value);
-	}
-	
-	/**
-	 * @param fieldID A field's id
-	 * @return Whether the field is defined
-	 */
-	public boolean contains(final String fieldID) {
-		return fields.containsKey(fieldID);
-	}
-	
-	@Nullable
-	public Object getObject(final String field) throws StreamCorruptedException {
-		final FieldContext c = fields.get(field);
-		if (c == null)
-			throw new StreamCorruptedException("Nonexistent field " + field);
-		return c.getObject();
-	}
-	
-	@Nullable
-	public <T> T getObject(final String fieldID, final Class<T> expectedType) throws StreamCorruptedException {
-		assert !expectedType.isPrimitive();
-		final FieldContext c = fields.get(fieldID);
-		if (c == null)
-			throw new StreamCorruptedException("Nonexistent field " + fieldID);
-		return c.getObject(expectedType);
-	}
-	
-	public Object getPrimitive(final String fieldID) throws StreamCorruptedException {
-		final FieldContext c = fields.get(fieldID);
-		if (c == null)
-			throw new StreamCorruptedException("Nonexistent field " + fieldID);
-		return c.getPrimitive();
-	}
-	
-	public <T> T getPrimitive(final String fieldID, final Class<T> expectedType) throws StreamCorruptedException {
-		assert expectedType.isPrimitive() || Tag.getPrimitiveFromWrapper(expectedType).isPrimitive();
-		final FieldContext c = fields.get(fieldID);
-		if (c == null)
-			throw new StreamCorruptedException("Nonexistent field " + fieldID);
-		return c.getPrimitive(expectedType);
-	}
-	
-	@Nullable
-	public <T> T getAndRemoveObject(final String field, final Class<T> expectedType) throws StreamCorruptedException {
-		final T t = getObject(field, expectedType);
-		removeField(field);
-		return t;
-	}
-	
-	public <T> T getAndRemovePrimitive(final String field, final Class<T> expectedType) throws StreamCorruptedException {
-		final T t = getPrimitive(field, expectedType);
-		removeField(field);
-		return t;
-	}
-	
-	/**
-	 * Removes a field and its value from this Fields object.
-	 * 
-	 * @param fieldID The id of the field to remove
-	 * @return Whether a field with the given name was actually defined
-	 */
-	public boolean removeField(final String fieldID) {
-		return fields.remove(fieldID) != null;
-	}
-	
-	@SuppressWarnings("null")
-	@Override
-	public Iterator<FieldContext> iterator() {
-		return fields.values().iterator();
-	}
-	
-}
+/*
+ *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
+ *
+ *  Yggdrasil is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Yggdrasil is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2013-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.yggdrasil;
+
+import java.io.NotSerializableException;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.yggdrasil.Fields.FieldContext; // required - wtf
+import ch.njol.yggdrasil.YggdrasilSerializable.YggdrasilRobustSerializable;
+
+@NotThreadSafe
+public final class Fields implements Iterable<FieldContext> {
+	
+	/**
+	 * Holds a field's name and value, and throws {@link StreamCorruptedException}s if primitives or objects are used incorrectly.
+	 * 
+	 * @author Peter Güttinger
+	 */
+	@NotThreadSafe
+	public final static class FieldContext {
+		
+		/**
+		 * Not final as FieldContexts are reused by pooled {@link Fields} objects. A context that has been passed to a {@link FieldHandler} or a
+		 * {@link YggdrasilRobustSerializable} is never reused, so its ID (and thus its {@link #hashCode()} and {@link #equals(Object)}) does not change afterwards.
+		 */
+		String id;
+		
+		/** The value if this is an object, or the boxed primitive if it has been requested through a method that returns an Object */
+		@Nullable
+		private Object value;
+		
+		/** The type of the primitive, or null if this is an object */
+		@Nullable
+		Tag primitiveType;
+		
+		/** The primitive's value: booleans are stored as 0 or 1, floats and doubles as their raw bits, and all other types sign-extended */
+		long primitive;
+		
+		FieldContext(final String id) {
+			this.id = id;
+		}
+		
+		FieldContext(final FieldAccessor f, final Object o) {
+			id = f.id;
+			set(f, o);
+		}
+		
+		/**
+		 * Sets this context to the value of the given field of the given object.
+		 */
+		@SuppressWarnings("null")
+		final void set(final FieldAccessor f, final Object o) {
+			switch (f.type) {
+				case T_BOOLEAN:
+					setBoolean(f.getBoolean(o));
+					break;
+				case T_BYTE:
+					setByte(f.getByte(o));
+					break;
+				case T_SHORT:
+					setShort(f.getShort(o));
+					break;
+				case T_CHAR:
+					setChar(f.getChar(o));
+					break;
+				case T_INT:
+					setInt(f.getInt(o));
+					break;
+				case T_LONG:
+					setLong(f.getLong(o));
+					break;
+				case T_FLOAT:
+					setFloat(f.getFloat(o));
+					break;
+				case T_DOUBLE:
+					setDouble(f.getDouble(o));
+					break;
+				//$CASES-OMITTED$
+				default:
+					setObject(f.get(o));
+			}
+		}
+		
+		public String getID() {
+			return id;
+		}
+		
+		public boolean isPrimitive() {
+			return primitiveType != null;
+		}
+		
+		@Nullable
+		public Class<?> getType() {
+			final Tag primitiveType = this.primitiveType;
+			if (primitiveType != null)
+				return primitiveType.c;
+			final Object value = this.value;
+			if (value == null)
+				return null;
+			return value.getClass();
+		}
+		
+		@Nullable
+		public Object getObject() throws StreamCorruptedException {
+			if (primitiveType != null)
+				throw new StreamCorruptedException("field " + id + " is a primitive, but expected an object");
+			return value;
+		}
+		
+		@SuppressWarnings("unchecked")
+		@Nullable
+		public <T> T getObject(final Class<T> expectedType) throws StreamCorruptedException {
+			if (primitiveType != null)
+				throw new StreamCorruptedException("field " + id + " is a primitive, but expected " + expectedType);
+			final Object value = this.value;
+			if (value != null && !expectedType.isInstance(value))
+				throw new StreamCorruptedException("Field " + id + " of " + value.getClass() + ", but expected " + expectedType);
+			return (T) value;
+		}
+		
+		public Object getPrimitive() throws StreamCorruptedException {
+			if (primitiveType == null)
+				throw new StreamCorruptedException("field " + id + " is not a primitive, but expected one");
+			return box();
+		}
+		
+		@SuppressWarnings("unchecked")
+		public <T> T getPrimitive(final Class<T> expectedType) throws StreamCorruptedException {
+			final Tag primitiveType = this.primitiveType;
+			if (primitiveType == null)
+				throw new StreamCorruptedException("field " + id + " is not a primitive, but expected " + expectedType);
+			assert expectedType.isPrimitive() || Tag.isWrapper(expectedType);
+			final Object value = box();
+			if (!(expectedType.isPrimitive() ? primitiveType.c == expectedType : expectedType.isInstance(value)))
+				throw new StreamCorruptedException("Field " + id + " of " + value.getClass() + ", but expected " + expectedType);
+			return (T) value;
+		}
+		
+		private final void checkPrimitive(final Tag expectedType) throws StreamCorruptedException {
+			final Tag primitiveType = this.primitiveType;
+			if (primitiveType == null)
+				throw new StreamCorruptedException("field " + id + " is not a primitive, but expected " + expectedType.c);
+			if (primitiveType != expectedType)
+				throw new StreamCorruptedException("Field " + id + " of " + primitiveType.c + ", but expected " + expectedType.c);
+		}
+		
+		public boolean getBoolean() throws StreamCorruptedException {
+			checkPrimitive(Tag.T_BOOLEAN);
+			return primitive != 0;
+		}
+		
+		public byte getByte() throws StreamCorruptedException {
+			checkPrimitive(Tag.T_BYTE);
+			return (byte) primitive;
+		}
+		
+		public short getShort() throws StreamCorruptedException {
+			checkPrimitive(Tag.T_SHORT);
+			return (short) primitive;
+		}
+		
+		public char getChar() throws StreamCorruptedException {
+			checkPrimitive(Tag.T_CHAR);
+			return (char) primitive;
+		}
+		
+		public int getInt() throws StreamCorruptedException {
+			checkPrimitive(Tag.T_INT);
+			return (int) primitive;
+		}
+		
+		public long getLong() throws StreamCorruptedException {
+			checkPrimitive(Tag.T_LONG);
+			return primitive;
+		}
+		
+		public float getFloat() throws StreamCorruptedException {
+			checkPrimitive(Tag.T_FLOAT);
+			return Float.intBitsToFloat((int) primitive);
+		}
+		
+		public double getDouble() throws StreamCorruptedException {
+			checkPrimitive(Tag.T_DOUBLE);
+			return Double.longBitsToDouble(primitive);
+		}
+		
+		/**
+		 * @return The boxed primitive, which is cached until the value changes
+		 */
+		private final Object box() {
+			Object value = this.value;
+			if (value == null)
+				this.value = value = box_();
+			return value;
+		}
+		
+		@SuppressWarnings("null")
+		private final Object box_() {
+			final Tag primitiveType = this.primitiveType;
+			assert primitiveType != null;
+			switch (primitiveType) {
+				case T_BOOLEAN:
+					return primitive != 0;
+				case T_BYTE:
+					return (byte) primitive;
+				case T_SHORT:
+					return (short) primitive;
+				case T_CHAR:
+					return (char) primitive;
+				case T_INT:
+					return (int) primitive;
+				case T_LONG:
+					return primitive;
+				case T_FLOAT:
+					return Float.intBitsToFloat((int) primitive);
+				case T_DOUBLE:
+					return Double.longBitsToDouble(primitive);
+				//$CASES-OMITTED$
+				default:
+					throw new YggdrasilException("Internal error; " + primitiveType);
+			}
+		}
+		
+		public void setObject(final @Nullable Object value) {
+			this.value = value;
+			primitiveType = null;
+		}
+		
+		@SuppressWarnings("null")
+		public void setPrimitive(final Object value) {
+			assert value != null && Tag.isWrapper(value.getClass());
+			switch (Tag.getPrimitiveFromWrapper(value.getClass())) {
+				case T_BOOLEAN:
+					setBoolean((Boolean) value);
+					break;
+				case T_BYTE:
+					setByte((Byte) value);
+					break;
+				case T_SHORT:
+					setShort((Short) value);
+					break;
+				case T_CHAR:
+					setChar((Character) value);
+					break;
+				case T_INT:
+					setInt((Integer) value);
+					break;
+				case T_LONG:
+					setLong((Long) value);
+					break;
+				case T_FLOAT:
+					setFloat((Float) value);
+					break;
+				case T_DOUBLE:
+					setDouble((Double) value);
+					break;
+				//$CASES-OMITTED$
+				default:
+					throw new YggdrasilException("Internal error; " + value.getClass());
+			}
+			this.value = value;
+		}
+		
+		final void setPrimitiveBits(final Tag type, final long bits) {
+			assert type.isPrimitive();
+			primitiveType = type;
+			primitive = bits;
+			value = null;
+		}
+		
+		public void setBoolean(final boolean value) {
+			setPrimitiveBits(Tag.T_BOOLEAN, value ? 1 : 0);
+		}
+		
+		public void setByte(final byte value) {
+			setPrimitiveBits(Tag.T_BYTE, value);
+		}
+		
+		public void setShort(final short value) {
+			setPrimitiveBits(Tag.T_SHORT, value);
+		}
+		
+		public void setChar(final char value) {
+			setPrimitiveBits(Tag.T_CHAR, value);
+		}
+		
+		public void setInt(final int value) {
+			setPrimitiveBits(Tag.T_INT, value);
+		}
+		
+		public void setLong(final long value) {
+			setPrimitiveBits(Tag.T_LONG, value);
+		}
+		
+		public void setFloat(final float value) {
+			setPrimitiveBits(Tag.T_FLOAT, Float.floatToRawIntBits(value));
+		}
+		
+		public void setDouble(final double value) {
+			setPrimitiveBits(Tag.T_DOUBLE, Double.doubleToRawLongBits(value));
+		}
+		
+		public void setField(final Object o, final Field f, final Yggdrasil y) throws StreamCorruptedException {
+			if (Modifier.isStatic(f.getModifiers()))
+				throw new StreamCorruptedException("The field " + id + " of " + f.getDeclaringClass() + " is static");
+			if (Modifier.isTransient(f.getModifiers()))
+				throw new StreamCorruptedException("The field " + id + " of " + f.getDeclaringClass() + " is transient");
+			if (f.getType().isPrimitive() != isPrimitive())
+				throw new StreamCorruptedException("The field " + id + " of " + f.getDeclaringClass() + " is " + (f.getType().isPrimitive() ? "" : "not ") + "primitive");
+			try {
+				f.setAccessible(true);
+				f.set(o, isPrimitive() ? box() : value);
+			} catch (final IllegalArgumentException e) {
+				if (!(o instanceof YggdrasilRobustSerializable) || !((YggdrasilRobustSerializable) o).incompatibleField(f, this))
+					y.incompatibleField(o, f, this);
+			} catch (final IllegalAccessException e) {
+				assert false;
+			}
+		}
+		
+		/**
+		 * Sets the given field of the given object to this context's value. Does not call any handlers if the types are incompatible, as the caller must
+		 * first mark this context as exposed.
+		 * 
+		 * @return Whether the field could be set, i.e. the types are compatible
+		 */
+		@SuppressWarnings("null")
+		boolean setField(final Object o, final FieldAccessor f) throws StreamCorruptedException {
+			final Tag primitiveType = this.primitiveType;
+			if (f.isPrimitive() != (primitiveType != null))
+				throw new StreamCorruptedException("The field " + id + " of " + f.field.getDeclaringClass() + " is " + (f.isPrimitive() ? "" : "not ") + "primitive");
+			if (primitiveType != null && primitiveType == f.type) {
+				switch (primitiveType) {
+					case T_BOOLEAN:
+						f.setBoolean(o, primitive != 0);
+						return true;
+					case T_BYTE:
+						f.setByte(o, (byte) primitive);
+						return true;
+					case T_SHORT:
+						f.setShort(o, (short) primitive);
+						return true;
+					case T_CHAR:
+						f.setChar(o, (char) primitive);
+						return true;
+					case T_INT:
+						f.setInt(o, (int) primitive);
+						return true;
+					case T_LONG:
+						f.setLong(o, primitive);
+						return true;
+					case T_FLOAT:
+						f.setFloat(o, Float.intBitsToFloat((int) primitive));
+						return true;
+					case T_DOUBLE:
+						f.setDouble(o, Double.longBitsToDouble(primitive));
+						return true;
+					//$CASES-OMITTED$
+					default:
+						assert false;
+				}
+			}
+			try {
+				f.set(o, primitiveType != null ? box() : value);
+				return true;
+			} catch (final IllegalArgumentException e) {
+				return false;
+			}
+		}
+		
+		@Override
+		public int hashCode() {
+			return id.hashCode();
+		}
+		
+		@Override
+		public boolean equals(final @Nullable Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (!(obj instanceof FieldContext))
+				return false;
+			final FieldContext other = (FieldContext) obj;
+			return id.equals(other.id);
+		}
+		
+	}
+	
+	@Nullable
+	private final Yggdrasil yggdrasil;
+	
+	/** Fields with more than this many fields use a map to find fields by ID */
+	private final static int MAX_LINEAR_SEARCH = 8;
+	
+	/**
+	 * The fields in the order they were added, which is the order of {@link #getFields(Class)} for fields created from a class or object. Contexts after {@link #size} are
+	 * unused and kept for reuse.
+	 */
+	private FieldContext[] fields = new FieldContext[MAX_LINEAR_SEARCH];
+	
+	private int size = 0;
+	
+	/** Maps field IDs to their index in {@link #fields}. Only created if there are many fields, and invalidated when a field is removed. */
+	@Nullable
+	private Map<String, Integer> indices = null;
+	
+	/**
+	 * Set when one of the {@link #fields contexts} has been passed to a field handler, in which case neither this object nor its contexts may be reused, as
+	 * the handler may have kept the context, e.g. in a hash set.
+	 */
+	private boolean exposed = false;
+	
+	/**
+	 * Creates an empty Fields object.
+	 */
+	public Fields() {
+		yggdrasil = null;
+	}
+	
+	public Fields(final Yggdrasil yggdrasil) {
+		this.yggdrasil = yggdrasil;
+	}
+	
+	/**
+	 * Creates a fields object and initialises it with all non-transient and non-static fields of the given class and its superclasses.
+	 * 
+	 * @param c Some class
+	 * @throws NotSerializableException If a field occurs more than once (i.e. if a class has a field with the same name as a field in one of its superclasses)
+	 */
+	public Fields(final Class<?> c, final Yggdrasil yggdrasil) throws NotSerializableException {
+		this.yggdrasil = yggdrasil;
+		for (final FieldAccessor f : getAccessors(c))
+			add(f.id);
+	}
+	
+	/**
+	 * Creates a fields object and initialises it with all non-transient and non-static fields of the given object.
+	 * 
+	 * @param o Some object
+	 * @throws NotSerializableException If a field occurs more than once (i.e. if a class has a field with the same name as a field in one of its superclasses)
+	 */
+	public Fields(final Object o) throws NotSerializableException {
+		this(o, (Yggdrasil) null);
+	}
+	
+	/**
+	 * Creates a fields object and initialises it with all non-transient and non-static fields of the given object.
+	 * 
+	 * @param o Some object
+	 * @throws NotSerializableException If a field occurs more than once (i.e. if a class has a field with the same name as a field in one of its superclasses)
+	 */
+	public Fields(final Object o, @Nullable final Yggdrasil yggdrasil) throws NotSerializableException {
+		this(o, yggdrasil, getAccessors(o.getClass()));
+	}
+	
+	/**
+	 * Creates a fields object and initialises it with the given fields of the given object.
+	 * 
+	 * @param o Some object
+	 * @param fs The fields of the object's class as returned by {@link #getAccessors(Class)}
+	 */
+	Fields(final Object o, @Nullable final Yggdrasil yggdrasil, final FieldAccessor[] fs) {
+		this.yggdrasil = yggdrasil;
+		set(o, fs);
+	}
+	
+	/**
+	 * Initialises this object, which must be empty, with the given fields of the given object.
+	 */
+	final void set(final Object o, final FieldAccessor[] fs) {
+		assert size == 0;
+		for (final FieldAccessor f : fs)
+			add(f.id).set(f, o);
+	}
+	
+	/**
+	 * Removes all fields so that this object can be reused.
+	 * 
+	 * @return Whether this object may be reused, i.e. no field context has been passed to a field handler
+	 */
+	final boolean clear() {
+		final FieldContext[] fields = this.fields;
+		for (int i = 0; i < size; i++)
+			fields[i].setObject(null); // release references
+		size = 0;
+		indices = null;
+		return !exposed;
+	}
+	
+	/**
+	 * Appends a new field without checking whether it already exists, reusing an old context if possible.
+	 */
+	private final FieldContext add(final String fieldID) {
+		FieldContext[] fields = this.fields;
+		if (size == fields.length)
+			this.fields = fields = Arrays.copyOf(fields, size * 2);
+		FieldContext c = fields[size];
+		if (c == null) {
+			fields[size] = c = new FieldContext(fieldID);
+		} else {
+			c.id = fieldID;
+			c.setObject(null);
+		}
+		final Map<String, Integer> indices = this.indices;
+		if (indices != null)
+			indices.put(fieldID, size);
+		size++;
+		return c;
+	}
+	
+	/**
+	 * @return The index of the given field, or -1 if it doesn't exist
+	 */
+	private final int indexOf(final String fieldID) {
+		final FieldContext[] fields = this.fields;
+		final int size = this.size;
+		if (size > MAX_LINEAR_SEARCH) {
+			Map<String, Integer> indices = this.indices;
+			if (indices == null) {
+				this.indices = indices = new HashMap<String, Integer>();
+				for (int i = 0; i < size; i++)
+					indices.put(fields[i].id, i);
+			}
+			final Integer i = indices.get(fieldID);
+			return i == null ? -1 : i;
+		}
+		for (int i = 0; i < size; i++) {
+			final String id = fields[i].id;
+			if (id == fieldID || id.equals(fieldID))
+				return i;
+		}
+		return -1;
+	}
+	
+	@Nullable
+	private final FieldContext find(final String fieldID) {
+		final int i = indexOf(fieldID);
+		return i < 0 ? null : fields[i];
+	}
+	
+	/**
+	 * The serialisable fields of a class. Stored in a {@link ClassValue}, thus it can be read by any number of threads without locking, and is garbage collected together
+	 * with its class.
+	 */
+	private final static class ClassFields {
+		
+		@Nullable
+		final Collection<Field> fields;
+		
+		@Nullable
+		final FieldAccessor[] accessors;
+		
+		/** The message of the {@link NotSerializableException} to throw if the class cannot be serialised (i.e. {@link #fields} is null) */
+		@Nullable
+		final String error;
+		
+		ClassFields(final Class<?> c) {
+			final List<Field> fields = new ArrayList<Field>();
+			final Set<String> ids = new HashSet<String>();
+			for (Class<?> sc = c; sc != null; sc = sc.getSuperclass()) {
+				final Field[] fs = sc.getDeclaredFields();
+				for (final Field f : fs) {
+					final int m = f.getModifiers();
+					if (Modifier.isStatic(m) || Modifier.isTransient(m))
+						continue;
+					final String id = Yggdrasil.getID(f);
+					if (ids.contains(id)) {
+						this.fields = null;
+						accessors = null;
+						error = c + "/" + sc + ": duplicate field id '" + id + "'";
+						return;
+					}
+					f.setAccessible(true);
+					fields.add(f);
+					ids.add(id);
+				}
+			}
+			this.fields = Collections.unmodifiableCollection(fields);
+			final FieldAccessor[] accessors = new FieldAccessor[fields.size()];
+			for (int i = 0; i < accessors.length; i++) {
+				final Field f = fields.get(i);
+				assert f != null;
+				accessors[i] = new FieldAccessor(f);
+			}
+			this.accessors = accessors;
+			error = null;
+		}
+		
+	}
+	
+	private final static ClassValue<ClassFields> classFields = new ClassValue<ClassFields>() {
+		@Override
+		protected ClassFields computeValue(final @Nullable Class<?> c) {
+			assert c != null;
+			return new ClassFields(c);
+		}
+	};
+	
+	/**
+	 * Gets accessors for all serialisable fields of the provided class, in the same order as {@link #getFields(Class)}.
+	 * 
+	 * @param c The class to get the fields of
+	 * @return Accessors for all non-static and non-transient fields of the given class and its superclasses
+	 * @throws NotSerializableException If a field occurs more than once (i.e. if a class has a field with the same name as a field in one of its superclasses)
+	 */
+	final static FieldAccessor[] getAccessors(final Class<?> c) throws NotSerializableException {
+		final ClassFields cf = classFields.get(c);
+		final FieldAccessor[] accessors = cf.accessors;
+		if (accessors == null)
+			throw new NotSerializableException(cf.error);
+		return accessors;
+	}
+	
+	/**
+	 * Gets all serialisable fields of the provided class, including superclasses.
+	 * <p>
+	 * This method is thread-safe.
+	 * 
+	 * @param c The class to get the fields of
+	 * @return All non-static and non-transient fields of the given class and its superclasses
+	 * @throws NotSerializableException If a field occurs more than once (i.e. if a class has a field with the same name as a field in one of its superclasses)
+	 */
+	public final static Collection<Field> getFields(final Class<?> c) throws NotSerializableException {
+		final ClassFields cf = classFields.get(c);
+		final Collection<Field> fields = cf.fields;
+		if (fields == null)
+			throw new NotSerializableException(cf.error);
+		return fields;
+	}
+	
+	/**
+	 * Sets all fields of the given Object to the values stored in this Fields object.
+	 * 
+	 * @param o The object whose fields should be set
+	 * @throws StreamCorruptedException
+	 * @throws NotSerializableException
+	 * @throws YggdrasilException If this was called on a Fields object not created by Yggdrasil itself
+	 */
+	public void setFields(final Object o) throws StreamCorruptedException, NotSerializableException {
+		final Yggdrasil y = yggdrasil;
+		if (y == null)
+			throw new YggdrasilException("");
+		final Class<?> oc = o.getClass();
+		assert oc != null;
+		FieldAccessor[] fs = y.getDescriptor(oc).fields;
+		if (fs == null)
+			fs = getAccessors(oc);
+		final FieldContext[] fields = this.fields;
+		final int size = this.size;
+		// which fields have been set, to find excessive ones: a bit mask for up to 64 fields, an array otherwise
+		long setMask = 0;
+		final boolean[] set = size > 64 ? new boolean[size] : null;
+		for (int i = 0; i < fs.length; i++) {
+			final FieldAccessor f = fs[i];
+			final String id = i < size ? fields[i].id : null;
+			final int ci = id != null && (id == f.id || id.equals(f.id)) ? i : indexOf(f.id); // fields are usually in the same order
+			if (ci < 0) {
+				if (!(o instanceof YggdrasilRobustSerializable) || !((YggdrasilRobustSerializable) o).missingField(f.field))
+					y.missingField(o, f.field);
+				continue;
+			}
+			if (set == null)
+				setMask |= 1L << ci;
+			else
+				set[ci] = true;
+			final FieldContext c = fields[ci];
+			if (!c.setField(o, f)) {
+				exposed = true; // before calling the handlers, which may keep the context
+				if (!(o instanceof YggdrasilRobustSerializable) || !((YggdrasilRobustSerializable) o).incompatibleField(f.field, c))
+					y.incompatibleField(o, f.field, c);
+			}
+		}
+		if (set == null ? setMask == (size == 64 ? -1L : (1L << size) - 1) : false)
+			return;
+		for (int i = 0; i < size; i++) {
+			if (set == null ? (setMask & 1L << i) != 0 : set[i])
+				continue;
+			final FieldContext c = fields[i];
+			exposed = true;
+			if (!(o instanceof YggdrasilRobustSerializable) || !((YggdrasilRobustSerializable) o).excessiveField(c))
+				y.excessiveField(o, c);
+		}
+	}
+	
+	@Deprecated
+	public void setFields(final Object o, final Yggdrasil y) throws StreamCorruptedException, NotSerializableException {
+		assert yggdrasil == y;
+		setFields(o);
+	}
+	
+	/**
+	 * @return The number of fields defined
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return The context of the given field, which is created if it doesn't exist yet
+	 */
+	final FieldContext getOrCreate(final String fieldID) {
+		final FieldContext c = find(fieldID);
+		return c != null ? c : add(fieldID);
+	}
+	
+	public void putObject(final String fieldID, final @Nullable Object value) {
+		getOrCreate(fieldID).setObject(value);
+	}
+	
+	/**
+	 * Sets a primitive field from its wrapper. Prefer the typed methods like {@link #putInt(String, int)}, which don't box the value.
+	 */
+	public void putPrimitive(final String fieldID, final Object value) {
+		getOrCreate(fieldID).setPrimitive(value);
+	}
+	
+	public void putBoolean(final String fieldID, final boolean value) {
+		getOrCreate(fieldID).setBoolean(value);
+	}
+	
+	public void putByte(final String fieldID, final byte value) {
+		getOrCreate(fieldID).setByte(value);
+	}
+	
+	public void putShort(final String fieldID, final short value) {
+		getOrCreate(fieldID).setShort(value);
+	}
+	
+	public void putChar(final String fieldID, final char value) {
+		getOrCreate(fieldID).setChar(value);
+	}
+	
+	public void putInt(final String fieldID, final int value) {
+		getOrCreate(fieldID).setInt(value);
+	}
+	
+	public void putLong(final String fieldID, final long value) {
+		getOrCreate(fieldID).setLong(value);
+	}
+	
+	public void putFloat(final String fieldID, final float value) {
+		getOrCreate(fieldID).setFloat(value);
+	}
+	
+	public void putDouble(final String fieldID, final double value) {
+		getOrCreate(fieldID).setDouble(value);
+	}
+	
+	/**
+	 * @param fieldID A field's id
+	 * @return Whether the field is defined
+	 */
+	public boolean contains(final String fieldID) {
+		return indexOf(fieldID) >= 0;
+	}
+	
+	@Nullable
+	public Object getObject(final String field) throws StreamCorruptedException {
+		final FieldContext c = find(field);
+		if (c == null)
+			throw new StreamCorruptedException("Nonexistent field " + field);
+		return c.getObject();
+	}
+	
+	@Nullable
+	public <T> T getObject(final String fieldID, final Class<T> expectedType) throws StreamCorruptedException {
+		assert !expectedType.isPrimitive();
+		final FieldContext c = find(fieldID);
+		if (c == null)
+			throw new StreamCorruptedException("Nonexistent field " + fieldID);
+		return c.getObject(expectedType);
+	}
+	
+	public Object getPrimitive(final String fieldID) throws StreamCorruptedException {
+		final FieldContext c = find(fieldID);
+		if (c == null)
+			throw new StreamCorruptedException("Nonexistent field " + fieldID);
+		return c.getPrimitive();
+	}
+	
+	public <T> T getPrimitive(final String fieldID, final Class<T> expectedType) throws StreamCorruptedException {
+		assert expectedType.isPrimitive() || Tag.getPrimitiveFromWrapper(expectedType).isPrimitive();
+		final FieldContext c = find(fieldID);
+		if (c == null)
+			throw new StreamCorruptedException("Nonexistent field " + fieldID);
+		return c.getPrimitive(expectedType);
+	}
+	
+	private final FieldContext get(final String fieldID) throws StreamCorruptedException {
+		final FieldContext c = find(fieldID);
+		if (c == null)
+			throw new StreamCorruptedException("Nonexistent field " + fieldID);
+		return c;
+	}
+	
+	/*
+	 * Typed variants of getPrimitive. These throw a StreamCorruptedException if the field is not a primitive of exactly the requested type.
+	 */
+	
+	public boolean getBoolean(final String fieldID) throws StreamCorruptedException {
+		return get(fieldID).getBoolean();
+	}
+	
+	public byte getByte(final String fieldID) throws StreamCorruptedException {
+		return get(fieldID).getByte();
+	}
+	
+	public short getShort(final String fieldID) throws StreamCorruptedException {
+		return get(fieldID).getShort();
+	}
+	
+	public char getChar(final String fieldID) throws StreamCorruptedException {
+		return get(fieldID).getChar();
+	}
+	
+	public int getInt(final String fieldID) throws StreamCorruptedException {
+		return get(fieldID).getInt();
+	}
+	
+	public long getLong(final String fieldID) throws StreamCorruptedException {
+		return get(fieldID).getLong();
+	}
+	
+	public float getFloat(final String fieldID) throws StreamCorruptedException {
+		return get(fieldID).getFloat();
+	}
+	
+	public double getDouble(final String fieldID) throws StreamCorruptedException {
+		return get(fieldID).getDouble();
+	}
+	
+	@Nullable
+	public <T> T getAndRemoveObject(final String field, final Class<T> expectedType) throws StreamCorruptedException {
+		final T t = getObject(field, expectedType);
+		removeField(field);
+		return t;
+	}
+	
+	public <T> T getAndRemovePrimitive(final String field, final Class<T> expectedType) throws StreamCorruptedException {
+		final T t = getPrimitive(field, expectedType);
+		removeField(field);
+		return t;
+	}
+	
+	/**
+	 * Removes a field and its value from this Fields object.
+	 * 
+	 * @param fieldID The id of the field to remove
+	 * @return Whether a field with the given name was actually defined
+	 */
+	public boolean removeField(final String fieldID) {
+		final int i = indexOf(fieldID);
+		if (i < 0)
+			return false;
+		remove(i);
+		return true;
+	}
+	
+	private final void remove(final int i) {
+		final FieldContext[] fields = this.fields;
+		System.arraycopy(fields, i + 1, fields, i, size - i - 1);
+		size--;
+		fields[size] = null; // not reused as the removed context may still be referenced
+		indices = null;
+	}
+	
+	@Override
+	public Iterator<FieldContext> iterator() {
+		return new Iterator<FieldContext>() {
+			private int next = 0;
+			
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+			
+			@Override
+			public FieldContext next() {
+				if (next >= size)
+					throw new NoSuchElementException();
+				final FieldContext c = fields[next++];
+				assert c != null;
+				return c;
+			}
+			
+			@Override
+			public void remove() {
+				if (next == 0)
+					throw new IllegalStateException();
+				Fields.this.remove(--next);
+			}
+		};
+	}
+	
+}
@@ -0,0 +1,189 @@
+/*
+ *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
+ *
+ *  Yggdrasil is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Yggdrasil is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2013-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.yggdrasil;
+
+import java.util.Arrays;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A map from objects, compared by identity, to primitive <tt>int</tt>s, used by {@link YggdrasilOutputStream} to remember the objects it has written.
+ * <p>
+ * Unlike an {@link java.util.IdentityHashMap IdentityHashMap&lt;Object, Integer&gt;} this map doesn't box its values, and every operation finds its key with a single probe
+ * sequence. Keys and values are stored in two parallel arrays using open addressing with linear probing. Entries cannot be removed individually, but the whole map can be
+ * {@link #clear() cleared} and reused without reallocating its tables.
+ * 
+ * @author Peter Güttinger
+ */
+@NotThreadSafe
+final class IdentityIntMap {
+	
+	/** Returned by {@link #get(Object)} and {@link #putIfAbsent(Object, int)} if the key is not in the map, thus this cannot be used as a value */
+	public final static int NONE = Integer.MIN_VALUE;
+	
+	private final static int DEFAULT_CAPACITY = 64;
+	
+	/** The length of {@link #keys}, always a power of two */
+	private int capacity;
+	
+	/** <tt>32 - log2(capacity)</tt> */
+	private int shift;
+	
+	private Object[] keys;
+	
+	private int[] values;
+	
+	private int size = 0;
+	
+	/** The size at which the tables are enlarged, i.e. 2/3 of the capacity */
+	private int threshold;
+	
+	public IdentityIntMap() {
+		this(DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * @param expectedSize The number of entries this map can hold without being resized
+	 */
+	public IdentityIntMap(final int expectedSize) {
+		int c = DEFAULT_CAPACITY;
+		while (c / 3 * 2 < expectedSize && c < 1 << 30)
+			c <<= 1;
+		capacity = c;
+		shift = Integer.numberOfLeadingZeros(c) + 1;
+		keys = new Object[c];
+		values = new int[c];
+		threshold = c / 3 * 2;
+	}
+	
+	/**
+	 * @return The first slot to probe for the given key, using the highest bits of its identity hash code multiplied with the golden ratio (Fibonacci hashing)
+	 */
+	private final int slot(final Object key) {
+		return System.identityHashCode(key) * 0x9E3779B9 >>> shift;
+	}
+	
+	/**
+	 * @return The index of the key in {@link #keys}, or the index of the free slot where it would be inserted
+	 */
+	private final int find(final Object key) {
+		final Object[] keys = this.keys;
+		final int mask = capacity - 1;
+		int i = slot(key);
+		while (true) {
+			final Object k = keys[i];
+			if (k == key || k == null)
+				return i;
+			i = i + 1 & mask;
+		}
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	public boolean containsKey(final Object key) {
+		return keys[find(key)] != null;
+	}
+	
+	/**
+	 * @return The value of the given key, or {@link #NONE} if the key is not in this map
+	 */
+	public int get(final Object key) {
+		final int i = find(key);
+		return keys[i] != null ? values[i] : NONE;
+	}
+	
+	/**
+	 * Sets the value of the given key, adding the key if it is not yet in this map.
+	 * 
+	 * @param value Any value except {@link #NONE}
+	 */
+	public void put(final Object key, final int value) {
+		assert value != NONE;
+		final int i = find(key);
+		values[i] = value;
+		if (keys[i] == null) {
+			keys[i] = key;
+			if (++size > threshold)
+				resize();
+		}
+	}
+	
+	/**
+	 * Adds the given key with the given value if it is not yet in this map, otherwise leaves the map unchanged.
+	 * 
+	 * @param value Any value except {@link #NONE}
+	 * @return The value of the key if it was already in this map, or {@link #NONE} if it has been added
+	 */
+	public int putIfAbsent(final Object key, final int value) {
+		assert value != NONE;
+		final int i = find(key);
+		if (keys[i] != null)
+			return values[i];
+		keys[i] = key;
+		values[i] = value;
+		if (++size > threshold)
+			resize();
+		return NONE;
+	}
+	
+	/**
+	 * Removes all entries from this map, but keeps its tables so that it can be filled again without reallocating them.
+	 */
+	public void clear() {
+		if (size == 0)
+			return;
+		Arrays.fill(keys, null);
+		size = 0;
+	}
+	
+	private final void resize() {
+		if (capacity == 1 << 30)
+			throw new YggdrasilException("Too many objects (" + size + ")");
+		final Object[] oldKeys = keys;
+		final int[] oldValues = values;
+		capacity <<= 1;
+		shift--;
+		threshold = capacity / 3 * 2;
+		keys = new Object[capacity];
+		values = new int[capacity];
+		for (int j = 0; j < oldKeys.length; j++) {
+			final Object k = oldKeys[j];
+			if (k == null)
+				continue;
+			final int i = find(k);
+			keys[i] = k;
+			values[i] = oldValues[j];
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "IdentityIntMap[size=" + size + "]";
+	}
+	
+}
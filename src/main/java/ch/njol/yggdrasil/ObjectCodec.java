@@ -0,0 +1,327 @@
+/*
+ *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
+ *
+ *  Yggdrasil is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Yggdrasil is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2013-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.yggdrasil;
+
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.yggdrasil.Fields.FieldContext;
+import ch.njol.yggdrasil.YggdrasilSerializable.YggdrasilRobustSerializable;
+
+/**
+ * A per-class plan to write and read objects that use the default serialisation directly to and from a stream, i.e. without creating a {@link Fields} object and a
+ * {@link FieldContext} for every field, and without boxing primitive fields.
+ * <p>
+ * A codec either wraps a {@link YggdrasilCodec}, which is generated at compile time (and always used if available) or at runtime by {@link CodecGenerator} if enabled with
+ * {@link Yggdrasil#setUseObjectCodecs(boolean)}, or accesses the fields with {@link FieldAccessor}s if no codec could be generated or the codec is only used for class
+ * layouts. Codecs are only used for classes that have neither a {@link YggdrasilSerializer} nor
+ * implement {@link YggdrasilSerializable.YggdrasilExtendedSerializable}. The data written is the same as with the default serialisation, but the fields are always written in
+ * declaration order.
+ * 
+ * @author Peter Güttinger
+ */
+@SuppressWarnings("null")
+// generated is never null if accessors is null
+final class ObjectCodec {
+	
+	/** Classes with more fields than this use a map to find fields by ID */
+	private final static int MAX_LINEAR_SEARCH = 8;
+	
+	final Class<?> c;
+	
+	final String[] ids;
+	
+	/** The fields' types if they are primitives, or {@link Tag#T_OBJECT} otherwise */
+	final Tag[] types;
+	
+	/** The fields' declared types */
+	final Class<?>[] classes;
+	
+	/** null if this codec uses a generated codec */
+	@Nullable
+	private final FieldAccessor[] accessors;
+	
+	/** null if this codec uses accessors */
+	@Nullable
+	private final YggdrasilCodec<Object> generated;
+	
+	@Nullable
+	private final Map<String, Integer> indices;
+	
+	ObjectCodec(final Class<?> c, final FieldAccessor[] accessors) {
+		this.c = c;
+		ids = new String[accessors.length];
+		types = new Tag[accessors.length];
+		classes = new Class<?>[accessors.length];
+		for (int i = 0; i < accessors.length; i++) {
+			ids[i] = accessors[i].id;
+			types[i] = accessors[i].type;
+			classes[i] = accessors[i].field.getType();
+		}
+		this.accessors = accessors;
+		generated = null;
+		indices = createIndices();
+	}
+	
+	@SuppressWarnings("unchecked")
+	ObjectCodec(final YggdrasilCodec<?> generated) {
+		c = generated.type;
+		ids = generated.ids;
+		types = generated.types;
+		classes = generated.classes;
+		accessors = null;
+		this.generated = (YggdrasilCodec<Object>) generated;
+		indices = createIndices();
+	}
+	
+	@Nullable
+	private final Map<String, Integer> createIndices() {
+		if (ids.length > Short.MAX_VALUE)
+			throw new YggdrasilException("Class " + c.getCanonicalName() + " has too many fields (" + ids.length + ")");
+		if (ids.length <= MAX_LINEAR_SEARCH)
+			return null;
+		final Map<String, Integer> indices = new HashMap<String, Integer>();
+		for (int i = 0; i < ids.length; i++)
+			indices.put(ids[i], i);
+		return indices;
+	}
+	
+	public int size() {
+		return ids.length;
+	}
+	
+	/**
+	 * Finds the field with the given ID.
+	 * 
+	 * @param id A field's ID
+	 * @param expected The index where the field is expected, i.e. how many fields have been read so far. Streams written by codecs always have the fields in the same order.
+	 * @return The field's index, or -1 if this class doesn't have such a field
+	 */
+	public int indexOf(final String id, final int expected) {
+		final String[] ids = this.ids;
+		if (expected < ids.length && ids[expected].equals(id))
+			return expected;
+		final Map<String, Integer> indices = this.indices;
+		if (indices != null) {
+			final Integer i = indices.get(id);
+			return i == null ? -1 : i;
+		}
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i].equals(id))
+				return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return The field with the given index. This uses reflection if this codec uses a generated codec, and should thus only be used to call field handlers.
+	 */
+	public Field getField(final int i) {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null)
+			return accessors[i].field;
+		return generated.getField(i);
+	}
+	
+	/**
+	 * @return A new instance of this codec's class, or null if the instance should be created with reflection
+	 */
+	@Nullable
+	public Object newInstance() {
+		final YggdrasilCodec<Object> generated = this.generated;
+		return generated == null ? null : generated.newInstance();
+	}
+	
+	// getters
+	
+	@Nullable
+	public Object get(final Object o, final int i) {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null)
+			return accessors[i].get(o);
+		return generated.get(o, i);
+	}
+	
+	public boolean getBoolean(final Object o, final int i) {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null)
+			return accessors[i].getBoolean(o);
+		return generated.getBoolean(o, i);
+	}
+	
+	public byte getByte(final Object o, final int i) {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null)
+			return accessors[i].getByte(o);
+		return generated.getByte(o, i);
+	}
+	
+	public short getShort(final Object o, final int i) {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null)
+			return accessors[i].getShort(o);
+		return generated.getShort(o, i);
+	}
+	
+	public char getChar(final Object o, final int i) {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null)
+			return accessors[i].getChar(o);
+		return generated.getChar(o, i);
+	}
+	
+	public int getInt(final Object o, final int i) {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null)
+			return accessors[i].getInt(o);
+		return generated.getInt(o, i);
+	}
+	
+	public long getLong(final Object o, final int i) {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null)
+			return accessors[i].getLong(o);
+		return generated.getLong(o, i);
+	}
+	
+	public float getFloat(final Object o, final int i) {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null)
+			return accessors[i].getFloat(o);
+		return generated.getFloat(o, i);
+	}
+	
+	public double getDouble(final Object o, final int i) {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null)
+			return accessors[i].getDouble(o);
+		return generated.getDouble(o, i);
+	}
+	
+	// setters
+	
+	/**
+	 * Sets a field that is not a primitive.
+	 * 
+	 * @throws IllegalArgumentException If the value is not compatible with the field's type
+	 */
+	public void set(final Object o, final int i, final @Nullable Object value) throws IllegalArgumentException {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null) {
+			accessors[i].set(o, value);
+			return;
+		}
+		try {
+			generated.set(o, i, value);
+		} catch (final ClassCastException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+	
+	public void setBoolean(final Object o, final int i, final boolean value) {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null)
+			accessors[i].setBoolean(o, value);
+		else
+			generated.setBoolean(o, i, value);
+	}
+	
+	public void setByte(final Object o, final int i, final byte value) {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null)
+			accessors[i].setByte(o, value);
+		else
+			generated.setByte(o, i, value);
+	}
+	
+	public void setShort(final Object o, final int i, final short value) {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null)
+			accessors[i].setShort(o, value);
+		else
+			generated.setShort(o, i, value);
+	}
+	
+	public void setChar(final Object o, final int i, final char value) {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null)
+			accessors[i].setChar(o, value);
+		else
+			generated.setChar(o, i, value);
+	}
+	
+	public void setInt(final Object o, final int i, final int value) {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null)
+			accessors[i].setInt(o, value);
+		else
+			generated.setInt(o, i, value);
+	}
+	
+	public void setLong(final Object o, final int i, final long value) {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null)
+			accessors[i].setLong(o, value);
+		else
+			generated.setLong(o, i, value);
+	}
+	
+	public void setFloat(final Object o, final int i, final float value) {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null)
+			accessors[i].setFloat(o, value);
+		else
+			generated.setFloat(o, i, value);
+	}
+	
+	public void setDouble(final Object o, final int i, final double value) {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors != null)
+			accessors[i].setDouble(o, value);
+		else
+			generated.setDouble(o, i, value);
+	}
+	
+	/**
+	 * Sets a field from a value of an unexpected type, calling field handlers if necessary.
+	 */
+	public void setField(final Object o, final int i, final FieldContext value, final Yggdrasil y) throws StreamCorruptedException {
+		final FieldAccessor[] accessors = this.accessors;
+		if (accessors == null) {
+			value.setField(o, getField(i), y);
+		} else if (!value.setField(o, accessors[i])) {
+			final Field f = accessors[i].field;
+			if (!(o instanceof YggdrasilRobustSerializable) || !((YggdrasilRobustSerializable) o).incompatibleField(f, value))
+				y.incompatibleField(o, f, value);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "ObjectCodec[" + c.getName() + "]";
+	}
+	
+}
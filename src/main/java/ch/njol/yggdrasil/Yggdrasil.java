@@ -1,379 +1,802 @@
-/*
- *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
- *
- *  Yggdrasil is free software: you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation, either version 3 of the License, or
- *  (at your option) any later version.
- *
- *  Yggdrasil is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
- * 
- * 
- * Copyright 2013-2014 Peter Güttinger
- * 
- */
-
-package ch.njol.yggdrasil;
-
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.NotSerializableException;
-import java.io.OutputStream;
-import java.io.StreamCorruptedException;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
-import java.util.List;
-
-import javax.annotation.concurrent.NotThreadSafe;
-
-import org.eclipse.jdt.annotation.Nullable;
-
-import ch.njol.yggdrasil.Fields.FieldContext;
-import ch.njol.yggdrasil.YggdrasilSerializable.YggdrasilExtendedSerializable;
-import ch.njol.yggdrasil.YggdrasilSerializable.YggdrasilRobustEnum;
-import ch.njol.yggdrasil.YggdrasilSerializable.YggdrasilRobustSerializable;
-import ch.njol.yggdrasil.xml.YggXMLInputStream;
-import ch.njol.yggdrasil.xml.YggXMLOutputStream;
-
-/**
- * Yggdrasil is a simple data format to store object graphs.
- * <p>
- * Yggdrasil uses String IDs to identify classes, thus all classes to be (de)serialised have to be registered to Yggdrasil before doing anything (they can also be registered while
- * Yggdrasil is working, but you must make sure that all classes are registered in time when deserialising). A {@link ClassResolver} or {@link YggdrasilSerializer} can also be used
- * to find classes and IDs dynamically.
- * <p>
- * <b>Default behaviour</b>
- * <p>
- * A Java object can be serialised and deserialised if it is a primitive, a primitive wrapper, a String, an enum or {@link PseudoEnum} (both require an ID), or its class meets all
- * of the following requirements:
- * <ul>
- * <li>It implements {@link YggdrasilSerializable}
- * <li>It has an ID assigned to it (using the methods described above)
- * <li>It provides a nullary constructor (any access modifier) (in particular anonymous and non-static inner classes can't be serialised)
- * <li>All its non-transient and non-static fields are serialisable according to these requirements
- * </ul>
- * <p>
- * Yggdrasil will generate errors if an object loaded either has too many fields and/or is missing some in the stream.
- * <p>
- * <b>Customisation</b>
- * <p>
- * Any object that does not meet the above requirements for serialisation can still be (de)serialised using an {@link YggdrasilSerializer} (useful for objects of an external API),
- * or by implementing {@link YggdrasilExtendedSerializable}.
- * <p>
- * The behaviour in case of an invalid or outdated stream can be defined likewise, or one can implement {@link YggdrasilRobustSerializable} or {@link YggdrasilRobustEnum}
- * respectively.
- * 
- * @author Peter Güttinger
- */
-@SuppressWarnings("deprecation")
-@NotThreadSafe
-public final class Yggdrasil {
-	
-	/**
-	 * Magic Number: "Ygg\0"
-	 * <p>
-	 * hex: 0x59676700
-	 */
-	public final static int MAGIC_NUMBER = ('Y' << 24) + ('g' << 16) + ('g' << 8) + '\0';
-	
-	/** latest protocol version */
-	public final static short LATEST_VERSION = 1; // version 2 is only one minor change currently
-	
-	public final short version;
-	
-	private final List<ClassResolver> classResolvers = new ArrayList<ClassResolver>();
-	private final List<FieldHandler> fieldHandlers = new ArrayList<FieldHandler>();
-	
-	private final SimpleClassResolver simpleClassResolver = new SimpleClassResolver();
-	
-	public Yggdrasil() {
-		this(LATEST_VERSION);
-	}
-	
-	public Yggdrasil(final short version) {
-		if (version <= 0 || version > LATEST_VERSION)
-			throw new YggdrasilException("Unsupported version number");
-		this.version = version;
-		classResolvers.add(new JRESerializer());
-		classResolvers.add(simpleClassResolver);
-	}
-	
-	public YggdrasilOutputStream newOutputStream(final OutputStream out) throws IOException {
-		return new DefaultYggdrasilOutputStream(this, out);
-	}
-	
-	public YggdrasilInputStream newInputStream(final InputStream in) throws IOException {
-		return new DefaultYggdrasilInputStream(this, in);
-	}
-	
-	@Deprecated
-	public YggXMLOutputStream newXMLOutputStream(final OutputStream out) throws IOException {
-		return new YggXMLOutputStream(this, out);
-	}
-	
-	@Deprecated
-	public YggdrasilInputStream newXMLInputStream(final InputStream in) throws IOException {
-		return new YggXMLInputStream(this, in);
-	}
-	
-	public void registerClassResolver(final ClassResolver r) {
-		if (!classResolvers.contains(r))
-			classResolvers.add(r);
-	}
-	
-	public void registerSingleClass(final Class<?> c, final String id) {
-		simpleClassResolver.registerClass(c, id);
-	}
-	
-	/**
-	 * Registers a class and uses its {@link YggdrasilID} as id.
-	 */
-	public void registerSingleClass(final Class<?> c) {
-		final YggdrasilID id = c.getAnnotation(YggdrasilID.class);
-		if (id == null)
-			throw new IllegalArgumentException(c.toString());
-		simpleClassResolver.registerClass(c, id.value());
-	}
-	
-	public void registerFieldHandler(final FieldHandler h) {
-		if (!fieldHandlers.contains(h))
-			fieldHandlers.add(h);
-	}
-	
-	public final boolean isSerializable(final Class<?> c) {
-		try {
-			return c.isPrimitive() || c == Object.class || (Enum.class.isAssignableFrom(c) || PseudoEnum.class.isAssignableFrom(c)) && getIDNoError(c) != null ||
-					((YggdrasilSerializable.class.isAssignableFrom(c) || getSerializer(c) != null) && newInstance(c) != c);// whatever, just make true out if it (null is a valid return value)
-		} catch (final StreamCorruptedException e) { // thrown by newInstance if the class does not provide a correct constructor or is abstract
-			return false;
-		} catch (final NotSerializableException e) {
-			return false;
-		}
-	}
-	
-	@Nullable
-	YggdrasilSerializer<?> getSerializer(final Class<?> c) {
-		for (final ClassResolver r : classResolvers) {
-			if (r instanceof YggdrasilSerializer && r.getID(c) != null)
-				return (YggdrasilSerializer<?>) r;
-		}
-		return null;
-	}
-	
-	public Class<?> getClass(final String id) throws StreamCorruptedException {
-		if ("Object".equals(id))
-			return Object.class;
-		for (final ClassResolver r : classResolvers) {
-			final Class<?> c = r.getClass(id);
-			if (c != null) { // TODO error if not serialisable?
-				assert Tag.byName(id) == null && (Tag.getType(c) == Tag.T_OBJECT || Tag.getType(c) == Tag.T_ENUM) : "Tag IDs should not be matched: " + id + " (class resolver: " + r + ")";
-				assert id.equals(r.getID(c)) : r + " returned " + c + " for id " + id + ", but returns id " + r.getID(c) + " for that class";
-				return c;
-			}
-		}
-		throw new StreamCorruptedException("No class found for ID " + id);
-	}
-	
-	@SuppressWarnings({"unchecked", "rawtypes"})
-	@Nullable
-	private String getIDNoError(Class<?> c) {
-		if (c == Object.class)
-			return "Object";
-		assert Tag.getType(c) == Tag.T_OBJECT || Tag.getType(c) == Tag.T_ENUM;
-		if (Enum.class.isAssignableFrom(c) && c.getSuperclass() != Enum.class) {
-			final Class<?> s = c.getSuperclass();
-			assert s != null; // c cannot be Object.class
-			c = s;
-		}
-		if (PseudoEnum.class.isAssignableFrom(c))
-			c = PseudoEnum.getDeclaringClass((Class) c);
-		for (final ClassResolver r : classResolvers) {
-			final String id = r.getID(c);
-			if (id != null) {
-				assert Tag.byName(id) == null : "Class IDs should not match Tag IDs: " + id + " (class resolver: " + r + ")";
-				final Class<?> c2 = r.getClass(id);
-				assert c2 != null && (r instanceof YggdrasilSerializer ? id.equals(r.getID(c2)) : r.getClass(id) == c) : r + " returned id " + id + " for " + c + ", but returns " + c2 + " for that id";
-				return id;
-			}
-		}
-		return null;
-	}
-	
-	public String getID(final Class<?> c) throws NotSerializableException {
-		final String id = getIDNoError(c);
-		if (id == null)
-			throw new NotSerializableException("No ID found for " + c);
-		if (!isSerializable(c))
-			throw new NotSerializableException(c.getCanonicalName());
-		return id;
-	}
-	
-	/**
-	 * Gets the ID of a field.
-	 * <p>
-	 * This method performs no checks on the given field.
-	 * 
-	 * @param f
-	 * @return The field's id as given by its {@link YggdrasilID} annotation, or its name if it's not annotated.
-	 */
-	public final static String getID(final Field f) {
-		final YggdrasilID yid = f.getAnnotation(YggdrasilID.class);
-		if (yid != null) {
-			return yid.value();
-		} else {
-			return "" + f.getName();
-		}
-	}
-	
-	@SuppressWarnings("null")
-	public final static String getID(final Enum<?> e) {
-		try {
-			return getID(e.getDeclaringClass().getDeclaredField(e.name()));
-		} catch (final NoSuchFieldException ex) {
-			assert false : e;
-			return "" + e.name();
-		}
-	}
-	
-	@SuppressWarnings({"unchecked", "null", "unused"})
-	public final static <T extends Enum<T>> Enum<T> getEnumConstant(final Class<T> c, final String id) throws StreamCorruptedException {
-		final Field[] fields = c.getDeclaredFields();
-		for (final Field f : fields) {
-			assert f != null;
-			if (getID(f).equals(id))
-				return Enum.valueOf(c, f.getName());
-		}
-		if (YggdrasilRobustEnum.class.isAssignableFrom(c)) {
-			final Object[] cs = c.getEnumConstants();
-			if (cs.length == 0)
-				throw new StreamCorruptedException(c + " does not have any enum constants");
-			final Enum<?> e = ((YggdrasilRobustEnum) cs[0]).excessiveConstant(id);
-			if (e == null)
-				throw new YggdrasilException("YggdrasilRobustEnum " + c + " returned null from excessiveConstant(" + id + ")");
-			if (!c.isInstance(e))
-				throw new YggdrasilException(c + " returned a foreign enum constant: " + e.getClass() + "." + e);
-			return (Enum<T>) e;
-		}
-		// TODO use field handlers/new enum handlers
-		throw new StreamCorruptedException("Enum constant " + id + " does not exist in " + c);
-	}
-	
-	public void excessiveField(final Object o, final FieldContext field) throws StreamCorruptedException {
-		for (final FieldHandler h : fieldHandlers) {
-			if (h.excessiveField(o, field))
-				return;
-		}
-		throw new StreamCorruptedException("Excessive field " + field.id + " in class " + o.getClass().getCanonicalName() + " was not handled");
-	}
-	
-	public void missingField(final Object o, final Field f) throws StreamCorruptedException {
-		for (final FieldHandler h : fieldHandlers) {
-			if (h.missingField(o, f))
-				return;
-		}
-		throw new StreamCorruptedException("Missing field " + getID(f) + " in class " + o.getClass().getCanonicalName() + " was not handled");
-	}
-	
-	public void incompatibleField(final Object o, final Field f, final FieldContext field) throws StreamCorruptedException {
-		for (final FieldHandler h : fieldHandlers) {
-			if (h.incompatibleField(o, f, field))
-				return;
-		}
-		throw new StreamCorruptedException("Incompatible field " + getID(f) + " in class " + o.getClass().getCanonicalName() + " of incompatible " + field.getType() + " was not handled");
-	}
-	
-	public void saveToFile(final Object o, final File f) throws IOException {
-		FileOutputStream fout = null;
-		YggdrasilOutputStream yout = null;
-		try {
-			fout = new FileOutputStream(f);
-			yout = newOutputStream(fout);
-			yout.writeObject(o);
-			yout.flush();
-		} finally {
-			if (yout != null)
-				yout.close();
-			if (fout != null)
-				fout.close();
-		}
-	}
-	
-	@Nullable
-	public <T> T loadFromFile(final File f, final Class<T> expectedType) throws IOException {
-		FileInputStream fin = null;
-		YggdrasilInputStream yin = null;
-		try {
-			fin = new FileInputStream(f);
-			yin = newInputStream(fin);
-			return yin.readObject(expectedType);
-		} finally {
-			if (yin != null)
-				yin.close();
-			if (fin != null)
-				fin.close();
-		}
-	}
-	
-	@SuppressWarnings({"rawtypes", "unchecked", "null", "unused"})
-	@Nullable
-	final Object newInstance(final Class<?> c) throws StreamCorruptedException, NotSerializableException {
-		final YggdrasilSerializer s = getSerializer(c);
-		if (s != null) {
-			if (!s.canBeInstantiated(c)) { // only used by isSerializable - return null if OK, throw an YggdrasilException if not
-				try {
-					final Object o = s.deserialize(c, new Fields(this));
-					if (o != null)
-						return null;
-					throw new YggdrasilException("YggdrasilSerializer " + s + " returned null from deserialize(" + c + ", new Fields())");
-				} catch (final StreamCorruptedException e) {
-					return null;
-				}
-			}
-			final Object o = s.newInstance(c);
-			if (o == null)
-				throw new YggdrasilException("YggdrasilSerializer " + s + " returned null from newInstance(" + c + ")");
-			return o;
-		} else {
-			// try whether a nullary constructor exists
-			try {
-				final Constructor<?> constr = c.getDeclaredConstructor();
-				constr.setAccessible(true);
-				return constr.newInstance();
-			} catch (final NoSuchMethodException e) {
-				throw new StreamCorruptedException("Cannot create an instance of " + c + " because it has no nullary constructor");
-			} catch (final SecurityException e) {
-				throw new StreamCorruptedException("Cannot create an instance of " + c + " because the security manager didn't allow it");
-			} catch (final InstantiationException e) {
-				throw new StreamCorruptedException("Cannot create an instance of " + c + " because it is abstract");
-			} catch (final IllegalAccessException e) {
-				e.printStackTrace();
-				assert false;
-				return null;
-			} catch (final IllegalArgumentException e) {
-				e.printStackTrace();
-				assert false;
-				return null;
-			} catch (final InvocationTargetException e) {
-				throw new RuntimeException(e);
-			}
-		}
-	}
-	
-	// TODO command line, e.g. convert to XML
-	public static void main(final String[] args) {
-		System.err.println("Command line not supported yet");
-		System.exit(1);
-	}
-	
-}
+/*
+ *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
+ *
+ *  Yggdrasil is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Yggdrasil is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2013-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.yggdrasil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.yggdrasil.Fields.FieldContext;
+import ch.njol.yggdrasil.YggdrasilSerializable.YggdrasilExtendedSerializable;
+import ch.njol.yggdrasil.YggdrasilSerializable.YggdrasilRobustEnum;
+import ch.njol.yggdrasil.YggdrasilSerializable.YggdrasilRobustSerializable;
+import ch.njol.yggdrasil.xml.YggXMLInputStream;
+import ch.njol.yggdrasil.xml.YggXMLOutputStream;
+
+/**
+ * Yggdrasil is a simple data format to store object graphs.
+ * <p>
+ * Yggdrasil uses String IDs to identify classes, thus all classes to be (de)serialised have to be registered to Yggdrasil before doing anything (they can also be registered while
+ * Yggdrasil is working, but you must make sure that all classes are registered in time when deserialising). A {@link ClassResolver} or {@link YggdrasilSerializer} can also be used
+ * to find classes and IDs dynamically.
+ * <p>
+ * <b>Default behaviour</b>
+ * <p>
+ * A Java object can be serialised and deserialised if it is a primitive, a primitive wrapper, a String, an enum or {@link PseudoEnum} (both require an ID), or its class meets all
+ * of the following requirements:
+ * <ul>
+ * <li>It implements {@link YggdrasilSerializable}
+ * <li>It has an ID assigned to it (using the methods described above)
+ * <li>It provides a nullary constructor (any access modifier) (in particular anonymous and non-static inner classes can't be serialised)
+ * <li>All its non-transient and non-static fields are serialisable according to these requirements
+ * </ul>
+ * <p>
+ * Yggdrasil will generate errors if an object loaded either has too many fields and/or is missing some in the stream.
+ * <p>
+ * <b>Customisation</b>
+ * <p>
+ * Any object that does not meet the above requirements for serialisation can still be (de)serialised using an {@link YggdrasilSerializer} (useful for objects of an external API),
+ * or by implementing {@link YggdrasilExtendedSerializable}.
+ * <p>
+ * The behaviour in case of an invalid or outdated stream can be defined likewise, or one can implement {@link YggdrasilRobustSerializable} or {@link YggdrasilRobustEnum}
+ * respectively.
+ * <p>
+ * <b>Concurrency</b>
+ * <p>
+ * Registering classes, resolvers and handlers is not thread-safe. Once everything is registered, {@link #freeze()} can be called, after which the configuration cannot be
+ * changed any more and the Yggdrasil instance can be used by any number of streams on different threads at the same time, all sharing the same per-class caches. The frozen
+ * instance must be passed to other threads safely, e.g. by starting the threads or submitting tasks to an executor after freezing it.
+ * 
+ * @author Peter Güttinger
+ */
+@SuppressWarnings("deprecation")
+@ThreadSafe
+public final class Yggdrasil {
+	
+	/**
+	 * Magic Number: "Ygg\0"
+	 * <p>
+	 * hex: 0x59676700
+	 */
+	public final static int MAGIC_NUMBER = ('Y' << 24) + ('g' << 16) + ('g' << 8) + '\0';
+	
+	/**
+	 * latest protocol version
+	 * <p>
+	 * Version 2 writes lengths, counts, reference IDs and short string references as variable-length integers (unsigned LEB128), and adds a flags byte to the header, e.g. to
+	 * indicate that int and long values are written as zigzag-encoded variable-length integers (see {@link #setUseVarInts(boolean)}). Streams of version 1 can still be read.
+	 */
+	public final static short LATEST_VERSION = 2;
+	
+	public final short version;
+	
+	private final List<ClassResolver> classResolvers = new ArrayList<ClassResolver>();
+	private final List<FieldHandler> fieldHandlers = new ArrayList<FieldHandler>();
+	
+	private final SimpleClassResolver simpleClassResolver = new SimpleClassResolver();
+	
+	public Yggdrasil() {
+		this(LATEST_VERSION);
+	}
+	
+	public Yggdrasil(final short version) {
+		if (version <= 0 || version > LATEST_VERSION)
+			throw new YggdrasilException("Unsupported version number");
+		this.version = version;
+		classResolvers.add(new JRESerializer());
+		classResolvers.add(simpleClassResolver);
+	}
+	
+	public YggdrasilOutputStream newOutputStream(final OutputStream out) throws IOException {
+		return new DefaultYggdrasilOutputStream(this, out);
+	}
+	
+	/**
+	 * @param bufferSize The size of the stream's internal buffer in bytes
+	 * @see DefaultYggdrasilOutputStream#DefaultYggdrasilOutputStream(Yggdrasil, OutputStream, int)
+	 */
+	public YggdrasilOutputStream newOutputStream(final OutputStream out, final int bufferSize) throws IOException {
+		return new DefaultYggdrasilOutputStream(this, out, bufferSize);
+	}
+	
+	public YggdrasilInputStream newInputStream(final InputStream in) throws IOException {
+		return new DefaultYggdrasilInputStream(this, in);
+	}
+	
+	/**
+	 * @param bufferSize The size of the stream's internal buffer in bytes
+	 * @see DefaultYggdrasilInputStream#DefaultYggdrasilInputStream(Yggdrasil, InputStream, int)
+	 */
+	public YggdrasilInputStream newInputStream(final InputStream in, final int bufferSize) throws IOException {
+		return new DefaultYggdrasilInputStream(this, in, bufferSize);
+	}
+	
+	/**
+	 * @see DefaultYggdrasilOutputStream#DefaultYggdrasilOutputStream(Yggdrasil, WritableByteChannel, int)
+	 */
+	public YggdrasilOutputStream newOutputStream(final WritableByteChannel out) throws IOException {
+		return new DefaultYggdrasilOutputStream(this, out);
+	}
+	
+	/**
+	 * @param bufferSize The size of the stream's internal direct buffer in bytes
+	 * @see DefaultYggdrasilOutputStream#DefaultYggdrasilOutputStream(Yggdrasil, WritableByteChannel, int)
+	 */
+	public YggdrasilOutputStream newOutputStream(final WritableByteChannel out, final int bufferSize) throws IOException {
+		return new DefaultYggdrasilOutputStream(this, out, bufferSize);
+	}
+	
+	/**
+	 * @param out The buffer to write into, starting at its position
+	 * @see DefaultYggdrasilOutputStream#DefaultYggdrasilOutputStream(Yggdrasil, ByteBuffer)
+	 */
+	public YggdrasilOutputStream newOutputStream(final ByteBuffer out) throws IOException {
+		return new DefaultYggdrasilOutputStream(this, out);
+	}
+	
+	/**
+	 * @see DefaultYggdrasilInputStream#DefaultYggdrasilInputStream(Yggdrasil, ReadableByteChannel, int)
+	 */
+	public YggdrasilInputStream newInputStream(final ReadableByteChannel in) throws IOException {
+		return new DefaultYggdrasilInputStream(this, in);
+	}
+	
+	/**
+	 * @param bufferSize The size of the stream's internal direct buffer in bytes
+	 * @see DefaultYggdrasilInputStream#DefaultYggdrasilInputStream(Yggdrasil, ReadableByteChannel, int)
+	 */
+	public YggdrasilInputStream newInputStream(final ReadableByteChannel in, final int bufferSize) throws IOException {
+		return new DefaultYggdrasilInputStream(this, in, bufferSize);
+	}
+	
+	/**
+	 * @param in The buffer to read from, from its position up to its limit
+	 * @see DefaultYggdrasilInputStream#DefaultYggdrasilInputStream(Yggdrasil, ByteBuffer)
+	 */
+	public YggdrasilInputStream newInputStream(final ByteBuffer in) throws IOException {
+		return new DefaultYggdrasilInputStream(this, in);
+	}
+	
+	@Deprecated
+	public YggXMLOutputStream newXMLOutputStream(final OutputStream out) throws IOException {
+		return new YggXMLOutputStream(this, out);
+	}
+	
+	@Deprecated
+	public YggdrasilInputStream newXMLInputStream(final InputStream in) throws IOException {
+		return new YggXMLInputStream(this, in);
+	}
+	
+	/**
+	 * Registers a class resolver. This invalidates all cached class information.
+	 * <p>
+	 * If a registered resolver changes which classes or IDs it resolves, {@link #invalidateCaches()} must be called.
+	 */
+	public void registerClassResolver(final ClassResolver r) {
+		checkNotFrozen();
+		if (!classResolvers.contains(r)) {
+			classResolvers.add(r);
+			invalidateCaches();
+		}
+	}
+	
+	/**
+	 * Registers a class with the given id. If the class has a {@link YggdrasilCodec generated codec}, it will be used to (de)serialise the class's instances.
+	 */
+	public void registerSingleClass(final Class<?> c, final String id) {
+		checkNotFrozen();
+		simpleClassResolver.registerClass(c, id);
+		final YggdrasilCodec<?> codec = YggdrasilCodec.find(c);
+		if (codec != null)
+			generatedCodecs.put(c, codec);
+		invalidateCaches();
+	}
+	
+	/**
+	 * Registers a class and uses its {@link YggdrasilID} as id. If the class has a {@link YggdrasilCodec generated codec}, it will be used to (de)serialise the class's instances.
+	 */
+	public void registerSingleClass(final Class<?> c) {
+		checkNotFrozen();
+		final YggdrasilCodec<?> codec = YggdrasilCodec.find(c);
+		if (codec != null) {
+			simpleClassResolver.registerClass(c, codec.id);
+			generatedCodecs.put(c, codec);
+			invalidateCaches();
+			return;
+		}
+		final YggdrasilID id = c.getAnnotation(YggdrasilID.class);
+		if (id == null)
+			throw new IllegalArgumentException(c.toString());
+		simpleClassResolver.registerClass(c, id.value());
+		invalidateCaches();
+	}
+	
+	private final Map<Class<?>, YggdrasilCodec<?>> generatedCodecs = new HashMap<Class<?>, YggdrasilCodec<?>>();
+	
+	@Nullable
+	final YggdrasilCodec<?> getGeneratedCodec(final Class<?> c) {
+		return generatedCodecs.get(c);
+	}
+	
+	public void registerFieldHandler(final FieldHandler h) {
+		checkNotFrozen();
+		if (!fieldHandlers.contains(h))
+			fieldHandlers.add(h);
+	}
+	
+	private boolean useObjectCodecs = false;
+	
+	/**
+	 * Sets whether objects that use the default serialisation should be written and read with a precomputed codec per class instead of creating a {@link Fields} object for
+	 * each object. This avoids most of the per-object allocations and boxing of primitive fields, and produces data that is fully compatible with the default serialisation,
+	 * with the only difference that fields are always written in declaration order.
+	 * <p>
+	 * The codec of a class is generated at runtime and accesses the class's fields directly like a {@link YggdrasilCodec} generated at compile time (which is always used if
+	 * available). The codec is defined in the class's package, thus the JRE must allow that (e.g. the class must not be in a named module that isn't open to Yggdrasil);
+	 * otherwise, and for fields the codec cannot access, the fields are accessed with method handles.
+	 * <p>
+	 * Classes with a {@link YggdrasilSerializer} or that implement {@link YggdrasilSerializable.YggdrasilExtendedSerializable} are always handled as usual. {@link FieldHandler}s
+	 * and the methods of {@link YggdrasilSerializable.YggdrasilRobustSerializable} are still called for missing, excessive or incompatible fields.
+	 * <p>
+	 * This is disabled by default.
+	 */
+	public void setUseObjectCodecs(final boolean useObjectCodecs) {
+		checkNotFrozen();
+		if (this.useObjectCodecs != useObjectCodecs) {
+			this.useObjectCodecs = useObjectCodecs;
+			invalidateCaches();
+		}
+	}
+	
+	public boolean usesObjectCodecs() {
+		return useObjectCodecs;
+	}
+	
+	private boolean useVarInts = false;
+	
+	/**
+	 * Sets whether int and long values should be written as zigzag-encoded variable-length integers instead of with a fixed size of 4 or 8 bytes respectively. This makes
+	 * small values (both positive and negative) much smaller, but values with a large magnitude up to one (int) or two (long) bytes larger. Primitive arrays are always written
+	 * with a fixed size per element.
+	 * <p>
+	 * This has no effect if this Yggdrasil uses a {@link #version} lower than 2. Readers detect this setting from the stream, i.e. it doesn't have to be set to read such streams.
+	 * <p>
+	 * This is disabled by default.
+	 */
+	public void setUseVarInts(final boolean useVarInts) {
+		checkNotFrozen();
+		this.useVarInts = useVarInts;
+	}
+	
+	public boolean usesVarInts() {
+		return useVarInts;
+	}
+	
+	private boolean useClassLayouts = false;
+	
+	/**
+	 * Sets whether the fields of objects that use the default serialisation should be written using class layouts: The first object of a class in a stream is preceded by the
+	 * IDs and types of the class's fields, and all objects of that class only write the values of their fields in that order, with primitive values written without a tag.
+	 * Readers map the layout onto the local class once per stream.
+	 * <p>
+	 * This has no effect if this Yggdrasil uses a {@link #version} lower than 2. Readers detect this setting from the stream, i.e. it doesn't have to be set to read such streams.
+	 * <p>
+	 * This is disabled by default.
+	 */
+	public void setUseClassLayouts(final boolean useClassLayouts) {
+		checkNotFrozen();
+		this.useClassLayouts = useClassLayouts;
+	}
+	
+	public boolean usesClassLayouts() {
+		return useClassLayouts;
+	}
+	
+	private boolean useDeclaredFieldTypes = false;
+	
+	/**
+	 * Sets whether the declared types of fields should be used to omit the types of field values where possible. If a field's declared type is a final class or an enum, its
+	 * type is written only once in the {@link #setUseClassLayouts(boolean) class layout}, and the field's values are written without their class ID or enum type.
+	 * <p>
+	 * This only has an effect if class layouts are enabled. Readers detect this setting from the stream, i.e. it doesn't have to be set to read such streams.
+	 * <p>
+	 * This is disabled by default.
+	 */
+	public void setUseDeclaredFieldTypes(final boolean useDeclaredFieldTypes) {
+		checkNotFrozen();
+		this.useDeclaredFieldTypes = useDeclaredFieldTypes;
+	}
+	
+	public boolean usesDeclaredFieldTypes() {
+		return useDeclaredFieldTypes;
+	}
+	
+	private boolean usePackedArrays = false;
+	
+	/**
+	 * Sets whether arrays whose elements are all of exactly the array's component type (e.g. a <tt>String[]</tt> or an array of a final class) should be written without
+	 * the type of every element. Elements of Strings, primitive wrappers and enums are written in groups of 8, each preceded by a byte indicating which of them are null or
+	 * references and thus written as usual, while the others are written without a tag. Elements of other types are written with a tag, but without their class ID.
+	 * <p>
+	 * This has no effect if this Yggdrasil uses a {@link #version} lower than 2. Readers detect this setting from the stream, i.e. it doesn't have to be set to read such streams.
+	 * <p>
+	 * This is disabled by default.
+	 */
+	public void setUsePackedArrays(final boolean usePackedArrays) {
+		checkNotFrozen();
+		this.usePackedArrays = usePackedArrays;
+	}
+	
+	public boolean usesPackedArrays() {
+		return usePackedArrays;
+	}
+	
+	private boolean useSharedReferencesOnly = false;
+	
+	/**
+	 * Sets whether only objects that are referenced more than once should be given a reference ID. Before an object is written with
+	 * {@link YggdrasilOutputStream#writeObject(Object)} its whole graph is scanned to find the objects that are referenced more than once (which includes all objects that are
+	 * part of a cycle). Only these objects are numbered and remembered by both the writer and the reader, which saves memory and makes the reference IDs smaller. The first
+	 * occurrence of such an object is preceded by a reference with the ID 0, and references to the n-th shared object use the ID <tt>n + 1</tt>.
+	 * <p>
+	 * The graph is traversed twice, thus {@link YggdrasilSerializer#serialize(Object)} and {@link YggdrasilSerializable.YggdrasilExtendedSerializable#serialize()} are called
+	 * twice for every object and must return the same values both times. An object that is not shared within the graph of a single call to
+	 * {@link YggdrasilOutputStream#writeObject(Object)} but is written again by a later call is written again instead of as a reference.
+	 * <p>
+	 * This has no effect if this Yggdrasil uses a {@link #version} lower than 2. Readers detect this setting from the stream, i.e. it doesn't have to be set to read such streams.
+	 * <p>
+	 * This is disabled by default.
+	 */
+	public void setUseSharedReferencesOnly(final boolean useSharedReferencesOnly) {
+		checkNotFrozen();
+		this.useSharedReferencesOnly = useSharedReferencesOnly;
+	}
+	
+	public boolean usesSharedReferencesOnly() {
+		return useSharedReferencesOnly;
+	}
+	
+	private boolean useMemoryMappedFiles = false;
+	
+	/**
+	 * Sets whether {@link #loadFromFile(File, Class)} should map the file into memory with {@link FileChannel#map(java.nio.channels.FileChannel.MapMode, long, long)} and
+	 * decode the data directly from the mapped memory instead of copying it into a buffer first. Files larger than 2 GiB are mapped in several regions.
+	 * <p>
+	 * The data is decoded exactly as if it was read from a stream. Mapping a file has some overhead and the mapped memory is only released when it is garbage collected, thus
+	 * this is mostly useful for large files.
+	 * <p>
+	 * This is disabled by default.
+	 */
+	public void setUseMemoryMappedFiles(final boolean useMemoryMappedFiles) {
+		checkNotFrozen();
+		this.useMemoryMappedFiles = useMemoryMappedFiles;
+	}
+	
+	public boolean usesMemoryMappedFiles() {
+		return useMemoryMappedFiles;
+	}
+	
+	private volatile boolean frozen = false;
+	
+	/**
+	 * Prevents any further changes to this Yggdrasil's configuration, i.e. registering classes, class resolvers or field handlers, or changing any settings. Afterwards this
+	 * Yggdrasil can be used by multiple threads concurrently.
+	 * <p>
+	 * Registered {@link ClassResolver}s and {@link FieldHandler}s must be thread-safe as well for this to work.
+	 * 
+	 * @return This Yggdrasil instance
+	 */
+	public Yggdrasil freeze() {
+		frozen = true;
+		return this;
+	}
+	
+	public boolean isFrozen() {
+		return frozen;
+	}
+	
+	private final void checkNotFrozen() {
+		if (frozen)
+			throw new YggdrasilException("This Yggdrasil instance is frozen and cannot be modified");
+	}
+	
+	/** Shared by all streams, which may be used concurrently if this Yggdrasil is {@link #freeze() frozen} */
+	private final ConcurrentMap<Class<?>, ClassDescriptor> descriptors = new ConcurrentHashMap<Class<?>, ClassDescriptor>();
+	
+	/**
+	 * Gets the cached information about the given class, creating it if it doesn't exist yet. Returns the same descriptor for a class until the caches are
+	 * {@link #invalidateCaches() invalidated}.
+	 */
+	final ClassDescriptor getDescriptor(final Class<?> c) {
+		final ClassDescriptor d = descriptors.get(c);
+		if (d != null)
+			return d;
+		final ClassDescriptor nd = new ClassDescriptor(this, c); // may be created by multiple threads, but only the first one is kept
+		final ClassDescriptor old = descriptors.putIfAbsent(c, nd);
+		return old != null ? old : nd;
+	}
+	
+	/**
+	 * Clears all information cached about classes, i.e. their serialisability, IDs, and serializers, and the classes cached for IDs.
+	 * <p>
+	 * This is done automatically when a class or class resolver is registered, but must be called manually if an already registered {@link ClassResolver} changes which IDs it
+	 * returns for classes or vice versa.
+	 */
+	public void invalidateCaches() {
+		descriptors.clear();
+		serializers.clear();
+		classesByID.clear();
+		idsByClass.clear();
+	}
+	
+	public final boolean isSerializable(final Class<?> c) {
+		return getDescriptor(c).serializable;
+	}
+	
+	final boolean checkSerializable(final Class<?> c) {
+		try {
+			return c.isPrimitive() || c == Object.class || (Enum.class.isAssignableFrom(c) || PseudoEnum.class.isAssignableFrom(c)) && getIDNoError(c) != null ||
+					((YggdrasilSerializable.class.isAssignableFrom(c) || getSerializer(c) != null) && newInstance(c) != c);// whatever, just make true out if it (null is a valid return value)
+		} catch (final StreamCorruptedException e) { // thrown by newInstance if the class does not provide a correct constructor or is abstract
+			return false;
+		} catch (final NotSerializableException e) {
+			return false;
+		}
+	}
+	
+	/** Marks classes without a serializer in {@link #serializers}, as a {@link ConcurrentHashMap} cannot contain null */
+	private final static Object NO_SERIALIZER = new Object();
+	
+	/** The serializer of each class, or {@link #NO_SERIALIZER} if it has none */
+	private final Map<Class<?>, Object> serializers = new ConcurrentHashMap<Class<?>, Object>();
+	
+	@Nullable
+	YggdrasilSerializer<?> getSerializer(final Class<?> c) {
+		final Object cached = serializers.get(c);
+		if (cached != null)
+			return cached == NO_SERIALIZER ? null : (YggdrasilSerializer<?>) cached;
+		final YggdrasilSerializer<?> s = findSerializer(c);
+		serializers.put(c, s == null ? NO_SERIALIZER : s);
+		return s;
+	}
+	
+	@Nullable
+	private final YggdrasilSerializer<?> findSerializer(final Class<?> c) {
+		for (final ClassResolver r : classResolvers) {
+			if (r instanceof YggdrasilSerializer && r.getID(c) != null)
+				return (YggdrasilSerializer<?>) r;
+		}
+		return null;
+	}
+	
+	/** Caches the results of {@link #getClass(String)}, i.e. only IDs that have been resolved successfully */
+	private final Map<String, Class<?>> classesByID = new ConcurrentHashMap<String, Class<?>>();
+	/** Caches the results of {@link #getIDNoError(Class)} for classes that have an ID, including enum constants' subclasses and pseudo-enum subclasses */
+	private final Map<Class<?>, String> idsByClass = new ConcurrentHashMap<Class<?>, String>();
+	
+	public Class<?> getClass(final String id) throws StreamCorruptedException {
+		final Class<?> cached = classesByID.get(id);
+		if (cached != null)
+			return cached;
+		if ("Object".equals(id))
+			return Object.class;
+		for (final ClassResolver r : classResolvers) {
+			final Class<?> c = r.getClass(id);
+			if (c != null) { // TODO error if not serialisable?
+				assert Tag.byName(id) == null && (Tag.getType(c) == Tag.T_OBJECT || Tag.getType(c) == Tag.T_ENUM) : "Tag IDs should not be matched: " + id + " (class resolver: " + r + ")";
+				assert id.equals(r.getID(c)) : r + " returned " + c + " for id " + id + ", but returns id " + r.getID(c) + " for that class";
+				classesByID.put(id, c);
+				return c;
+			}
+		}
+		throw new StreamCorruptedException("No class found for ID " + id);
+	}
+	
+	@Nullable
+	final String getIDNoError(final Class<?> c) {
+		final String cached = idsByClass.get(c);
+		if (cached != null)
+			return cached;
+		final String id = findID(c);
+		if (id != null)
+			idsByClass.put(c, id);
+		return id;
+	}
+	
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	@Nullable
+	private final String findID(Class<?> c) {
+		if (c == Object.class)
+			return "Object";
+		assert Tag.getType(c) == Tag.T_OBJECT || Tag.getType(c) == Tag.T_ENUM;
+		if (Enum.class.isAssignableFrom(c) && c.getSuperclass() != Enum.class) {
+			final Class<?> s = c.getSuperclass();
+			assert s != null; // c cannot be Object.class
+			c = s;
+		}
+		if (PseudoEnum.class.isAssignableFrom(c))
+			c = PseudoEnum.getDeclaringClass((Class) c);
+		for (final ClassResolver r : classResolvers) {
+			final String id = r.getID(c);
+			if (id != null) {
+				assert Tag.byName(id) == null : "Class IDs should not match Tag IDs: " + id + " (class resolver: " + r + ")";
+				final Class<?> c2 = r.getClass(id);
+				assert c2 != null && (r instanceof YggdrasilSerializer ? id.equals(r.getID(c2)) : r.getClass(id) == c) : r + " returned id " + id + " for " + c + ", but returns " + c2 + " for that id";
+				return id;
+			}
+		}
+		return null;
+	}
+	
+	public String getID(final Class<?> c) throws NotSerializableException {
+		return getDescriptor(c).getID();
+	}
+	
+	/**
+	 * Gets the ID of a field.
+	 * <p>
+	 * This method performs no checks on the given field.
+	 * 
+	 * @param f
+	 * @return The field's id as given by its {@link YggdrasilID} annotation, or its name if it's not annotated.
+	 */
+	public final static String getID(final Field f) {
+		final YggdrasilID yid = f.getAnnotation(YggdrasilID.class);
+		if (yid != null) {
+			return yid.value();
+		} else {
+			return "" + f.getName();
+		}
+	}
+	
+	/**
+	 * The IDs of an enum's constants. Stored in a {@link ClassValue}, thus it is computed only once per enum and can be read by any number of threads without locking.
+	 */
+	private final static class EnumIDs {
+		
+		/** The constants' IDs, indexed by their {@link Enum#ordinal() ordinal} */
+		final String[] ids;
+		
+		final Map<String, Enum<?>> constants;
+		
+		@SuppressWarnings("null")
+		EnumIDs(final Class<?> c) {
+			final Object[] cs = c.getEnumConstants();
+			ids = new String[cs.length];
+			constants = new HashMap<String, Enum<?>>(cs.length * 2);
+			for (final Object o : cs) {
+				final Enum<?> e = (Enum<?>) o;
+				String id;
+				try {
+					id = getID(c.getDeclaredField(e.name()));
+				} catch (final NoSuchFieldException ex) {
+					assert false : e;
+					id = "" + e.name();
+				}
+				ids[e.ordinal()] = id;
+				if (!constants.containsKey(id))
+					constants.put(id, e);
+			}
+		}
+		
+	}
+	
+	private final static ClassValue<EnumIDs> enumIDs = new ClassValue<EnumIDs>() {
+		@Override
+		protected EnumIDs computeValue(final @Nullable Class<?> c) {
+			assert c != null;
+			return new EnumIDs(c);
+		}
+	};
+	
+	public final static String getID(final Enum<?> e) {
+		return enumIDs.get(e.getDeclaringClass()).ids[e.ordinal()];
+	}
+	
+	@SuppressWarnings({"unchecked", "null", "unused"})
+	public final static <T extends Enum<T>> Enum<T> getEnumConstant(final Class<T> c, final String id) throws StreamCorruptedException {
+		final Enum<?> constant = enumIDs.get(c).constants.get(id);
+		if (constant != null)
+			return (Enum<T>) constant;
+		if (YggdrasilRobustEnum.class.isAssignableFrom(c)) {
+			final Object[] cs = c.getEnumConstants();
+			if (cs.length == 0)
+				throw new StreamCorruptedException(c + " does not have any enum constants");
+			final Enum<?> e = ((YggdrasilRobustEnum) cs[0]).excessiveConstant(id);
+			if (e == null)
+				throw new YggdrasilException("YggdrasilRobustEnum " + c + " returned null from excessiveConstant(" + id + ")");
+			if (!c.isInstance(e))
+				throw new YggdrasilException(c + " returned a foreign enum constant: " + e.getClass() + "." + e);
+			return (Enum<T>) e;
+		}
+		// TODO use field handlers/new enum handlers
+		throw new StreamCorruptedException("Enum constant " + id + " does not exist in " + c);
+	}
+	
+	public void excessiveField(final Object o, final FieldContext field) throws StreamCorruptedException {
+		for (final FieldHandler h : fieldHandlers) {
+			if (h.excessiveField(o, field))
+				return;
+		}
+		throw new StreamCorruptedException("Excessive field " + field.id + " in class " + o.getClass().getCanonicalName() + " was not handled");
+	}
+	
+	public void missingField(final Object o, final Field f) throws StreamCorruptedException {
+		for (final FieldHandler h : fieldHandlers) {
+			if (h.missingField(o, f))
+				return;
+		}
+		throw new StreamCorruptedException("Missing field " + getID(f) + " in class " + o.getClass().getCanonicalName() + " was not handled");
+	}
+	
+	public void incompatibleField(final Object o, final Field f, final FieldContext field) throws StreamCorruptedException {
+		for (final FieldHandler h : fieldHandlers) {
+			if (h.incompatibleField(o, f, field))
+				return;
+		}
+		throw new StreamCorruptedException("Incompatible field " + getID(f) + " in class " + o.getClass().getCanonicalName() + " of incompatible " + field.getType() + " was not handled");
+	}
+	
+	public void saveToFile(final Object o, final File f) throws IOException {
+		FileChannel fout = null;
+		YggdrasilOutputStream yout = null;
+		try {
+			fout = FileChannel.open(f.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+			yout = newOutputStream(fout);
+			yout.writeObject(o);
+			yout.flush();
+		} finally {
+			if (yout != null)
+				yout.close();
+			if (fout != null)
+				fout.close();
+		}
+	}
+	
+	@Nullable
+	public <T> T loadFromFile(final File f, final Class<T> expectedType) throws IOException {
+		FileChannel fin = null;
+		YggdrasilInputStream yin = null;
+		try {
+			fin = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+			if (useMemoryMappedFiles)
+				yin = new DefaultYggdrasilInputStream(this, DefaultYggdrasilInputStream.map(fin, DefaultYggdrasilInputStream.MAX_REGION_SIZE));
+			else
+				yin = newInputStream(fin);
+			return yin.readObject(expectedType);
+		} finally {
+			if (yin != null)
+				yin.close();
+			if (fin != null)
+				fin.close();
+		}
+	}
+	
+	@Nullable
+	final Object newInstance(final Class<?> c) throws StreamCorruptedException, NotSerializableException {
+		return newInstance(c, getSerializer(c));
+	}
+	
+	/**
+	 * Creates a new instance of the given class, using the cached serializer and constructor.
+	 */
+	@SuppressWarnings("unused")
+	@Nullable
+	final Object newInstance(final ClassDescriptor d) throws StreamCorruptedException, NotSerializableException {
+		final ObjectCodec codec = d.codec;
+		if (codec != null) {
+			final Object o = codec.newInstance();
+			if (o != null)
+				return o;
+		}
+		final Constructor<?> constr = d.constructor;
+		if (constr == null)
+			return newInstance(d.c, d.serializer);
+		try {
+			return constr.newInstance();
+		} catch (final InstantiationException e) {
+			throw new StreamCorruptedException("Cannot create an instance of " + d.c + " because it is abstract");
+		} catch (final IllegalAccessException e) {
+			e.printStackTrace();
+			assert false;
+			return null;
+		} catch (final IllegalArgumentException e) {
+			e.printStackTrace();
+			assert false;
+			return null;
+		} catch (final InvocationTargetException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	@SuppressWarnings({"rawtypes", "unchecked", "null", "unused"})
+	@Nullable
+	private final Object newInstance(final Class<?> c, final @Nullable YggdrasilSerializer s) throws StreamCorruptedException, NotSerializableException {
+		if (s != null) {
+			if (!s.canBeInstantiated(c)) { // only used by isSerializable - return null if OK, throw an YggdrasilException if not
+				try {
+					final Object o = s.deserialize(c, new Fields(this));
+					if (o != null)
+						return null;
+					throw new YggdrasilException("YggdrasilSerializer " + s + " returned null from deserialize(" + c + ", new Fields())");
+				} catch (final StreamCorruptedException e) {
+					return null;
+				}
+			}
+			final Object o = s.newInstance(c);
+			if (o == null)
+				throw new YggdrasilException("YggdrasilSerializer " + s + " returned null from newInstance(" + c + ")");
+			return o;
+		} else {
+			// try whether a nullary constructor exists
+			try {
+				final Constructor<?> constr = c.getDeclaredConstructor();
+				constr.setAccessible(true);
+				return constr.newInstance();
+			} catch (final NoSuchMethodException e) {
+				throw new StreamCorruptedException("Cannot create an instance of " + c + " because it has no nullary constructor");
+			} catch (final SecurityException e) {
+				throw new StreamCorruptedException("Cannot create an instance of " + c + " because the security manager didn't allow it");
+			} catch (final InstantiationException e) {
+				throw new StreamCorruptedException("Cannot create an instance of " + c + " because it is abstract");
+			} catch (final IllegalAccessException e) {
+				e.printStackTrace();
+				assert false;
+				return null;
+			} catch (final IllegalArgumentException e) {
+				e.printStackTrace();
+				assert false;
+				return null;
+			} catch (final InvocationTargetException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
+	// TODO command line, e.g. convert to XML
+	public static void main(final String[] args) {
+		System.err.println("Command line not supported yet");
+		System.exit(1);
+	}
+	
+}
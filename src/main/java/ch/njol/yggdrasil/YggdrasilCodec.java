@@ -0,0 +1,272 @@
+/*
+ *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
+ *
+ *  Yggdrasil is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Yggdrasil is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2013-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.yggdrasil;
+
+import java.io.NotSerializableException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Base class of the codecs generated at compile time by the Yggdrasil annotation processor (<tt>yggdrasil-processor</tt>) for classes annotated with {@link YggdrasilID} that
+ * implement {@link YggdrasilSerializable}.
+ * <p>
+ * A codec creates instances of its class and reads and writes its fields directly, thus a class with a codec can be serialised mostly without reflection. The codec of a class
+ * <tt>a.b.C</tt> must be named <tt>a.b.C{@value #CLASS_NAME_SUFFIX}</tt> and have a public nullary constructor. It is used automatically if the class is registered with
+ * {@link Yggdrasil#registerSingleClass(Class)} or {@link Yggdrasil#registerSingleClass(Class, String)}.
+ * <p>
+ * Fields are identified by their index in the arrays passed to the constructor. The typed getters and setters are only called for fields of exactly that primitive type,
+ * {@link #get(Object, int)} and {@link #set(Object, int, Object)} only for fields of a reference type. The default implementations of these methods access the field with a
+ * cached {@link FieldAccessor}, thus generated codecs only override them for the fields they can access directly, and leave e.g. private and final fields to this class.
+ * 
+ * @author Peter Güttinger
+ * @param <T> The class this codec handles
+ */
+public abstract class YggdrasilCodec<T> {
+	
+	public final static String CLASS_NAME_SUFFIX = "_YggdrasilCodec";
+	
+	final Class<T> type;
+	
+	final String id;
+	
+	/** The fields' names, used to find the actual fields if a field handler has to be called */
+	final String[] names;
+	
+	/** The fields' IDs as returned by {@link Yggdrasil#getID(java.lang.reflect.Field)} */
+	final String[] ids;
+	
+	final Tag[] types;
+	
+	/** The fields' declared types */
+	final Class<?>[] classes;
+	
+	/** Accessors for the fields that are not handled by the generated code, created when first needed */
+	private final FieldAccessor[] accessors;
+	
+	/**
+	 * @param type The class this codec handles
+	 * @param id The class's ID
+	 * @param names The names of all serialisable fields of the class, including inherited ones
+	 * @param ids The IDs of the fields
+	 * @param types The types of the fields. An element may be null if the type is not accessible to the generated code, in which case it is determined with reflection.
+	 */
+	@SuppressWarnings("null")
+	protected YggdrasilCodec(final Class<T> type, final String id, final String[] names, final String[] ids, final @Nullable Class<?>[] types) {
+		if (names.length != ids.length || names.length != types.length)
+			throw new IllegalArgumentException("Array lengths differ");
+		this.type = type;
+		this.id = id;
+		this.names = names;
+		this.ids = ids;
+		accessors = new FieldAccessor[names.length];
+		classes = new Class<?>[types.length];
+		this.types = new Tag[types.length];
+		for (int i = 0; i < types.length; i++) {
+			final Class<?> t = types[i];
+			classes[i] = t != null ? t : getField(i).getType();
+			this.types[i] = classes[i].isPrimitive() ? Tag.getType(classes[i]) : Tag.T_OBJECT;
+		}
+	}
+	
+	/**
+	 * Generated codecs override this if the class has a nullary constructor they can access.
+	 * 
+	 * @return A new instance of this codec's class, created with its nullary constructor, or null if the instance should be created with reflection
+	 */
+	@Nullable
+	public T newInstance() {
+		return null;
+	}
+	
+	/**
+	 * @return The value of the given field, which is not a primitive
+	 */
+	@Nullable
+	public Object get(final T o, final int field) {
+		return accessor(field, Tag.T_OBJECT).get(o);
+	}
+	
+	/**
+	 * Sets a field that is not a primitive.
+	 * 
+	 * @throws ClassCastException If the value is of a wrong type
+	 */
+	public void set(final T o, final int field, final @Nullable Object value) throws ClassCastException {
+		try {
+			accessor(field, Tag.T_OBJECT).set(o, value);
+		} catch (final IllegalArgumentException e) {
+			throw new ClassCastException(e.getMessage());
+		}
+	}
+	
+	public boolean getBoolean(final T o, final int field) {
+		return accessor(field, Tag.T_BOOLEAN).getBoolean(o);
+	}
+	
+	public byte getByte(final T o, final int field) {
+		return accessor(field, Tag.T_BYTE).getByte(o);
+	}
+	
+	public short getShort(final T o, final int field) {
+		return accessor(field, Tag.T_SHORT).getShort(o);
+	}
+	
+	public char getChar(final T o, final int field) {
+		return accessor(field, Tag.T_CHAR).getChar(o);
+	}
+	
+	public int getInt(final T o, final int field) {
+		return accessor(field, Tag.T_INT).getInt(o);
+	}
+	
+	public long getLong(final T o, final int field) {
+		return accessor(field, Tag.T_LONG).getLong(o);
+	}
+	
+	public float getFloat(final T o, final int field) {
+		return accessor(field, Tag.T_FLOAT).getFloat(o);
+	}
+	
+	public double getDouble(final T o, final int field) {
+		return accessor(field, Tag.T_DOUBLE).getDouble(o);
+	}
+	
+	public void setBoolean(final T o, final int field, final boolean value) {
+		accessor(field, Tag.T_BOOLEAN).setBoolean(o, value);
+	}
+	
+	public void setByte(final T o, final int field, final byte value) {
+		accessor(field, Tag.T_BYTE).setByte(o, value);
+	}
+	
+	public void setShort(final T o, final int field, final short value) {
+		accessor(field, Tag.T_SHORT).setShort(o, value);
+	}
+	
+	public void setChar(final T o, final int field, final char value) {
+		accessor(field, Tag.T_CHAR).setChar(o, value);
+	}
+	
+	public void setInt(final T o, final int field, final int value) {
+		accessor(field, Tag.T_INT).setInt(o, value);
+	}
+	
+	public void setLong(final T o, final int field, final long value) {
+		accessor(field, Tag.T_LONG).setLong(o, value);
+	}
+	
+	public void setFloat(final T o, final int field, final float value) {
+		accessor(field, Tag.T_FLOAT).setFloat(o, value);
+	}
+	
+	public void setDouble(final T o, final int field, final double value) {
+		accessor(field, Tag.T_DOUBLE).setDouble(o, value);
+	}
+	
+	protected final YggdrasilException unsupported(final int field) {
+		return new YggdrasilException("Invalid field " + field + " for this operation in " + getClass().getName());
+	}
+	
+	/**
+	 * Accessors are immutable, thus a race on {@link #accessors} at worst creates an accessor twice.
+	 * 
+	 * @param type The expected type of the field
+	 * @return The accessor of the given field
+	 */
+	private final FieldAccessor accessor(final int field, final Tag type) {
+		if (field < 0 || field >= types.length || types[field] != type)
+			throw unsupported(field);
+		FieldAccessor a = accessors[field];
+		if (a == null)
+			accessors[field] = a = findAccessor(field);
+		return a;
+	}
+	
+	/**
+	 * Finds a field by its ID rather than its name, as a field may hide a field of the same name declared in a superclass.
+	 * 
+	 * @return The accessor of the field with the given index
+	 */
+	private final FieldAccessor findAccessor(final int field) {
+		final FieldAccessor[] fs;
+		try {
+			fs = Fields.getAccessors(type);
+		} catch (final NotSerializableException e) {
+			throw new YggdrasilException(e);
+		}
+		final String id = ids[field], name = names[field];
+		for (final FieldAccessor f : fs) {
+			if (f.id.equals(id) && f.field.getName().equals(name))
+				return f;
+		}
+		throw new YggdrasilException("The codec " + this + " is out of date: " + type + " has no field " + name + " with the ID " + id);
+	}
+	
+	/**
+	 * @return The field with the given index, found with reflection
+	 */
+	final Field getField(final int field) {
+		return findAccessor(field).field;
+	}
+	
+	/**
+	 * Finds and instantiates the generated codec of the given class.
+	 * 
+	 * @return The codec, or null if the class has none
+	 */
+	@Nullable
+	static YggdrasilCodec<?> find(final Class<?> c) {
+		final ClassLoader l = c.getClassLoader();
+		if (l == null)
+			return null;
+		final Class<?> cc;
+		try {
+			cc = Class.forName(c.getName() + CLASS_NAME_SUFFIX, true, l);
+		} catch (final ClassNotFoundException e) {
+			return null;
+		}
+		if (!YggdrasilCodec.class.isAssignableFrom(cc))
+			return null;
+		try {
+			final YggdrasilCodec<?> codec = (YggdrasilCodec<?>) cc.getConstructor().newInstance();
+			if (codec.type != c)
+				throw new YggdrasilException(cc + " is not a codec for " + c);
+			return codec;
+		} catch (final InstantiationException e) {
+			throw new YggdrasilException(e);
+		} catch (final IllegalAccessException e) {
+			throw new YggdrasilException(e);
+		} catch (final InvocationTargetException e) {
+			throw new YggdrasilException(e);
+		} catch (final NoSuchMethodException e) {
+			throw new YggdrasilException(cc + " has no public nullary constructor", e);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return getClass().getName();
+	}
+	
+}
@@ -1,280 +1,722 @@
-/*
- *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
- *
- *  Yggdrasil is free software: you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation, either version 3 of the License, or
- *  (at your option) any later version.
- *
- *  Yggdrasil is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
- * 
- * 
- * Copyright 2013-2014 Peter Güttinger
- * 
- */
-
-package ch.njol.yggdrasil;
-
-import static ch.njol.yggdrasil.Tag.*;
-
-import java.io.Closeable;
-import java.io.IOException;
-import java.io.StreamCorruptedException;
-import java.lang.reflect.Array;
-import java.util.ArrayList;
-import java.util.List;
-
-import org.eclipse.jdt.annotation.Nullable;
-
-import ch.njol.yggdrasil.YggdrasilSerializable.YggdrasilExtendedSerializable;
-
-public abstract class YggdrasilInputStream implements Closeable {
-	
-	protected final Yggdrasil yggdrasil;
-	
-	protected YggdrasilInputStream(final Yggdrasil yggdrasil) {
-		this.yggdrasil = yggdrasil;
-	}
-	
-	// Tag
-	
-	protected abstract Tag readTag() throws IOException;
-	
-	// Primitives
-	
-	protected abstract Object readPrimitive(Tag type) throws IOException;
-	
-	protected abstract Object readPrimitive_(Tag type) throws IOException;
-	
-	// String
-	
-	protected abstract String readString() throws IOException;
-	
-	// Array
-	
-	protected abstract Class<?> readArrayComponentType() throws IOException;
-	
-	protected abstract int readArrayLength() throws IOException;
-	
-	private final void readArrayContents(final Object array) throws IOException {
-		if (array.getClass().getComponentType().isPrimitive()) {
-			final int length = Array.getLength(array);
-			final Tag type = getType(array.getClass().getComponentType());
-			for (int i = 0; i < length; i++) {
-				Array.set(array, i, readPrimitive_(type));
-			}
-		} else {
-			for (int i = 0; i < ((Object[]) array).length; i++) {
-				((Object[]) array)[i] = readObject();
-			}
-		}
-	}
-	
-	// Enum
-	
-	protected abstract Class<?> readEnumType() throws IOException;
-	
-	protected abstract String readEnumID() throws IOException;
-	
-	@SuppressWarnings({"unchecked", "rawtypes"})
-	private final Object readEnum() throws IOException {
-		final Class<?> c = readEnumType();
-		final String id = readEnumID();
-		if (Enum.class.isAssignableFrom(c)) {
-			return Yggdrasil.getEnumConstant((Class) c, id);
-		} else if (PseudoEnum.class.isAssignableFrom(c)) {
-			final Object o = PseudoEnum.valueOf((Class) c, id);
-			if (o != null)
-				return o;
-//			if (YggdrasilRobustPseudoEnum.class.isAssignableFrom(c)) {
-//				// TODO create this and a handler (for Enums as well)
-//			}
-			throw new StreamCorruptedException("Enum constant " + id + " does not exist in " + c);
-		} else {
-			throw new StreamCorruptedException(c + " is not an enum type");
-		}
-	}
-	
-	// Class
-	
-	protected abstract Class<?> readClass() throws IOException;
-	
-	// Reference
-	
-	protected abstract int readReference() throws IOException;
-	
-	// generic Object
-	
-	protected abstract Class<?> readObjectType() throws IOException;
-	
-	protected abstract short readNumFields() throws IOException;
-	
-	protected abstract String readFieldID() throws IOException;
-	
-	private final Fields readFields() throws IOException {
-		final Fields fields = new Fields(yggdrasil);
-		final short numFields = readNumFields();
-		for (int i = 0; i < numFields; i++) {
-			final String id = readFieldID();
-			final Tag t = readTag();
-			if (t.isPrimitive())
-				fields.putPrimitive(id, readPrimitive(t));
-			else
-				fields.putObject(id, readObject(t));
-		}
-		return fields;
-	}
-	
-	// any Objects
-	
-	private final List<Object> readObjects = new ArrayList<Object>();
-	
-	@Nullable
-	public final Object readObject() throws IOException {
-		final Tag t = readTag();
-		return readObject(t);
-	}
-	
-	@SuppressWarnings("unchecked")
-	@Nullable
-	public final <T> T readObject(final Class<T> expectedType) throws IOException {
-		final Tag t = readTag();
-		final Object o = readObject(t);
-		if (o != null && !expectedType.isInstance(o))
-			throw new StreamCorruptedException("Object " + o + " is of " + o.getClass() + " but expected " + expectedType);
-		return (T) o;
-	}
-	
-	@SuppressWarnings({"rawtypes", "unchecked", "null", "unused"})
-	@Nullable
-	private final Object readObject(final Tag t) throws IOException {
-		if (t == T_NULL)
-			return null;
-		if (t == T_REFERENCE) {
-			final int ref = readReference();
-			if (ref < 0 || ref >= readObjects.size())
-				throw new StreamCorruptedException("Invalid reference " + ref + ", " + readObjects.size() + " object(s) read so far");
-			final Object o = readObjects.get(ref);
-			if (o == null)
-				throw new StreamCorruptedException("Reference to uninstantiable object: " + ref);
-			return o;
-		}
-		final Object o;
-		switch (t) {
-			case T_ARRAY: {
-				final Class<?> c = readArrayComponentType();
-				o = Array.newInstance(c, readArrayLength());
-				assert o != null;
-				readObjects.add(o);
-				readArrayContents(o);
-				return o;
-			}
-			case T_CLASS:
-				o = readClass();
-				break;
-			case T_ENUM:
-				o = readEnum();
-				break;
-			case T_STRING:
-				o = readString();
-				break;
-			case T_OBJECT: {
-				final Class<?> c = readObjectType();
-				final YggdrasilSerializer s = yggdrasil.getSerializer(c);
-				if (s != null && !s.canBeInstantiated(c)) {
-					final int ref = readObjects.size();
-					readObjects.add(null);
-					final Fields fields = readFields();
-					o = s.deserialize(c, fields);
-					if (o == null)
-						throw new YggdrasilException("YggdrasilSerializer " + s + " returned null from deserialize(" + c + "," + fields + ")");
-					readObjects.set(ref, o);
-				} else {
-					o = yggdrasil.newInstance(c);
-					if (o == null)
-						throw new StreamCorruptedException();
-					readObjects.add(o);
-					final Fields fields = readFields();
-					if (s != null) {
-						s.deserialize(o, fields);
-					} else if (o instanceof YggdrasilExtendedSerializable) {
-						((YggdrasilExtendedSerializable) o).deserialize(fields);
-					} else {
-						fields.setFields(o);
-					}
-				}
-				return o;
-			}
-			case T_BOOLEAN_OBJ:
-			case T_BYTE_OBJ:
-			case T_CHAR_OBJ:
-			case T_DOUBLE_OBJ:
-			case T_FLOAT_OBJ:
-			case T_INT_OBJ:
-			case T_LONG_OBJ:
-			case T_SHORT_OBJ:
-				final Tag p = t.getPrimitive();
-				assert p != null;
-				o = readPrimitive(p);
-				break;
-			case T_BYTE:
-			case T_BOOLEAN:
-			case T_CHAR:
-			case T_DOUBLE:
-			case T_FLOAT:
-			case T_INT:
-			case T_LONG:
-			case T_SHORT:
-				throw new StreamCorruptedException();
-			case T_REFERENCE:
-			case T_NULL:
-			default:
-				assert false;
-				throw new StreamCorruptedException();
-		}
-		readObjects.add(o);
-		return o;
-	}
-	
-//	private final static class Validation implements Comparable<Validation> {
-//		private final ObjectInputValidation v;
-//		private final int prio;
-//		
-//		public Validation(final ObjectInputValidation v, final int prio) {
-//			this.v = v;
-//			this.prio = prio;
-//		}
-//		
-//		private void validate() throws InvalidObjectException {
-//			v.validateObject();
-//		}
-//		
-//		@Override
-//		public int compareTo(final Validation o) {
-//			return o.prio - prio;
-//		}
-//	}
-//	
-//	private final SortedSet<Validation> validations = new TreeSet<>();
-//	
-//	public void registerValidation(final ObjectInputValidation v, final int prio) throws NotActiveException, InvalidObjectException {
-//		if (depth == 0)
-//			throw new NotActiveException("stream inactive");
-//		if (v == null)
-//			throw new InvalidObjectException("null callback");
-//		validations.add(new Validation(v, prio));
-//	}
-//	
-//	private void validate() throws InvalidObjectException {
-//		for (final Validation v : validations)
-//			v.validate();
-//		validations.clear(); // if multiple objects are written to the stream this method will be called multiple times
-//	}
-	
-}
+/*
+ *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
+ *
+ *  Yggdrasil is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Yggdrasil is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2013-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.yggdrasil;
+
+import static ch.njol.yggdrasil.Tag.*;
+import static ch.njol.yggdrasil.YggdrasilOutputStream.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.yggdrasil.Fields.FieldContext;
+import ch.njol.yggdrasil.YggdrasilSerializable.YggdrasilExtendedSerializable;
+import ch.njol.yggdrasil.YggdrasilSerializable.YggdrasilRobustSerializable;
+
+public abstract class YggdrasilInputStream implements Closeable {
+	
+	protected final Yggdrasil yggdrasil;
+	
+	protected YggdrasilInputStream(final Yggdrasil yggdrasil) {
+		this.yggdrasil = yggdrasil;
+	}
+	
+	// Tag
+	
+	protected abstract Tag readTag() throws IOException;
+	
+	// Primitives
+	
+	protected abstract Object readPrimitive(Tag type) throws IOException;
+	
+	protected abstract Object readPrimitive_(Tag type) throws IOException;
+	
+	/*
+	 * Typed variants of readPrimitive used by object codecs. The default implementations unbox the value, subclasses should override them.
+	 */
+	
+	protected boolean readBooleanValue() throws IOException {
+		return (Boolean) readPrimitive(T_BOOLEAN);
+	}
+	
+	protected byte readByteValue() throws IOException {
+		return (Byte) readPrimitive(T_BYTE);
+	}
+	
+	protected short readShortValue() throws IOException {
+		return (Short) readPrimitive(T_SHORT);
+	}
+	
+	protected char readCharValue() throws IOException {
+		return (Character) readPrimitive(T_CHAR);
+	}
+	
+	protected int readIntValue() throws IOException {
+		return (Integer) readPrimitive(T_INT);
+	}
+	
+	protected long readLongValue() throws IOException {
+		return (Long) readPrimitive(T_LONG);
+	}
+	
+	protected float readFloatValue() throws IOException {
+		return (Float) readPrimitive(T_FLOAT);
+	}
+	
+	protected double readDoubleValue() throws IOException {
+		return (Double) readPrimitive(T_DOUBLE);
+	}
+	
+	/**
+	 * Reads a primitive into a {@link FieldContext} without boxing it.
+	 */
+	private final void readPrimitive(final FieldContext c, final Tag type) throws IOException {
+		switch (type) {
+			case T_BOOLEAN:
+				c.setBoolean(readBooleanValue());
+				break;
+			case T_BYTE:
+				c.setByte(readByteValue());
+				break;
+			case T_SHORT:
+				c.setShort(readShortValue());
+				break;
+			case T_CHAR:
+				c.setChar(readCharValue());
+				break;
+			case T_INT:
+				c.setInt(readIntValue());
+				break;
+			case T_LONG:
+				c.setLong(readLongValue());
+				break;
+			case T_FLOAT:
+				c.setFloat(readFloatValue());
+				break;
+			case T_DOUBLE:
+				c.setDouble(readDoubleValue());
+				break;
+			//$CASES-OMITTED$
+			default:
+				throw new StreamCorruptedException("Not a primitive: " + type);
+		}
+	}
+	
+	// String
+	
+	protected abstract String readString() throws IOException;
+	
+	// Array
+	
+	protected abstract Class<?> readArrayComponentType() throws IOException;
+	
+	protected abstract int readArrayLength() throws IOException;
+	
+	/**
+	 * Reads all elements of an array of a primitive type, e.g. an <tt>int[]</tt>.
+	 * <p>
+	 * The default implementation calls {@link #readPrimitive_(Tag)} for each element. Subclasses should override this with a method that doesn't box every element.
+	 * 
+	 * @param array An array of a primitive type to fill
+	 */
+	protected void readPrimitiveArrayContents(final Object array) throws IOException {
+		final int length = Array.getLength(array);
+		final Tag type = getType(array.getClass().getComponentType());
+		for (int i = 0; i < length; i++) {
+			Array.set(array, i, readPrimitive_(type));
+		}
+	}
+	
+	/**
+	 * @return Whether this stream contains packed arrays, see {@link Yggdrasil#setUsePackedArrays(boolean)}. The default implementation returns false.
+	 */
+	protected boolean readsPackedArrays() {
+		return false;
+	}
+	
+	/**
+	 * Used instead of {@link #readArrayLength()} for arrays of a non-primitive type if {@link #readsPackedArrays()} returns true.
+	 * 
+	 * @return The value written with {@link YggdrasilOutputStream#writeArrayLengthAndPacking(long)}
+	 */
+	protected abstract long readArrayLengthAndPacking() throws IOException;
+	
+	/**
+	 * @return The value written with {@link YggdrasilOutputStream#writeArrayElementFlags(int)}
+	 */
+	protected abstract int readArrayElementFlags() throws IOException;
+	
+	/**
+	 * Reads the elements of a packed array as written by {@link YggdrasilOutputStream}.
+	 */
+	@SuppressWarnings("null")
+	private final void readPackedArrayContents(final Object[] array, final Class<?> componentType) throws IOException {
+		final Tag t = getType(componentType);
+		if (t == T_OBJECT) {
+			for (int i = 0; i < array.length; i++)
+				array[i] = readObject(readTag(), componentType);
+			return;
+		}
+		if (t != T_STRING && t != T_ENUM && !t.isWrapper())
+			throw new StreamCorruptedException("An array of " + componentType + " cannot be packed");
+		for (int off = 0; off < array.length; off += 8) {
+			final int end = Math.min(array.length, off + 8);
+			final int flags = readArrayElementFlags();
+			for (int i = off; i < end; i++) {
+				if ((flags & 1 << (i - off)) != 0) {
+					array[i] = readObject();
+					continue;
+				}
+				final Object o = t == T_STRING ? readString() : t == T_ENUM ? readEnum(componentType) : readPrimitive(t.getPrimitive());
+				if (!readsSharedReferencesOnly())
+					readObjects.add(o);
+				array[i] = o;
+			}
+		}
+	}
+	
+	private final void readArrayContents(final Object array) throws IOException {
+		if (array.getClass().getComponentType().isPrimitive()) {
+			readPrimitiveArrayContents(array);
+		} else {
+			for (int i = 0; i < ((Object[]) array).length; i++) {
+				((Object[]) array)[i] = readObject();
+			}
+		}
+	}
+	
+	// Enum
+	
+	protected abstract Class<?> readEnumType() throws IOException;
+	
+	protected abstract String readEnumID() throws IOException;
+	
+	/**
+	 * @param knownType The enum's type if it is known from the field's declaration, in which case it is not read
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final Object readEnum(final @Nullable Class<?> knownType) throws IOException {
+		final Class<?> c = knownType != null ? knownType : readEnumType();
+		final String id = readEnumID();
+		if (Enum.class.isAssignableFrom(c)) {
+			return Yggdrasil.getEnumConstant((Class) c, id);
+		} else if (PseudoEnum.class.isAssignableFrom(c)) {
+			final Object o = PseudoEnum.valueOf((Class) c, id);
+			if (o != null)
+				return o;
+//			if (YggdrasilRobustPseudoEnum.class.isAssignableFrom(c)) {
+//				// TODO create this and a handler (for Enums as well)
+//			}
+			throw new StreamCorruptedException("Enum constant " + id + " does not exist in " + c);
+		} else {
+			throw new StreamCorruptedException(c + " is not an enum type");
+		}
+	}
+	
+	// Class
+	
+	protected abstract Class<?> readClass() throws IOException;
+	
+	// Reference
+	
+	protected abstract int readReference() throws IOException;
+	
+	// generic Object
+	
+	protected abstract Class<?> readObjectType() throws IOException;
+	
+	protected abstract short readNumFields() throws IOException;
+	
+	protected abstract String readFieldID() throws IOException;
+	
+	/** Unused Fields objects, to not create a new one for every object. Objects are read recursively, so more than one may be in use at any time. */
+	private Fields[] fieldsPool = new Fields[8];
+	private int fieldsPoolSize = 0;
+	
+	private final Fields borrowFields() {
+		if (fieldsPoolSize == 0)
+			return new Fields(yggdrasil);
+		final Fields f = fieldsPool[--fieldsPoolSize];
+		fieldsPool[fieldsPoolSize] = null;
+		assert f != null;
+		return f;
+	}
+	
+	private final void releaseFields(final Fields f) {
+		if (!f.clear())
+			return;
+		if (fieldsPoolSize == fieldsPool.length)
+			fieldsPool = Arrays.copyOf(fieldsPool, fieldsPoolSize * 2);
+		fieldsPool[fieldsPoolSize++] = f;
+	}
+	
+	// class layouts
+	
+	/**
+	 * The layout of a class as written to the stream, i.e. the IDs and types of the fields of every object of that class. The fields are mapped onto the local class once when
+	 * the layout is read.
+	 */
+	private final static class StreamLayout {
+		
+		final Class<?> c;
+		
+		final String[] ids;
+		
+		/** The fields' types if they are primitives, which are then written without a tag, or {@link Tag#T_OBJECT} if the values are written with a tag */
+		final Tag[] types;
+		
+		/** The types of fields whose values are written without their type, null for all other fields. Null if there are no such fields. */
+		@Nullable
+		final Class<?>[] knownTypes;
+		
+		/** The codec of the local class, or null if the class doesn't use the default serialisation */
+		@Nullable
+		final ObjectCodec codec;
+		
+		/** The index of each field in {@link #codec}, or -1 if the local class doesn't have such a field */
+		final int[] indices;
+		
+		StreamLayout(final Class<?> c, final String[] ids, final Tag[] types, final @Nullable Class<?>[] knownTypes, final @Nullable ObjectCodec codec) {
+			this.c = c;
+			this.ids = ids;
+			this.types = types;
+			this.knownTypes = knownTypes;
+			this.codec = codec;
+			indices = new int[ids.length];
+			if (codec != null) {
+				for (int i = 0; i < ids.length; i++)
+					indices[i] = codec.indexOf(ids[i], i);
+			}
+		}
+		
+	}
+	
+	/**
+	 * @return Whether this stream uses class layouts, see {@link Yggdrasil#setUseClassLayouts(boolean)}. The default implementation returns false.
+	 */
+	protected boolean readsClassLayouts() {
+		return false;
+	}
+	
+	/**
+	 * Reads a layout ID as written by {@link YggdrasilOutputStream#writeLayoutID(int)}. Only called if {@link #readsClassLayouts()} returns true.
+	 */
+	protected abstract int readLayoutID() throws IOException;
+	
+	private final List<StreamLayout> layouts = new ArrayList<StreamLayout>();
+	
+	/**
+	 * Reads the layout ID of an object of the given class, and the layout itself if it is new.
+	 * 
+	 * @return The object's layout, or null if its fields are written as usual
+	 */
+	@SuppressWarnings("null")
+	@Nullable
+	private final StreamLayout readLayout(final ClassDescriptor d) throws IOException {
+		final int id = readLayoutID();
+		if (id == NO_LAYOUT)
+			return null;
+		if (id != NEW_LAYOUT) {
+			final int i = id - FIRST_LAYOUT;
+			if (i < 0 || i >= layouts.size())
+				throw new StreamCorruptedException("Invalid layout reference " + i + ", " + layouts.size() + " layout(s) read so far");
+			final StreamLayout l = layouts.get(i);
+			if (l.c != d.c)
+				throw new StreamCorruptedException("Layout " + i + " of " + l.c + " used for an object of " + d.c);
+			return l;
+		}
+		final short numFields = readNumFields();
+		final String[] ids = new String[numFields];
+		final Tag[] types = new Tag[numFields];
+		Class<?>[] knownTypes = null;
+		for (int i = 0; i < numFields; i++) {
+			ids[i] = readFieldID();
+			final Tag t = readTag();
+			if (t == T_CLASS) {
+				final Class<?> knownType = readClass();
+				final Tag kt = getType(knownType);
+				if (kt != T_OBJECT && kt != T_ENUM)
+					throw new StreamCorruptedException("Invalid known type " + knownType + " of field " + ids[i] + " in the layout of " + d.c);
+				if (knownTypes == null)
+					knownTypes = new Class<?>[numFields];
+				knownTypes[i] = knownType;
+				types[i] = T_OBJECT;
+				continue;
+			}
+			if (t != T_OBJECT && !t.isPrimitive())
+				throw new StreamCorruptedException("Invalid type " + t + " of field " + ids[i] + " in the layout of " + d.c);
+			types[i] = t;
+		}
+		final StreamLayout l = new StreamLayout(d.c, ids, types, knownTypes, d.fieldsCodec);
+		layouts.add(l);
+		return l;
+	}
+	
+	/**
+	 * Reads the tag of the <tt>i</tt>-th field of an object, or gets it from the layout if the value is written without a tag.
+	 */
+	@SuppressWarnings("null")
+	private final Tag readFieldTag(final @Nullable StreamLayout layout, final int i) throws IOException {
+		if (layout == null || layout.types[i] == T_OBJECT)
+			return readTag();
+		return layout.types[i];
+	}
+	
+	/**
+	 * @return The type of the <tt>i</tt>-th field's value if it is not written in the stream
+	 */
+	@Nullable
+	private final static Class<?> getKnownType(final @Nullable StreamLayout layout, final int i) {
+		if (layout == null)
+			return null;
+		final Class<?>[] knownTypes = layout.knownTypes;
+		return knownTypes == null ? null : knownTypes[i];
+	}
+	
+	private final Fields readFields(final @Nullable StreamLayout layout) throws IOException {
+		return readFields(new Fields(yggdrasil), layout);
+	}
+	
+	@SuppressWarnings("null")
+	private final Fields readFields(final Fields fields, final @Nullable StreamLayout layout) throws IOException {
+		final int numFields = layout == null ? readNumFields() : layout.ids.length;
+		for (int i = 0; i < numFields; i++) {
+			final String id = layout == null ? readFieldID() : layout.ids[i];
+			final Tag t = readFieldTag(layout, i);
+			if (t.isPrimitive())
+				readPrimitive(fields.getOrCreate(id), t);
+			else
+				fields.putObject(id, readObject(t, getKnownType(layout, i)));
+		}
+		return fields;
+	}
+	
+	/**
+	 * Reads the fields of an object and sets them directly with the object's class's codec. Missing, excessive and incompatible fields are handled like in
+	 * {@link Fields#setFields(Object)}.
+	 * 
+	 * @param layout The object's layout, which must have been mapped onto the given codec, or null if the fields are written as usual
+	 */
+	@SuppressWarnings("null")
+	private final void readFields(final Object o, final ObjectCodec codec, final @Nullable StreamLayout layout) throws IOException {
+		assert layout == null || layout.codec == codec;
+		final Tag[] types = codec.types;
+		// null as long as all fields are read in the codec's order
+		boolean[] read = null;
+		final int numFields = layout == null ? readNumFields() : layout.ids.length;
+		for (int i = 0; i < numFields; i++) {
+			final String id = layout == null ? readFieldID() : layout.ids[i];
+			final Tag t = readFieldTag(layout, i);
+			final int index = layout == null ? codec.indexOf(id, i) : layout.indices[i];
+			if (read == null && index != i) {
+				read = new boolean[types.length];
+				for (int j = 0; j < i; j++)
+					read[j] = true;
+			}
+			if (index < 0) {
+				final FieldContext c = new FieldContext(id);
+				if (t.isPrimitive())
+					readPrimitive(c, t);
+				else
+					c.setObject(readObject(t, getKnownType(layout, i)));
+				if (!(o instanceof YggdrasilRobustSerializable) || !((YggdrasilRobustSerializable) o).excessiveField(c))
+					yggdrasil.excessiveField(o, c);
+				continue;
+			}
+			if (read != null)
+				read[index] = true;
+			final Tag type = types[index];
+			if (type != T_OBJECT ? t == type : !t.isPrimitive()) {
+				switch (type) {
+					case T_BOOLEAN:
+						codec.setBoolean(o, index, readBooleanValue());
+						break;
+					case T_BYTE:
+						codec.setByte(o, index, readByteValue());
+						break;
+					case T_SHORT:
+						codec.setShort(o, index, readShortValue());
+						break;
+					case T_CHAR:
+						codec.setChar(o, index, readCharValue());
+						break;
+					case T_INT:
+						codec.setInt(o, index, readIntValue());
+						break;
+					case T_LONG:
+						codec.setLong(o, index, readLongValue());
+						break;
+					case T_FLOAT:
+						codec.setFloat(o, index, readFloatValue());
+						break;
+					case T_DOUBLE:
+						codec.setDouble(o, index, readDoubleValue());
+						break;
+					//$CASES-OMITTED$
+					default: // T_OBJECT
+						final Object value = readObject(t, getKnownType(layout, i));
+						try {
+							codec.set(o, index, value);
+						} catch (final IllegalArgumentException e) {
+							final FieldContext c = new FieldContext(id);
+							c.setObject(value);
+							final Field f = codec.getField(index);
+							if (!(o instanceof YggdrasilRobustSerializable) || !((YggdrasilRobustSerializable) o).incompatibleField(f, c))
+								yggdrasil.incompatibleField(o, f, c);
+						}
+				}
+			} else {
+				final FieldContext c = new FieldContext(id);
+				if (t.isPrimitive())
+					readPrimitive(c, t);
+				else
+					c.setObject(readObject(t, getKnownType(layout, i)));
+				codec.setField(o, index, c, yggdrasil);
+			}
+		}
+		for (int i = read == null ? numFields : 0; i < types.length; i++) {
+			if (read != null && read[i])
+				continue;
+			final Field f = codec.getField(i);
+			if (!(o instanceof YggdrasilRobustSerializable) || !((YggdrasilRobustSerializable) o).missingField(f))
+				yggdrasil.missingField(o, f);
+		}
+	}
+	
+	// shared references
+	
+	/**
+	 * @return Whether only objects that are referenced more than once have a reference ID in this stream, see {@link Yggdrasil#setUseSharedReferencesOnly(boolean)}. The
+	 *         default implementation returns false.
+	 */
+	protected boolean readsSharedReferencesOnly() {
+		return false;
+	}
+	
+	// any Objects
+	
+	private final List<Object> readObjects = new ArrayList<Object>();
+	
+	@Nullable
+	public final Object readObject() throws IOException {
+		final Tag t = readTag();
+		return readObject(t);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Nullable
+	public final <T> T readObject(final Class<T> expectedType) throws IOException {
+		final Tag t = readTag();
+		final Object o = readObject(t);
+		if (o != null && !expectedType.isInstance(o))
+			throw new StreamCorruptedException("Object " + o + " is of " + o.getClass() + " but expected " + expectedType);
+		return (T) o;
+	}
+	
+	@Nullable
+	private final Object readObject(final Tag t) throws IOException {
+		return readObject(t, null);
+	}
+	
+	/**
+	 * @param knownType The type of the object if it is known from the layout of the object whose field is read, in which case it is not read from the stream
+	 */
+	@Nullable
+	private final Object readObject(final Tag t, final @Nullable Class<?> knownType) throws IOException {
+		return readObject(t, knownType, !readsSharedReferencesOnly());
+	}
+	
+	/**
+	 * @param register Whether the object gets a reference ID, i.e. whether it is added to {@link #readObjects}
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked", "null", "unused"})
+	@Nullable
+	private final Object readObject(final Tag t, final @Nullable Class<?> knownType, final boolean register) throws IOException {
+		if (t == T_NULL)
+			return null;
+		if (knownType != null && t != T_REFERENCE && t != getType(knownType))
+			throw new StreamCorruptedException("Expected an object of " + knownType + ", but found " + t);
+		if (t == T_REFERENCE) {
+			int ref = readReference();
+			if (readsSharedReferencesOnly()) {
+				if (ref == SHARED_OBJECT) {
+					final Tag st = readTag();
+					if (st == T_REFERENCE || st == T_NULL)
+						throw new StreamCorruptedException("Expected a shared object, but found " + st);
+					return readObject(st, knownType, true);
+				}
+				ref--;
+			}
+			if (ref < 0 || ref >= readObjects.size())
+				throw new StreamCorruptedException("Invalid reference " + ref + ", " + readObjects.size() + " object(s) read so far");
+			final Object o = readObjects.get(ref);
+			if (o == null)
+				throw new StreamCorruptedException("Reference to uninstantiable object: " + ref);
+			return o;
+		}
+		final Object o;
+		switch (t) {
+			case T_ARRAY: {
+				final Class<?> c = readArrayComponentType();
+				if (!c.isPrimitive() && readsPackedArrays()) {
+					final long l = readArrayLengthAndPacking();
+					if (l < 0 || l >>> 1 > Integer.MAX_VALUE)
+						throw new StreamCorruptedException("Invalid array length " + (l >>> 1));
+					o = Array.newInstance(c, (int) (l >>> 1));
+					assert o != null;
+					if (register)
+						readObjects.add(o);
+					if ((l & 1) != 0)
+						readPackedArrayContents((Object[]) o, c);
+					else
+						readArrayContents(o);
+					return o;
+				}
+				o = Array.newInstance(c, readArrayLength());
+				assert o != null;
+				if (register)
+					readObjects.add(o);
+				readArrayContents(o);
+				return o;
+			}
+			case T_CLASS:
+				o = readClass();
+				break;
+			case T_ENUM:
+				o = readEnum(knownType);
+				break;
+			case T_STRING:
+				o = readString();
+				break;
+			case T_OBJECT: {
+				final Class<?> c = knownType != null ? knownType : readObjectType();
+				final ClassDescriptor d = yggdrasil.getDescriptor(c);
+				final StreamLayout layout = readsClassLayouts() ? readLayout(d) : null;
+				final YggdrasilSerializer s = d.serializer;
+				if (s != null && !s.canBeInstantiated(c)) {
+					final int ref = readObjects.size();
+					if (register)
+						readObjects.add(null);
+					final Fields fields = readFields(layout);
+					o = s.deserialize(c, fields);
+					if (o == null)
+						throw new YggdrasilException("YggdrasilSerializer " + s + " returned null from deserialize(" + c + "," + fields + ")");
+					if (register)
+						readObjects.set(ref, o);
+				} else {
+					o = yggdrasil.newInstance(d);
+					if (o == null)
+						throw new StreamCorruptedException();
+					if (register)
+						readObjects.add(o);
+					final ObjectCodec codec = layout != null ? layout.codec : d.codec;
+					if (codec != null) {
+						readFields(o, codec, layout);
+						return o;
+					}
+					if (s != null) {
+						s.deserialize(o, readFields(layout));
+					} else if (o instanceof YggdrasilExtendedSerializable) {
+						((YggdrasilExtendedSerializable) o).deserialize(readFields(layout));
+					} else {
+						final Fields fields = readFields(borrowFields(), layout);
+						fields.setFields(o);
+						releaseFields(fields); // not reached on errors, in which case the stream is unusable anyway
+					}
+				}
+				return o;
+			}
+			case T_BOOLEAN_OBJ:
+			case T_BYTE_OBJ:
+			case T_CHAR_OBJ:
+			case T_DOUBLE_OBJ:
+			case T_FLOAT_OBJ:
+			case T_INT_OBJ:
+			case T_LONG_OBJ:
+			case T_SHORT_OBJ:
+				final Tag p = t.getPrimitive();
+				assert p != null;
+				o = readPrimitive(p);
+				break;
+			case T_BYTE:
+			case T_BOOLEAN:
+			case T_CHAR:
+			case T_DOUBLE:
+			case T_FLOAT:
+			case T_INT:
+			case T_LONG:
+			case T_SHORT:
+				throw new StreamCorruptedException();
+			case T_REFERENCE:
+			case T_NULL:
+			default:
+				assert false;
+				throw new StreamCorruptedException();
+		}
+		if (register)
+			readObjects.add(o);
+		return o;
+	}
+	
+//	private final static class Validation implements Comparable<Validation> {
+//		private final ObjectInputValidation v;
+//		private final int prio;
+//		
+//		public Validation(final ObjectInputValidation v, final int prio) {
+//			this.v = v;
+//			this.prio = prio;
+//		}
+//		
+//		private void validate() throws InvalidObjectException {
+//			v.validateObject();
+//		}
+//		
+//		@Override
+//		public int compareTo(final Validation o) {
+//			return o.prio - prio;
+//		}
+//	}
+//	
+//	private final SortedSet<Validation> validations = new TreeSet<>();
+//	
+//	public void registerValidation(final ObjectInputValidation v, final int prio) throws NotActiveException, InvalidObjectException {
+//		if (depth == 0)
+//			throw new NotActiveException("stream inactive");
+//		if (v == null)
+//			throw new InvalidObjectException("null callback");
+//		validations.add(new Validation(v, prio));
+//	}
+//	
+//	private void validate() throws InvalidObjectException {
+//		for (final Validation v : validations)
+//			v.validate();
+//		validations.clear(); // if multiple objects are written to the stream this method will be called multiple times
+//	}
+	
+}
@@ -1,257 +1,780 @@
-/*
- *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
- *
- *  Yggdrasil is free software: you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation, either version 3 of the License, or
- *  (at your option) any later version.
- *
- *  Yggdrasil is distributed in the hope that it will be useful,
- *  but WITHOUT ANY WARRANTY; without even the implied warranty of
- *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- *  GNU General Public License for more details.
- *
- *  You should have received a copy of the GNU General Public License
- *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
- * 
- * 
- * Copyright 2013-2014 Peter Güttinger
- * 
- */
-
-package ch.njol.yggdrasil;
-
-import static ch.njol.yggdrasil.Tag.*;
-
-import java.io.Closeable;
-import java.io.Flushable;
-import java.io.IOException;
-import java.io.NotSerializableException;
-import java.lang.reflect.Array;
-import java.util.IdentityHashMap;
-
-import org.eclipse.jdt.annotation.Nullable;
-
-import ch.njol.yggdrasil.Fields.FieldContext;
-import ch.njol.yggdrasil.YggdrasilSerializable.YggdrasilExtendedSerializable;
-
-public abstract class YggdrasilOutputStream implements Flushable, Closeable {
-	
-	protected final Yggdrasil yggdrasil;
-	
-	protected YggdrasilOutputStream(final Yggdrasil yggdrasil) {
-		this.yggdrasil = yggdrasil;
-	}
-	
-	// Tag
-	
-	protected abstract void writeTag(Tag t) throws IOException;
-	
-	// Null
-	
-	private final void writeNull() throws IOException {
-		writeTag(T_NULL);
-	}
-	
-	// Primitives
-	
-	protected abstract void writePrimitiveValue(Object o) throws IOException;
-	
-	protected abstract void writePrimitive_(Object o) throws IOException;
-	
-	private final void writePrimitive(final Object o) throws IOException {
-		final Tag t = Tag.getType(o.getClass());
-		assert t.isWrapper();
-		final Tag p = t.getPrimitive();
-		assert p != null;
-		writeTag(p);
-		writePrimitiveValue(o);
-	}
-	
-	private final void writeWrappedPrimitive(final Object o) throws IOException {
-		final Tag t = Tag.getType(o.getClass());
-		assert t.isWrapper();
-		writeTag(t);
-		writePrimitiveValue(o);
-	}
-	
-	// String
-	
-	protected abstract void writeStringValue(String s) throws IOException;
-	
-	private final void writeString(final String s) throws IOException {
-		writeTag(T_STRING);
-		writeStringValue(s);
-	}
-	
-	// Array
-	
-	protected abstract void writeArrayComponentType(Class<?> componentType) throws IOException;
-	
-	protected abstract void writeArrayLength(int length) throws IOException;
-	
-	protected abstract void writeArrayEnd() throws IOException;
-	
-	private final void writeArray(final Object array) throws IOException {
-		final int length = Array.getLength(array);
-		final Class<?> ct = array.getClass().getComponentType();
-		assert ct != null;
-		writeTag(T_ARRAY);
-		writeArrayComponentType(ct);
-		writeArrayLength(length);
-		if (ct.isPrimitive()) {
-			for (int i = 0; i < length; i++) {
-				final Object p = Array.get(array, i);
-				assert p != null;
-				writePrimitive_(p);
-			}
-			writeArrayEnd();
-		} else {
-			for (final Object o : (Object[]) array)
-				writeObject(o);
-			writeArrayEnd();
-		}
-	}
-	
-	// Enum
-	
-	protected abstract void writeEnumType(String type) throws IOException;
-	
-	protected abstract void writeEnumID(String id) throws IOException;
-	
-	private final void writeEnum(final Enum<?> o) throws IOException {
-		writeTag(T_ENUM);
-		final Class<?> c = o.getDeclaringClass();
-		assert c != null;
-		writeEnumType(yggdrasil.getID(c));
-		writeEnumID(Yggdrasil.getID(o));
-	}
-	
-	private final void writeEnum(final PseudoEnum<?> o) throws IOException {
-		writeTag(T_ENUM);
-		writeEnumType(yggdrasil.getID(o.getDeclaringClass()));
-		writeEnumID(o.name());
-	}
-	
-	// Class
-	
-	protected abstract void writeClassType(Class<?> c) throws IOException;
-	
-	private final void writeClass(final Class<?> c) throws IOException {
-		writeTag(T_CLASS);
-		writeClassType(c);
-	}
-	
-	// Reference
-	
-	protected abstract void writeReferenceID(int ref) throws IOException;
-	
-	protected final void writeReference(final int ref) throws IOException {
-		assert ref >= 0;
-		writeTag(T_REFERENCE);
-		writeReferenceID(ref);
-	}
-	
-	// generic Objects
-	
-	protected abstract void writeObjectType(String type) throws IOException;
-	
-	protected abstract void writeNumFields(short numFields) throws IOException;
-	
-	protected abstract void writeFieldID(String id) throws IOException;
-	
-	protected abstract void writeObjectEnd() throws IOException;
-	
-	@SuppressWarnings({"rawtypes", "unchecked", "null", "unused"})
-	private final void writeGenericObject(final Object o, int ref) throws IOException {
-		final Class<?> c = o.getClass();
-		assert c != null;
-		if (!yggdrasil.isSerializable(c))
-			throw new NotSerializableException(c.getName());
-		final Fields fields;
-		final YggdrasilSerializer s = yggdrasil.getSerializer(c);
-		if (s != null) {
-			fields = s.serialize(o);
-			if (fields == null)
-				throw new YggdrasilException("The serializer of " + c + " returned null");
-			if (!s.canBeInstantiated(c)) {
-				ref = ~ref; // ~ instead of - to also get a negative value if ref is 0
-				writtenObjects.put(o, ref);
-			}
-		} else if (o instanceof YggdrasilExtendedSerializable) {
-			fields = ((YggdrasilExtendedSerializable) o).serialize();
-			if (fields == null)
-				throw new YggdrasilException("The serialize() method of " + c + " returned null");
-		} else {
-			fields = new Fields(o, yggdrasil);
-		}
-		if (fields.size() > Short.MAX_VALUE)
-			throw new YggdrasilException("Class " + c.getCanonicalName() + " has too many fields (" + fields.size() + ")");
-		
-		writeTag(T_OBJECT);
-		writeObjectType(yggdrasil.getID(c));
-		writeNumFields((short) fields.size());
-		for (final FieldContext f : fields) {
-			writeFieldID(f.id);
-			if (f.isPrimitive())
-				writePrimitive(f.getPrimitive());
-			else
-				writeObject(f.getObject());
-		}
-		writeObjectEnd();
-		
-		if (ref < 0)
-			writtenObjects.put(o, ~ref);
-	}
-	
-	// any Objects
-	
-	private int nextObjectID = 0;
-	private final IdentityHashMap<Object, Integer> writtenObjects = new IdentityHashMap<Object, Integer>();
-	
-	public final void writeObject(final @Nullable Object o) throws IOException {
-		if (o == null) {
-			writeNull();
-			return;
-		}
-		if (writtenObjects.containsKey(o)) {
-			final int ref = writtenObjects.get(o);
-			if (ref < 0)
-				throw new YggdrasilException("Uninstantiable object " + o + " is referenced in its fields' graph");
-			writeReference(ref);
-			return;
-		}
-		final int ref = nextObjectID;
-		nextObjectID++;
-		writtenObjects.put(o, ref);
-		final Tag type = getType(o.getClass());
-		if (type.isWrapper()) {
-			writeWrappedPrimitive(o);
-			return;
-		}
-		switch (type) {
-			case T_ARRAY:
-				writeArray(o);
-				return;
-			case T_STRING:
-				writeString((String) o);
-				return;
-			case T_ENUM:
-				if (o instanceof Enum)
-					writeEnum((Enum<?>) o);
-				else
-					writeEnum((PseudoEnum<?>) o);
-				return;
-			case T_CLASS:
-				writeClass((Class<?>) o);
-				return;
-			case T_OBJECT:
-				writeGenericObject(o, ref);
-				return;
-				//$CASES-OMITTED$
-			default:
-				throw new YggdrasilException("unhandled type " + type);
-		}
-	}
-	
-}
+/*
+ *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
+ *
+ *  Yggdrasil is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Yggdrasil is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2013-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.yggdrasil;
+
+import static ch.njol.yggdrasil.Tag.*;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.yggdrasil.Fields.FieldContext;
+import ch.njol.yggdrasil.YggdrasilSerializable.YggdrasilExtendedSerializable;
+
+public abstract class YggdrasilOutputStream implements Flushable, Closeable {
+	
+	protected final Yggdrasil yggdrasil;
+	
+	protected YggdrasilOutputStream(final Yggdrasil yggdrasil) {
+		this.yggdrasil = yggdrasil;
+	}
+	
+	// Tag
+	
+	protected abstract void writeTag(Tag t) throws IOException;
+	
+	// Null
+	
+	private final void writeNull() throws IOException {
+		writeTag(T_NULL);
+	}
+	
+	// Primitives
+	
+	protected abstract void writePrimitiveValue(Object o) throws IOException;
+	
+	protected abstract void writePrimitive_(Object o) throws IOException;
+	
+	/*
+	 * Typed variants of writePrimitiveValue used by object codecs. The default implementations box the value, subclasses should override them.
+	 */
+	
+	protected void writeBooleanValue(final boolean v) throws IOException {
+		writePrimitiveValue(v);
+	}
+	
+	protected void writeByteValue(final byte v) throws IOException {
+		writePrimitiveValue(v);
+	}
+	
+	protected void writeShortValue(final short v) throws IOException {
+		writePrimitiveValue(v);
+	}
+	
+	protected void writeCharValue(final char v) throws IOException {
+		writePrimitiveValue(v);
+	}
+	
+	protected void writeIntValue(final int v) throws IOException {
+		writePrimitiveValue(v);
+	}
+	
+	protected void writeLongValue(final long v) throws IOException {
+		writePrimitiveValue(v);
+	}
+	
+	protected void writeFloatValue(final float v) throws IOException {
+		writePrimitiveValue(v);
+	}
+	
+	protected void writeDoubleValue(final double v) throws IOException {
+		writePrimitiveValue(v);
+	}
+	
+	/**
+	 * Writes a primitive stored in a {@link FieldContext} without boxing it.
+	 */
+	@SuppressWarnings("null")
+	private final void writePrimitive(final FieldContext f) throws IOException {
+		final Tag p = f.primitiveType;
+		final long v = f.primitive;
+		writeTag(p);
+		switch (p) {
+			case T_BOOLEAN:
+				writeBooleanValue(v != 0);
+				break;
+			case T_BYTE:
+				writeByteValue((byte) v);
+				break;
+			case T_SHORT:
+				writeShortValue((short) v);
+				break;
+			case T_CHAR:
+				writeCharValue((char) v);
+				break;
+			case T_INT:
+				writeIntValue((int) v);
+				break;
+			case T_LONG:
+				writeLongValue(v);
+				break;
+			case T_FLOAT:
+				writeFloatValue(Float.intBitsToFloat((int) v));
+				break;
+			case T_DOUBLE:
+				writeDoubleValue(Double.longBitsToDouble(v));
+				break;
+			//$CASES-OMITTED$
+			default:
+				throw new YggdrasilException("Internal error; " + p);
+		}
+	}
+	
+	private final void writeWrappedPrimitive(final Object o) throws IOException {
+		final Tag t = Tag.getType(o.getClass());
+		assert t.isWrapper();
+		writeTag(t);
+		writePrimitiveValue(o);
+	}
+	
+	// String
+	
+	protected abstract void writeStringValue(String s) throws IOException;
+	
+	private final void writeString(final String s) throws IOException {
+		writeTag(T_STRING);
+		writeStringValue(s);
+	}
+	
+	// Array
+	
+	protected abstract void writeArrayComponentType(Class<?> componentType) throws IOException;
+	
+	protected abstract void writeArrayLength(int length) throws IOException;
+	
+	protected abstract void writeArrayEnd() throws IOException;
+	
+	/**
+	 * Writes all elements of an array of a primitive type, e.g. an <tt>int[]</tt>.
+	 * <p>
+	 * The default implementation calls {@link #writePrimitive_(Object)} for each element. Subclasses should override this with a method that doesn't box every element.
+	 * 
+	 * @param array An array of a primitive type
+	 */
+	protected void writePrimitiveArrayContents(final Object array) throws IOException {
+		final int length = Array.getLength(array);
+		for (int i = 0; i < length; i++) {
+			final Object p = Array.get(array, i);
+			assert p != null;
+			writePrimitive_(p);
+		}
+	}
+	
+	/**
+	 * @return Whether this stream writes arrays whose elements are all of the same type packed, see {@link Yggdrasil#setUsePackedArrays(boolean)}. The default implementation
+	 *         returns false.
+	 */
+	protected boolean writesPackedArrays() {
+		return false;
+	}
+	
+	/**
+	 * Used instead of {@link #writeArrayLength(int)} for arrays of a non-primitive type if {@link #writesPackedArrays()} returns true.
+	 * 
+	 * @param lengthAndPacking The array's length shifted left by one, with the lowest bit set if the array is packed
+	 */
+	protected abstract void writeArrayLengthAndPacking(long lengthAndPacking) throws IOException;
+	
+	/**
+	 * Writes which of up to 8 elements of a packed array are written with a tag, with the lowest bit corresponding to the first element.
+	 */
+	protected abstract void writeArrayElementFlags(int flags) throws IOException;
+	
+	private final void writeArray(final Object array) throws IOException {
+		final int length = Array.getLength(array);
+		final Class<?> ct = array.getClass().getComponentType();
+		assert ct != null;
+		writeTag(T_ARRAY);
+		writeArrayComponentType(ct);
+		if (ct.isPrimitive()) {
+			writeArrayLength(length);
+			writePrimitiveArrayContents(array);
+			writeArrayEnd();
+		} else if (writesPackedArrays()) {
+			final boolean packed = isPackable((Object[]) array, ct);
+			writeArrayLengthAndPacking((long) length << 1 | (packed ? 1 : 0));
+			if (packed) {
+				writePackedArrayContents((Object[]) array, ct);
+			} else {
+				for (final Object o : (Object[]) array)
+					writeObject(o, null);
+			}
+			writeArrayEnd();
+		} else {
+			writeArrayLength(length);
+			for (final Object o : (Object[]) array)
+				writeObject(o, null);
+			writeArrayEnd();
+		}
+	}
+	
+	/**
+	 * Checks whether all elements of an array are either null or of exactly the array's component type, and the component type is one that can be packed.
+	 */
+	private final static boolean isPackable(final Object[] array, final Class<?> componentType) {
+		final Tag t = getType(componentType);
+		if (t == T_STRING || t.isWrapper())
+			return true;
+		if (t == T_ENUM) {
+			for (final Object o : array) {
+				if (o != null && (o instanceof Enum ? ((Enum<?>) o).getDeclaringClass() : ((PseudoEnum<?>) o).getDeclaringClass()) != componentType)
+					return false;
+			}
+			return true;
+		}
+		if (t != T_OBJECT || componentType == Object.class)
+			return false;
+		for (final Object o : array) {
+			if (o != null && o.getClass() != componentType)
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Writes the elements of an array for which {@link #isPackable(Object[], Class)} returned true.
+	 * <p>
+	 * Strings, wrappers and enums cannot reference other objects, thus it is known in advance which of them will be written as a reference. Other objects are written with
+	 * their tag, but without their type.
+	 */
+	@SuppressWarnings("null")
+	private final void writePackedArrayContents(final Object[] array, final Class<?> componentType) throws IOException {
+		final Tag t = getType(componentType);
+		if (t == T_OBJECT) {
+			for (final Object o : array)
+				writeObject(o, componentType);
+			return;
+		}
+		for (int off = 0; off < array.length; off += 8) {
+			final int end = Math.min(array.length, off + 8);
+			int flags = 0;
+			for (int i = off; i < end; i++) {
+				if (isNullOrWritten(array, off, i))
+					flags |= 1 << (i - off);
+			}
+			writeArrayElementFlags(flags);
+			for (int i = off; i < end; i++) {
+				final Object o = array[i];
+				if ((flags & 1 << (i - off)) != 0) {
+					writeObject(o, null);
+					continue;
+				}
+				if (sharedObjects == null)
+					writtenObjects.put(o, nextObjectID++);
+				if (t == T_STRING)
+					writeStringValue((String) o);
+				else if (t == T_ENUM)
+					writeEnumID(o instanceof Enum ? Yggdrasil.getID((Enum<?>) o) : ((PseudoEnum<?>) o).name());
+				else
+					writePrimitiveValue(o);
+			}
+		}
+	}
+	
+	/**
+	 * @return Whether the <tt>i</tt>-th element of the array is null or has already been written, either before the array or as one of the previous elements of the group
+	 *         starting at <tt>off</tt>, or is shared and thus needs a reference ID
+	 */
+	private final boolean isNullOrWritten(final Object[] array, final int off, final int i) {
+		final Object o = array[i];
+		if (o == null || writtenObjects.containsKey(o) || isShared(o))
+			return true;
+		for (int j = off; j < i; j++) {
+			if (array[j] == o)
+				return true;
+		}
+		return false;
+	}
+	
+	// Enum
+	
+	protected abstract void writeEnumType(String type) throws IOException;
+	
+	protected abstract void writeEnumID(String id) throws IOException;
+	
+	/**
+	 * @param knownType Whether the enum's type is known from the field's declaration and is thus not written
+	 */
+	private final void writeEnum(final Enum<?> o, final boolean knownType) throws IOException {
+		writeTag(T_ENUM);
+		final Class<?> c = o.getDeclaringClass();
+		assert c != null;
+		if (!knownType)
+			writeEnumType(yggdrasil.getID(c));
+		writeEnumID(Yggdrasil.getID(o));
+	}
+	
+	private final void writeEnum(final PseudoEnum<?> o, final boolean knownType) throws IOException {
+		writeTag(T_ENUM);
+		if (!knownType)
+			writeEnumType(yggdrasil.getID(o.getDeclaringClass()));
+		writeEnumID(o.name());
+	}
+	
+	// Class
+	
+	protected abstract void writeClassType(Class<?> c) throws IOException;
+	
+	private final void writeClass(final Class<?> c) throws IOException {
+		writeTag(T_CLASS);
+		writeClassType(c);
+	}
+	
+	// Reference
+	
+	protected abstract void writeReferenceID(int ref) throws IOException;
+	
+	protected final void writeReference(final int ref) throws IOException {
+		assert ref >= 0;
+		writeTag(T_REFERENCE);
+		writeReferenceID(sharedObjects == null ? ref : ref + 1);
+	}
+	
+	// shared references
+	
+	/** Reference ID: The next object is shared and thus gets the next reference ID. Only used if {@link #writesSharedReferencesOnly()} returns true. */
+	final static int SHARED_OBJECT = 0;
+	
+	/**
+	 * @return Whether this stream only assigns reference IDs to objects that are referenced more than once, see {@link Yggdrasil#setUseSharedReferencesOnly(boolean)}. The
+	 *         default implementation returns false.
+	 */
+	protected boolean writesSharedReferencesOnly() {
+		return false;
+	}
+	
+	/** Values of {@link #sharedObjects} */
+	private final static int SEEN_ONCE = 0, SHARED = 1;
+	
+	/**
+	 * The objects found by {@link #scan(Object)} in the graph of the object currently written by {@link #writeObject(Object)}, mapped to {@link #SEEN_ONCE} or
+	 * {@link #SHARED}. Null if this stream doesn't use shared references only or no object is currently being written.
+	 */
+	@Nullable
+	private IdentityIntMap sharedObjects = null;
+	
+	/** The map used by {@link #scan(Object)}, which is reused for every object written with {@link #writeObject(Object)} and cleared afterwards */
+	@Nullable
+	private IdentityIntMap scanned = null;
+	
+	private final boolean isShared(final Object o) {
+		final IdentityIntMap sharedObjects = this.sharedObjects;
+		return sharedObjects != null && sharedObjects.get(o) == SHARED;
+	}
+	
+	/**
+	 * Finds all objects in the graph of the given object that are referenced more than once, including from within their own graph. This visits exactly the objects that
+	 * {@link #writeObject(Object, Class)} would write.
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked", "null"})
+	private final IdentityIntMap scan(final Object root) throws IOException {
+		IdentityIntMap found = scanned;
+		if (found == null)
+			scanned = found = new IdentityIntMap();
+		assert found.isEmpty();
+		final ArrayList<Object> stack = new ArrayList<Object>();
+		stack.add(root);
+		while (!stack.isEmpty()) {
+			final Object o = stack.remove(stack.size() - 1);
+			if (o == null || writtenObjects.containsKey(o))
+				continue;
+			final int seen = found.putIfAbsent(o, SEEN_ONCE);
+			if (seen != IdentityIntMap.NONE) {
+				if (seen == SEEN_ONCE)
+					found.put(o, SHARED);
+				continue;
+			}
+			final Class<?> c = o.getClass();
+			final Tag type = getType(c);
+			if (type == T_ARRAY) {
+				if (!c.getComponentType().isPrimitive())
+					stack.addAll(Arrays.asList((Object[]) o));
+			} else if (type == T_OBJECT) {
+				final ClassDescriptor d = yggdrasil.getDescriptor(c);
+				if (!d.serializable)
+					throw new NotSerializableException(c.getName());
+				final ObjectCodec codec = d.fieldsCodec;
+				final YggdrasilSerializer s = d.serializer;
+				if (codec != null) {
+					for (int i = 0; i < codec.size(); i++) {
+						if (codec.types[i] == T_OBJECT)
+							stack.add(codec.get(o, i));
+					}
+					continue;
+				}
+				final Fields fields;
+				if (s != null)
+					fields = s.serialize(o);
+				else if (o instanceof YggdrasilExtendedSerializable)
+					fields = ((YggdrasilExtendedSerializable) o).serialize();
+				else
+					fields = new Fields(o, yggdrasil);
+				if (fields == null) // checked again when writing
+					continue;
+				for (final FieldContext f : fields) {
+					if (!f.isPrimitive())
+						stack.add(f.getObject());
+				}
+			}
+		}
+		return found;
+	}
+	
+	// generic Objects
+	
+	protected abstract void writeObjectType(String type) throws IOException;
+	
+	protected abstract void writeNumFields(short numFields) throws IOException;
+	
+	protected abstract void writeFieldID(String id) throws IOException;
+	
+	protected abstract void writeObjectEnd() throws IOException;
+	
+	// class layouts
+	
+	/** Layout IDs: The object's fields are written as usual (i.e. with their IDs) */
+	final static int NO_LAYOUT = 0;
+	/** Layout IDs: A new layout follows, which is used by the object and can be referenced by later objects of the same class */
+	final static int NEW_LAYOUT = 1;
+	/** Layout IDs: The n-th layout of the stream is referenced with the ID <tt>FIRST_LAYOUT + n</tt> */
+	final static int FIRST_LAYOUT = 2;
+	
+	/**
+	 * @return Whether this stream writes the fields of objects using class layouts, see {@link Yggdrasil#setUseClassLayouts(boolean)}. The default implementation returns false.
+	 */
+	protected boolean writesClassLayouts() {
+		return false;
+	}
+	
+	/**
+	 * Writes a layout ID, i.e. {@link #NO_LAYOUT}, {@link #NEW_LAYOUT}, or a reference to a layout. Only called if {@link #writesClassLayouts()} returns true.
+	 */
+	protected abstract void writeLayoutID(int id) throws IOException;
+	
+	/**
+	 * @return Whether this stream omits the types of field values if they are known from the fields' declared types, see {@link Yggdrasil#setUseDeclaredFieldTypes(boolean)}.
+	 *         Only called if {@link #writesClassLayouts()} returns true. The default implementation returns false.
+	 */
+	protected boolean writesDeclaredFieldTypes() {
+		return false;
+	}
+	
+	private final static class WrittenLayout {
+		
+		final int id;
+		
+		/** The types of the fields whose values are written without a type, null for all other fields. Null if there are no such fields. */
+		@Nullable
+		final Class<?>[] knownTypes;
+		
+		WrittenLayout(final int id, final @Nullable Class<?>[] knownTypes) {
+			this.id = id;
+			this.knownTypes = knownTypes;
+		}
+		
+	}
+	
+	/** The layouts written so far */
+	private final HashMap<Class<?>, WrittenLayout> writtenLayouts = new HashMap<Class<?>, WrittenLayout>();
+	
+	/**
+	 * Writes the layout of the given codec's class if this is the first object of the class, or a reference to it otherwise.
+	 * <p>
+	 * Fields with a known type are written as {@link Tag#T_CLASS} followed by the type, all other fields as their type, i.e. a primitive or {@link Tag#T_OBJECT}.
+	 * 
+	 * @return The known types of the fields, see {@link WrittenLayout#knownTypes}
+	 */
+	@SuppressWarnings("null")
+	@Nullable
+	private final Class<?>[] writeLayout(final ObjectCodec codec) throws IOException {
+		final WrittenLayout layout = writtenLayouts.get(codec.c);
+		if (layout != null) {
+			writeLayoutID(FIRST_LAYOUT + layout.id);
+			return layout.knownTypes;
+		}
+		writeLayoutID(NEW_LAYOUT);
+		final String[] ids = codec.ids;
+		final Tag[] types = codec.types;
+		Class<?>[] knownTypes = null;
+		writeNumFields((short) ids.length);
+		for (int i = 0; i < ids.length; i++) {
+			writeFieldID(ids[i]);
+			final Class<?> knownType = types[i] == T_OBJECT && writesDeclaredFieldTypes() ? getKnownType(codec.classes[i]) : null;
+			if (knownType != null) {
+				if (knownTypes == null)
+					knownTypes = new Class<?>[ids.length];
+				knownTypes[i] = knownType;
+				writeTag(T_CLASS);
+				writeClassType(knownType);
+			} else {
+				writeTag(types[i]);
+			}
+		}
+		writtenLayouts.put(codec.c, new WrittenLayout(writtenLayouts.size(), knownTypes));
+		return knownTypes;
+	}
+	
+	/**
+	 * Checks whether all non-null values of a field of the given type are of exactly that type, and whether that type can be omitted when writing the values. This is the case
+	 * for final classes and enums, but not for Strings and primitive wrappers, whose types are only a tag anyway.
+	 * 
+	 * @return The given type, or null if it is not known from the declaration
+	 */
+	@Nullable
+	private final Class<?> getKnownType(final Class<?> c) {
+		final Tag t = getType(c);
+		if (t == T_ENUM) {
+			if (Enum.class.isAssignableFrom(c) ? c.getSuperclass() != Enum.class : !Modifier.isFinal(c.getModifiers()))
+				return null;
+			return yggdrasil.getIDNoError(c) != null ? c : null;
+		}
+		if (t != T_OBJECT || !Modifier.isFinal(c.getModifiers()))
+			return null;
+		final ClassDescriptor d = yggdrasil.getDescriptor(c);
+		return d.serializable && d.id != null ? c : null;
+	}
+	
+	/**
+	 * Writes the fields of an object directly with its class's codec, in the same format as {@link #writeGenericObject(Object, int, boolean)} would.
+	 * 
+	 * @param layout Whether the class's layout has been written, in which case only the values are written, and primitives without a tag
+	 * @param knownTypes The known types of the fields as returned by {@link #writeLayout(ObjectCodec)}
+	 */
+	@SuppressWarnings("null")
+	private final void writeFields(final Object o, final ObjectCodec codec, final boolean layout, final @Nullable Class<?>[] knownTypes) throws IOException {
+		final String[] ids = codec.ids;
+		final Tag[] types = codec.types;
+		if (!layout)
+			writeNumFields((short) ids.length);
+		for (int i = 0; i < ids.length; i++) {
+			final Tag type = types[i];
+			if (!layout) {
+				writeFieldID(ids[i]);
+				if (type != T_OBJECT)
+					writeTag(type);
+			}
+			switch (type) {
+				case T_OBJECT:
+					writeObject(codec.get(o, i), knownTypes == null ? null : knownTypes[i]);
+					break;
+				case T_BOOLEAN:
+					writeBooleanValue(codec.getBoolean(o, i));
+					break;
+				case T_BYTE:
+					writeByteValue(codec.getByte(o, i));
+					break;
+				case T_SHORT:
+					writeShortValue(codec.getShort(o, i));
+					break;
+				case T_CHAR:
+					writeCharValue(codec.getChar(o, i));
+					break;
+				case T_INT:
+					writeIntValue(codec.getInt(o, i));
+					break;
+				case T_LONG:
+					writeLongValue(codec.getLong(o, i));
+					break;
+				case T_FLOAT:
+					writeFloatValue(codec.getFloat(o, i));
+					break;
+				case T_DOUBLE:
+					writeDoubleValue(codec.getDouble(o, i));
+					break;
+				//$CASES-OMITTED$
+				default:
+					throw new YggdrasilException("Invalid field type " + types[i] + " of " + ids[i] + " in " + codec);
+			}
+		}
+	}
+	
+	/** Unused Fields objects, to not create a new one for every object. Objects are written recursively, so more than one may be in use at any time. */
+	private Fields[] fieldsPool = new Fields[8];
+	private int fieldsPoolSize = 0;
+	
+	private final Fields borrowFields() {
+		if (fieldsPoolSize == 0)
+			return new Fields(yggdrasil);
+		final Fields f = fieldsPool[--fieldsPoolSize];
+		fieldsPool[fieldsPoolSize] = null;
+		assert f != null;
+		return f;
+	}
+	
+	private final void releaseFields(final Fields f) {
+		if (!f.clear())
+			return;
+		if (fieldsPoolSize == fieldsPool.length)
+			fieldsPool = Arrays.copyOf(fieldsPool, fieldsPoolSize * 2);
+		fieldsPool[fieldsPoolSize++] = f;
+	}
+	
+	/**
+	 * @param ref The object's reference ID, or -1 if it has none
+	 * @param knownType Whether the object's type is known from the field's declaration and is thus not written
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked", "null", "unused"})
+	private final void writeGenericObject(final Object o, final int ref, final boolean knownType) throws IOException {
+		final Class<?> c = o.getClass();
+		assert c != null;
+		final ClassDescriptor d = yggdrasil.getDescriptor(c);
+		if (!d.serializable)
+			throw new NotSerializableException(c.getName());
+		final Fields fields;
+		boolean pooled = false, uninstantiable = false;
+		final YggdrasilSerializer s = d.serializer;
+		final FieldAccessor[] fs = d.fields;
+		final boolean layouts = writesClassLayouts();
+		final ObjectCodec codec = layouts ? d.fieldsCodec : d.codec;
+		if (codec != null) {
+			writeTag(T_OBJECT);
+			if (!knownType)
+				writeObjectType(d.getID());
+			final Class<?>[] knownTypes = layouts ? writeLayout(codec) : null;
+			writeFields(o, codec, layouts, knownTypes);
+			writeObjectEnd();
+			return;
+		}
+		if (s != null) {
+			fields = s.serialize(o);
+			if (fields == null)
+				throw new YggdrasilException("The serializer of " + c + " returned null");
+			if (ref >= 0 && !s.canBeInstantiated(c)) {
+				uninstantiable = true;
+				writtenObjects.put(o, ~ref); // ~ instead of - to also get a negative value if ref is 0
+			}
+		} else if (o instanceof YggdrasilExtendedSerializable) {
+			fields = ((YggdrasilExtendedSerializable) o).serialize();
+			if (fields == null)
+				throw new YggdrasilException("The serialize() method of " + c + " returned null");
+		} else if (fs != null) {
+			fields = borrowFields();
+			fields.set(o, fs);
+			pooled = true;
+		} else {
+			fields = new Fields(o, yggdrasil);
+		}
+		if (fields.size() > Short.MAX_VALUE)
+			throw new YggdrasilException("Class " + c.getCanonicalName() + " has too many fields (" + fields.size() + ")");
+		
+		writeTag(T_OBJECT);
+		if (!knownType)
+			writeObjectType(d.getID());
+		if (layouts)
+			writeLayoutID(NO_LAYOUT);
+		writeNumFields((short) fields.size());
+		for (final FieldContext f : fields) {
+			writeFieldID(f.id);
+			if (f.isPrimitive())
+				writePrimitive(f);
+			else
+				writeObject(f.getObject(), null);
+		}
+		writeObjectEnd();
+		if (pooled)
+			releaseFields(fields);
+		
+		if (uninstantiable)
+			writtenObjects.put(o, ref);
+	}
+	
+	// any Objects
+	
+	private int nextObjectID = 0;
+	private final IdentityIntMap writtenObjects = new IdentityIntMap();
+	
+	public final void writeObject(final @Nullable Object o) throws IOException {
+		if (o == null || !writesSharedReferencesOnly()) {
+			writeObject(o, null);
+			return;
+		}
+		try {
+			sharedObjects = scan(o);
+			writeObject(o, null);
+		} finally {
+			sharedObjects = null;
+			final IdentityIntMap scanned = this.scanned;
+			if (scanned != null)
+				scanned.clear(); // don't keep the written objects alive until the next call
+		}
+	}
+	
+	/**
+	 * @param knownType The type of the object if it is known from the declaration of the field the object is written for, see {@link #getKnownType(Class)}. If this is not
+	 *            null the object's type is not written.
+	 */
+	private final void writeObject(final @Nullable Object o, final @Nullable Class<?> knownType) throws IOException {
+		if (o == null) {
+			writeNull();
+			return;
+		}
+		final int written = sharedObjects == null ? writtenObjects.putIfAbsent(o, nextObjectID) : writtenObjects.get(o);
+		if (written != IdentityIntMap.NONE) {
+			if (written < 0)
+				throw new YggdrasilException("Uninstantiable object " + o + " is referenced in its fields' graph");
+			writeReference(written);
+			return;
+		}
+		final int ref;
+		if (sharedObjects == null) {
+			ref = nextObjectID++;
+		} else if (isShared(o)) {
+			writeTag(T_REFERENCE);
+			writeReferenceID(SHARED_OBJECT);
+			ref = nextObjectID++;
+			writtenObjects.put(o, ref);
+		} else {
+			ref = -1;
+		}
+		final Tag type = getType(o.getClass());
+		if (type.isWrapper()) {
+			writeWrappedPrimitive(o);
+			return;
+		}
+		switch (type) {
+			case T_ARRAY:
+				writeArray(o);
+				return;
+			case T_STRING:
+				writeString((String) o);
+				return;
+			case T_ENUM:
+				if (o instanceof Enum) {
+					assert knownType == null || ((Enum<?>) o).getDeclaringClass() == knownType : o + " is not of " + knownType;
+					writeEnum((Enum<?>) o, knownType != null);
+				} else {
+					assert knownType == null || ((PseudoEnum<?>) o).getDeclaringClass() == knownType : o + " is not of " + knownType;
+					writeEnum((PseudoEnum<?>) o, knownType != null);
+				}
+				return;
+			case T_CLASS:
+				writeClass((Class<?>) o);
+				return;
+			case T_OBJECT:
+				assert knownType == null || o.getClass() == knownType : o + " is not of " + knownType;
+				writeGenericObject(o, ref, knownType != null);
+				return;
+				//$CASES-OMITTED$
+			default:
+				throw new YggdrasilException("unhandled type " + type);
+		}
+	}
+	
+}
@@ -1,8 +1,8 @@
-/**
- * @author Peter Güttinger
- */
-@NonNullByDefault
-package ch.njol.yggdrasil.xml;
-
-import org.eclipse.jdt.annotation.NonNullByDefault;
-
+/**
+ * @author Peter Güttinger
+ */
+@NonNullByDefault
+package ch.njol.yggdrasil.xml;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
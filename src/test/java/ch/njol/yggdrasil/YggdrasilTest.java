@@ -1,421 +1,1376 @@
-package ch.njol.yggdrasil;
-
-import static org.junit.Assert.*;
-
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.NotSerializableException;
-import java.io.StreamCorruptedException;
-import java.lang.reflect.Array;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.regex.Pattern;
-
-import org.eclipse.jdt.annotation.Nullable;
-import org.junit.Test;
-
-import ch.njol.yggdrasil.YggdrasilSerializable.YggdrasilExtendedSerializable;
-
-@SuppressWarnings("resource")
-public class YggdrasilTest {
-	
-	static Yggdrasil y = new Yggdrasil();
-	static {
-		y.registerSingleClass(TestEnum.class);
-		y.registerSingleClass(PETest1.class);
-		y.registerSingleClass(PETest1.PETest2.class);
-		y.registerSingleClass(TestClass1.class);
-		y.registerSingleClass(TestClass2.class);
-	}
-	
-	@YggdrasilID("test-enum #!~/\r\n\t\\\"'<>&amp;,.:'`´¢⽰杻鱶")
-	private static enum TestEnum implements YggdrasilSerializable {
-		SOMETHING, SOMETHINGELSE;
-	}
-	
-	@YggdrasilID("PETest1")
-	private static class PETest1 extends PseudoEnum<PETest1> {
-		protected PETest1(final String name) {
-			super(name);
-		}
-		
-		public final static PETest1 PET1_0 = new PETest1("PET1_0 #!~/\r\n\t\\\"'<>&amp;,.:'`´¢⽰杻鱶");
-		
-		@YggdrasilID("PETest2")
-		public static class PETest2 extends PETest1 {
-			protected PETest2(final String name) {
-				super(name);
-			}
-			
-			public final static PETest2 PET2_0 = new PETest2("PET2_0");
-			
-			public final static PETest2 PET2_1 = new PETest2("PET2_1") {
-				@Override
-				public String toString() {
-					return "PET2_1!!!";
-				}
-			};
-			
-			public final static PETest1 PET1_1 = new PETest1("PET1_1");
-			
-		}
-		
-		public final static PETest2 PET2_2 = new PETest2("PET2_2");
-		
-		public final static PETest1 PET1_2 = new PETest1("PET1_2") {};
-		
-	}
-	
-	public final static PETest1 PET1_3 = new PETest1("PET1_3");
-	
-	@YggdrasilID("TestClass1")
-	private final static class TestClass1 implements YggdrasilSerializable {
-		@Nullable
-		private final String blah;
-		
-		private TestClass1() {
-			blah = "blah";
-		}
-		
-		public TestClass1(final String b) {
-			blah = b;
-		}
-		
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			final String blah = this.blah;
-			result = prime * result + ((blah == null) ? 0 : blah.hashCode());
-			return result;
-		}
-		
-		@Override
-		public boolean equals(final @Nullable Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null)
-				return false;
-			if (!(obj instanceof TestClass1))
-				return false;
-			final TestClass1 other = (TestClass1) obj;
-			final String blah = this.blah;
-			if (blah == null) {
-				if (other.blah != null)
-					return false;
-			} else if (!blah.equals(other.blah))
-				return false;
-			return true;
-		}
-		
-		@Override
-		public String toString() {
-			return "" + blah;
-		}
-	}
-	
-	@YggdrasilID("TestClass2")
-	private final static class TestClass2 implements YggdrasilExtendedSerializable {
-		private transient boolean ok = false;
-		private final static int DEFAULT = 5;
-		private final int someFinalInt;
-		
-		@SuppressWarnings("unused")
-		public TestClass2() {
-			someFinalInt = DEFAULT;
-		}
-		
-		TestClass2(final int what) {
-			assert what != DEFAULT;
-			someFinalInt = what;
-			ok = true;
-		}
-		
-		@Override
-		public Fields serialize() throws NotSerializableException {
-			return new Fields(this);
-		}
-		
-		@Override
-		public void deserialize(final Fields fields) throws StreamCorruptedException, NotSerializableException {
-			fields.setFields(this);
-			assert !ok;
-			if (someFinalInt != DEFAULT)
-				ok = true;
-			assert ok;
-		}
-		
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + (ok ? 1231 : 1237);
-			result = prime * result + someFinalInt;
-			return result;
-		}
-		
-		@Override
-		public boolean equals(final @Nullable Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null)
-				return false;
-			if (!(obj instanceof TestClass2))
-				return false;
-			final TestClass2 other = (TestClass2) obj;
-			if (ok != other.ok)
-				return false;
-			if (someFinalInt != other.someFinalInt)
-				return false;
-			return true;
-		}
-		
-		@Override
-		public String toString() {
-			return ok + "; " + someFinalInt;
-		}
-	}
-	
-	@SuppressWarnings("null")
-	private static byte[] save(final @Nullable Object o) throws IOException {
-		final ByteArrayOutputStream out = new ByteArrayOutputStream();
-		final YggdrasilOutputStream s = y.newOutputStream(out);
-		s.writeObject(o);
-		s.flush();
-		s.close();
-		return out.toByteArray();
-	}
-	
-//	@SuppressWarnings("null")
-//	private static String saveXML(final @Nullable Object o) throws IOException {
-//		final ByteArrayOutputStream out = new ByteArrayOutputStream();
-//		final YggXMLOutputStream s = y.newXMLOutputStream(out);
-//		s.writeObject(o);
-//		s.flush();
-//		s.close();
-//		return out.toString("utf-8");
-//	}
-	
-	@Nullable
-	private static Object load(final byte[] d) throws IOException {
-		final YggdrasilInputStream l = y.newInputStream(new ByteArrayInputStream(d));
-		return l.readObject();
-	}
-	
-//	@Nullable
-//	private static Object loadXML(final String xml) throws IOException {
-//		final YggdrasilInputStream l = y.newXMLInputStream(new ByteArrayInputStream(xml.getBytes("utf-8")));
-//		return l.readObject();
-//	}
-	
-	// random objects
-	/* private constructor is tested -> */@SuppressWarnings("synthetic-access")
-	final Object[] random = {
-			1, .5, true, 'a', "abc", "multi\nline\r\nstring\rwith\t\n\r\ttabs \u2001\nand\n\u00A0other\u2000\nwhitespace\0-\0", 2l, (byte) -1, (short) 124, Float.POSITIVE_INFINITY,
-			Byte.MIN_VALUE, Byte.MAX_VALUE, (byte) -1, Short.MIN_VALUE, Short.MAX_VALUE, (short) -1, Integer.MIN_VALUE, Integer.MAX_VALUE, -1, Long.MIN_VALUE, Long.MAX_VALUE, -1L,
-			Float.MIN_NORMAL, Float.MIN_VALUE, Float.NEGATIVE_INFINITY, -Float.MAX_VALUE, Double.MIN_NORMAL, Double.MIN_VALUE, Double.NEGATIVE_INFINITY, -Double.MAX_VALUE,
-			(byte) 0x12, (short) 0x1234, 0x12345678, 0x123456789abcdef0L, Float.intBitsToFloat(0x12345678), Double.longBitsToDouble(0x123456789abcdef0L),
-			
-			new double[] {0, 1, Double.MIN_NORMAL, Double.POSITIVE_INFINITY, Double.MAX_VALUE, -500, 0.123456, Double.NaN},
-			new float[] {.1f, 7f, 300}, new byte[] {0x12, 0x34, 0x56, 0x78, (byte) 0x9a, (byte) 0xbc, (byte) 0xde, (byte) 0xf0}, new long[][][] {{ {0}, {0, 5, 7}, null, {}}},
-			new Object[][] { {new int[] {0, 4}}, null, {new int[] {}, null, new int[] {-1, 300, 42}}, {}, new Integer[] {5, 7, null}, {null, null, new int[][] {null, {5, 7}, {}}}},
-			new ArrayList[][] { {new ArrayList<Integer>(Arrays.asList(1, 2, null, 9, 100)), null, null, new ArrayList<Object>(Arrays.asList())}, {null}, null, {}},
-			
-			Object.class, ArrayList.class,
-			new ArrayList<Integer>(Arrays.asList(1, 2, 3)), new HashSet<Integer>(Arrays.asList(1, 4, 3, 3, 2)),
-			new HashMap<Object, Object>(), new LinkedList<Integer>(Arrays.asList(4, 3, 2, 1)),
-			
-			TestEnum.SOMETHING, PETest1.PET1_0, PETest1.PETest2.PET1_1, PETest1.PET1_2, PET1_3, PETest1.PETest2.PET2_1, PETest1.PET2_2, PETest1.PETest2.PET2_0,
-			new TestClass1(), new TestClass1("foo"), new TestClass2(20)
-	};
-	
-//	private final static class CollectionTests {
-//		Collection<?> al = new ArrayList<>(Arrays.asList(1, 2, 3)),
-//				hs = new HashSet<>(Arrays.asList(1, 2, 3, 3, 4)),
-//				ll = new LinkedList<>(Arrays.asList(4, 3, 2, 1));
-//		Map<?, ?> hm = new HashMap<>();
-//	}
-	
-	@Test
-	public void generalTest() throws IOException {
-		System.out.println();
-		for (final Object o : random) {
-			final byte[] d = save(o);
-			print(o, d);
-			final Object l = load(d);
-			assert equals(o, l) : o.getClass().getName() + ": " + toString(o) + " <> " + toString(l);
-			final byte[] d2 = save(l);
-			assert equals(d, d2) : o.getClass().getName() + ": " + toString(o) + "\n" + toString(d) + " <>\n" + toString(d2);
-		}
-	}
-	
-//	@Test
-//	public void generalXMLTest() throws IOException {
-//		System.out.println();
-//		for (final Object o : random) {
-//			final String d = saveXML(o);
-//			System.out.println(o + ": " + d);
-//			System.out.println();
-//			final Object l = loadXML(d);
-//			assert equals(o, l) : toString(o) + " <> " + toString(l);
-//			final String d2 = saveXML(l);
-//			assert equals(d, d2) : toString(o) + "\n" + toString(d) + " <>\n" + toString(d2);
-//		}
-//	}
-	
-	@Test
-	public void keepReferencesTest() throws IOException {
-		System.out.println();
-		final Object ref = new Object();
-		final Map<Integer, Object> m = new HashMap<Integer, Object>();
-		m.put(1, ref);
-		m.put(2, new Object());
-		m.put(3, ref);
-		final byte[] md = save(m);
-		print(m, md);
-		@SuppressWarnings("unchecked")
-		final Map<Integer, Object> ms = (Map<Integer, Object>) load(md);
-		assert ms != null && ms.get(1) == ms.get(3) && ms.get(1) != ms.get(2) : ms;
-	}
-	
-	private final static class UnmodifiedClass implements YggdrasilSerializable {
-		final int unchanged;
-		
-		@SuppressWarnings("unused")
-		UnmodifiedClass() {
-			unchanged = -10;
-		}
-		
-		UnmodifiedClass(final int c) {
-			unchanged = c;
-		}
-	}
-	
-	private final static class ModifiedClass implements YggdrasilSerializable {
-		@YggdrasilID("unchanged")
-		final int changed;
-		
-		ModifiedClass() {
-			changed = -20;
-		}
-		
-		@SuppressWarnings("unused")
-		ModifiedClass(final int c) {
-			changed = c;
-		}
-	}
-	
-	final static String modifiedClassID = "something random";
-	static Class<?> currentModifiedClass = UnmodifiedClass.class;
-	static {
-		y.registerClassResolver(new ClassResolver() {
-			@Override
-			@Nullable
-			public String getID(final Class<?> c) {
-				if (c == currentModifiedClass)
-					return modifiedClassID;
-				return null;
-			}
-			
-			@Override
-			@Nullable
-			public Class<?> getClass(final String id) {
-				if (id.equals(modifiedClassID))
-					return currentModifiedClass;
-				return null;
-			}
-		});
-	}
-	
-	@Test
-	public void renameTest() throws IOException {
-		System.out.println();
-		currentModifiedClass = UnmodifiedClass.class;
-		final UnmodifiedClass o1 = new UnmodifiedClass(200);
-		final byte[] d1 = save(o1);
-		print(o1, d1);
-		currentModifiedClass = ModifiedClass.class;
-		final ModifiedClass o2 = (ModifiedClass) load(d1);
-		assert o2 != null;
-		assertEquals(o1.unchanged, o2.changed);
-		
-		currentModifiedClass = ModifiedClass.class;
-		final ModifiedClass o3 = new ModifiedClass();
-		final byte[] d3 = save(o3);
-		print(o3, d3);
-		currentModifiedClass = UnmodifiedClass.class;
-		final UnmodifiedClass o4 = (UnmodifiedClass) load(d3);
-		assert o4 != null;
-		assertEquals(o3.changed, o4.unchanged);
-	}
-	
-	private static boolean equals(final @Nullable Object o1, final @Nullable Object o2) {
-		if (o1 == null || o2 == null)
-			return o1 == o2;
-		if (o1.getClass() != o2.getClass())
-			return false;
-		if (o1.getClass().isArray()) {
-			final int l1 = Array.getLength(o1);
-			final int l2 = Array.getLength(o2);
-			if (l1 != l2)
-				return false;
-			for (int i = 0; i < l1; i++) {
-				if (!equals(Array.get(o1, i), Array.get(o2, i)))
-					return false;
-			}
-			return true;
-		} else if (o1 instanceof Collection) {
-			final Iterator<?> i1 = ((Collection<?>) o1).iterator(), i2 = ((Collection<?>) o2).iterator();
-			while (i1.hasNext()) {
-				if (!i2.hasNext())
-					return false;
-				if (!equals(i1.next(), i2.next()))
-					return false;
-			}
-			return !i1.hasNext();
-		} else {
-			return o1.equals(o2);
-		}
-	}
-	
-	private String toString(final @Nullable Object o) {
-		if (o == null)
-			return "null";
-		if (o.getClass().isArray()) {
-			final StringBuilder b = new StringBuilder("[");
-			b.append(o.getClass().getCanonicalName()).append("::");
-			final int l = Array.getLength(o);
-			for (int i = 0; i < l; i++) {
-				if (i != 0)
-					b.append(", ");
-				b.append(toString(Array.get(o, i)));
-			}
-			b.append("]");
-			return "" + b;
-		}
-		return "" + o;
-	}
-	
-	private final static void print(final @Nullable Object o, final byte[] d) {
-		System.out.print(o);
-		System.out.print(": ");
-		for (final byte b : d) {
-			if (Pattern.matches("[a-zA-Z.]", "" + ((char) b))) {
-				System.out.print((char) b);
-			} else {
-				final String h = Integer.toHexString(b & 0xFF);
-				System.out.print(" " + (h.length() == 1 ? "0" : "") + h + " ");
-			}
-		}
-		System.out.println();
-		System.out.println();
-	}
-	
-}
+package ch.njol.yggdrasil;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.Test;
+
+import ch.njol.yggdrasil.Fields.FieldContext;
+import ch.njol.yggdrasil.YggdrasilSerializable.YggdrasilExtendedSerializable;
+
+@SuppressWarnings("resource")
+public class YggdrasilTest {
+	
+	static Yggdrasil y = new Yggdrasil();
+	static {
+		y.registerSingleClass(TestEnum.class);
+		y.registerSingleClass(PETest1.class);
+		y.registerSingleClass(PETest1.PETest2.class);
+		y.registerSingleClass(TestClass1.class);
+		y.registerSingleClass(TestClass2.class);
+	}
+	
+	@YggdrasilID("test-enum #!~/\r\n\t\\\"'<>&amp;,.:'`´¢⽰杻鱶")
+	private static enum TestEnum implements YggdrasilSerializable {
+		SOMETHING, SOMETHINGELSE;
+	}
+	
+	@YggdrasilID("PETest1")
+	private static class PETest1 extends PseudoEnum<PETest1> {
+		protected PETest1(final String name) {
+			super(name);
+		}
+		
+		public final static PETest1 PET1_0 = new PETest1("PET1_0 #!~/\r\n\t\\\"'<>&amp;,.:'`´¢⽰杻鱶");
+		
+		@YggdrasilID("PETest2")
+		public static class PETest2 extends PETest1 {
+			protected PETest2(final String name) {
+				super(name);
+			}
+			
+			public final static PETest2 PET2_0 = new PETest2("PET2_0");
+			
+			public final static PETest2 PET2_1 = new PETest2("PET2_1") {
+				@Override
+				public String toString() {
+					return "PET2_1!!!";
+				}
+			};
+			
+			public final static PETest1 PET1_1 = new PETest1("PET1_1");
+			
+		}
+		
+		public final static PETest2 PET2_2 = new PETest2("PET2_2");
+		
+		public final static PETest1 PET1_2 = new PETest1("PET1_2") {};
+		
+	}
+	
+	public final static PETest1 PET1_3 = new PETest1("PET1_3");
+	
+	@YggdrasilID("TestClass1")
+	private final static class TestClass1 implements YggdrasilSerializable {
+		@Nullable
+		private final String blah;
+		
+		private TestClass1() {
+			blah = "blah";
+		}
+		
+		public TestClass1(final String b) {
+			blah = b;
+		}
+		
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			final String blah = this.blah;
+			result = prime * result + ((blah == null) ? 0 : blah.hashCode());
+			return result;
+		}
+		
+		@Override
+		public boolean equals(final @Nullable Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (!(obj instanceof TestClass1))
+				return false;
+			final TestClass1 other = (TestClass1) obj;
+			final String blah = this.blah;
+			if (blah == null) {
+				if (other.blah != null)
+					return false;
+			} else if (!blah.equals(other.blah))
+				return false;
+			return true;
+		}
+		
+		@Override
+		public String toString() {
+			return "" + blah;
+		}
+	}
+	
+	@YggdrasilID("TestClass2")
+	private final static class TestClass2 implements YggdrasilExtendedSerializable {
+		private transient boolean ok = false;
+		private final static int DEFAULT = 5;
+		private final int someFinalInt;
+		
+		@SuppressWarnings("unused")
+		public TestClass2() {
+			someFinalInt = DEFAULT;
+		}
+		
+		TestClass2(final int what) {
+			assert what != DEFAULT;
+			someFinalInt = what;
+			ok = true;
+		}
+		
+		@Override
+		public Fields serialize() throws NotSerializableException {
+			return new Fields(this);
+		}
+		
+		@Override
+		public void deserialize(final Fields fields) throws StreamCorruptedException, NotSerializableException {
+			fields.setFields(this);
+			assert !ok;
+			if (someFinalInt != DEFAULT)
+				ok = true;
+			assert ok;
+		}
+		
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + (ok ? 1231 : 1237);
+			result = prime * result + someFinalInt;
+			return result;
+		}
+		
+		@Override
+		public boolean equals(final @Nullable Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (!(obj instanceof TestClass2))
+				return false;
+			final TestClass2 other = (TestClass2) obj;
+			if (ok != other.ok)
+				return false;
+			if (someFinalInt != other.someFinalInt)
+				return false;
+			return true;
+		}
+		
+		@Override
+		public String toString() {
+			return ok + "; " + someFinalInt;
+		}
+	}
+	
+	@SuppressWarnings("null")
+	private static byte[] save(final @Nullable Object o) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final YggdrasilOutputStream s = y.newOutputStream(out);
+		s.writeObject(o);
+		s.flush();
+		s.close();
+		return out.toByteArray();
+	}
+	
+//	@SuppressWarnings("null")
+//	private static String saveXML(final @Nullable Object o) throws IOException {
+//		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+//		final YggXMLOutputStream s = y.newXMLOutputStream(out);
+//		s.writeObject(o);
+//		s.flush();
+//		s.close();
+//		return out.toString("utf-8");
+//	}
+	
+	@Nullable
+	private static Object load(final byte[] d) throws IOException {
+		final YggdrasilInputStream l = y.newInputStream(new ByteArrayInputStream(d));
+		return l.readObject();
+	}
+	
+//	@Nullable
+//	private static Object loadXML(final String xml) throws IOException {
+//		final YggdrasilInputStream l = y.newXMLInputStream(new ByteArrayInputStream(xml.getBytes("utf-8")));
+//		return l.readObject();
+//	}
+	
+	// random objects
+	/* private constructor is tested -> */@SuppressWarnings("synthetic-access")
+	final Object[] random = {
+			1, .5, true, 'a', "abc", "multi\nline\r\nstring\rwith\t\n\r\ttabs \u2001\nand\n\u00A0other\u2000\nwhitespace\0-\0", 2l, (byte) -1, (short) 124, Float.POSITIVE_INFINITY,
+			Byte.MIN_VALUE, Byte.MAX_VALUE, (byte) -1, Short.MIN_VALUE, Short.MAX_VALUE, (short) -1, Integer.MIN_VALUE, Integer.MAX_VALUE, -1, Long.MIN_VALUE, Long.MAX_VALUE, -1L,
+			Float.MIN_NORMAL, Float.MIN_VALUE, Float.NEGATIVE_INFINITY, -Float.MAX_VALUE, Double.MIN_NORMAL, Double.MIN_VALUE, Double.NEGATIVE_INFINITY, -Double.MAX_VALUE,
+			(byte) 0x12, (short) 0x1234, 0x12345678, 0x123456789abcdef0L, Float.intBitsToFloat(0x12345678), Double.longBitsToDouble(0x123456789abcdef0L),
+			
+			new double[] {0, 1, Double.MIN_NORMAL, Double.POSITIVE_INFINITY, Double.MAX_VALUE, -500, 0.123456, Double.NaN},
+			new float[] {.1f, 7f, 300}, new byte[] {0x12, 0x34, 0x56, 0x78, (byte) 0x9a, (byte) 0xbc, (byte) 0xde, (byte) 0xf0}, new long[][][] {{ {0}, {0, 5, 7}, null, {}}},
+			new Object[][] { {new int[] {0, 4}}, null, {new int[] {}, null, new int[] {-1, 300, 42}}, {}, new Integer[] {5, 7, null}, {null, null, new int[][] {null, {5, 7}, {}}}},
+			new ArrayList[][] { {new ArrayList<Integer>(Arrays.asList(1, 2, null, 9, 100)), null, null, new ArrayList<Object>(Arrays.asList())}, {null}, null, {}},
+			
+			Object.class, ArrayList.class,
+			new ArrayList<Integer>(Arrays.asList(1, 2, 3)), new HashSet<Integer>(Arrays.asList(1, 4, 3, 3, 2)),
+			new HashMap<Object, Object>(), new LinkedList<Integer>(Arrays.asList(4, 3, 2, 1)),
+			
+			TestEnum.SOMETHING, PETest1.PET1_0, PETest1.PETest2.PET1_1, PETest1.PET1_2, PET1_3, PETest1.PETest2.PET2_1, PETest1.PET2_2, PETest1.PETest2.PET2_0,
+			new TestClass1(), new TestClass1("foo"), new TestClass2(20),
+			
+			new short[] {Short.MIN_VALUE, -1, 0, 0x1234, Short.MAX_VALUE}, new char[] {'a', '\0', '\uFFFF', '\u2001'}, new boolean[] {true, false, false, true},
+			new int[] {Integer.MIN_VALUE, -1, 0, 0x12345678, Integer.MAX_VALUE}, new long[] {Long.MIN_VALUE, -1, 0, 0x123456789abcdef0L, Long.MAX_VALUE},
+			new float[] {Float.NaN, Float.NEGATIVE_INFINITY, -0f, Float.MIN_VALUE}
+	};
+	
+//	private final static class CollectionTests {
+//		Collection<?> al = new ArrayList<>(Arrays.asList(1, 2, 3)),
+//				hs = new HashSet<>(Arrays.asList(1, 2, 3, 3, 4)),
+//				ll = new LinkedList<>(Arrays.asList(4, 3, 2, 1));
+//		Map<?, ?> hm = new HashMap<>();
+//	}
+	
+	@Test
+	public void generalTest() throws IOException {
+		System.out.println();
+		for (final Object o : random) {
+			final byte[] d = save(o);
+			print(o, d);
+			final Object l = load(d);
+			assert equals(o, l) : o.getClass().getName() + ": " + toString(o) + " <> " + toString(l);
+			final byte[] d2 = save(l);
+			assert equals(d, d2) : o.getClass().getName() + ": " + toString(o) + "\n" + toString(d) + " <>\n" + toString(d2);
+		}
+	}
+	
+//	@Test
+//	public void generalXMLTest() throws IOException {
+//		System.out.println();
+//		for (final Object o : random) {
+//			final String d = saveXML(o);
+//			System.out.println(o + ": " + d);
+//			System.out.println();
+//			final Object l = loadXML(d);
+//			assert equals(o, l) : toString(o) + " <> " + toString(l);
+//			final String d2 = saveXML(l);
+//			assert equals(d, d2) : toString(o) + "\n" + toString(d) + " <>\n" + toString(d2);
+//		}
+//	}
+	
+	@Test
+	public void smallBufferTest() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final YggdrasilOutputStream s = y.newOutputStream(out, DefaultYggdrasilOutputStream.MIN_BUFFER_SIZE);
+		for (final Object o : random)
+			s.writeObject(o);
+		s.close();
+		final byte[] d = out.toByteArray();
+		final YggdrasilInputStream l = y.newInputStream(new ByteArrayInputStream(d), DefaultYggdrasilInputStream.MIN_BUFFER_SIZE);
+		for (final Object o : random) {
+			final Object r = l.readObject();
+			assert equals(o, r) : o.getClass().getName() + ": " + toString(o) + " <> " + toString(r);
+		}
+		l.close();
+		
+		final byte[] d2 = Arrays.copyOf(d, d.length + 1);
+		final YggdrasilInputStream l2 = y.newInputStream(new ByteArrayInputStream(d2));
+		for (int i = 0; i < random.length; i++)
+			l2.readObject();
+		try {
+			l2.close();
+			assert false : "trailing data not detected";
+		} catch (final StreamCorruptedException e) {}
+	}
+	
+	@Test
+	public void stringsTest() throws IOException {
+		final StringBuilder large = new StringBuilder();
+		for (int i = 0; i < 3000; i++)
+			large.append(i % 7 == 0 ? "\u00e4\u20ac\ud83d\ude00" : "ascii");
+		final String[] strings = {"", "ascii", "\u00e4\u00f6\u00fc", "\u20ac", "\ud83d\ude00", "unpaired \ud83d and \ude00", "" + large, large + "\ud83d"};
+		final Charset utf8 = Charset.forName("UTF-8");
+		for (final int bufferSize : new int[] {DefaultYggdrasilOutputStream.MIN_BUFFER_SIZE, DefaultYggdrasilOutputStream.DEFAULT_BUFFER_SIZE}) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final YggdrasilOutputStream s = y.newOutputStream(out, bufferSize);
+			for (final String str : strings)
+				s.writeObject(str);
+			s.close();
+			final YggdrasilInputStream l = y.newInputStream(new ByteArrayInputStream(out.toByteArray()), bufferSize);
+			for (final String str : strings) {
+				final String expected = new String(str.getBytes(utf8), utf8); // unpaired surrogates are replaced
+				final Object r = l.readObject();
+				assert expected.equals(r) : bufferSize + ": " + toString(str) + " <> " + toString(r);
+			}
+			l.close();
+		}
+	}
+	
+	@Test
+	public void channelsTest() throws IOException {
+		final List<Object> objects = new ArrayList<Object>(Arrays.asList(random));
+		objects.add(new int[] {1, 2, 3});
+		final byte[] d = saveAll(y, objects);
+		
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final YggdrasilOutputStream s = y.newOutputStream(Channels.newChannel(out), DefaultYggdrasilOutputStream.MIN_BUFFER_SIZE);
+		for (final Object o : objects)
+			s.writeObject(o);
+		s.close();
+		assert Arrays.equals(d, out.toByteArray());
+		
+		final ByteBuffer b = ByteBuffer.allocateDirect(d.length + 10).order(ByteOrder.LITTLE_ENDIAN);
+		b.position(5);
+		final YggdrasilOutputStream bs = y.newOutputStream(b);
+		for (final Object o : objects)
+			bs.writeObject(o);
+		bs.close();
+		assert b.position() == 5 + d.length && b.order() == ByteOrder.LITTLE_ENDIAN;
+		b.flip().position(5);
+		
+		final YggdrasilInputStream[] ins = {y.newInputStream(Channels.newChannel(new ByteArrayInputStream(d)), DefaultYggdrasilInputStream.MIN_BUFFER_SIZE),
+				y.newInputStream(Channels.newChannel(new ByteArrayInputStream(d))), y.newInputStream(b)};
+		for (final YggdrasilInputStream l : ins) {
+			for (final Object o : objects) {
+				final Object r = l.readObject();
+				assert equals(o, r) : o.getClass().getName() + ": " + toString(o) + " <> " + toString(r);
+			}
+			l.close();
+		}
+		assert !b.hasRemaining();
+		
+		final YggdrasilOutputStream small = y.newOutputStream(ByteBuffer.allocate(d.length - 1));
+		try {
+			for (final Object o : objects)
+				small.writeObject(o);
+			assert false : "buffer overflow not detected";
+		} catch (final BufferOverflowException e) {}
+		
+		final File f = File.createTempFile("yggdrasil", null);
+		try {
+			y.saveToFile(random, f);
+			assert equals(random, y.loadFromFile(f, Object[].class));
+		} finally {
+			f.delete();
+		}
+	}
+	
+	@Test
+	public void mappedFilesTest() throws IOException {
+		final List<Object> objects = new ArrayList<Object>(Arrays.asList(random));
+		final char[] cs = new char[300];
+		Arrays.fill(cs, '\u00e4');
+		objects.add(new String(cs));
+		final byte[] bytes = new byte[1000];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) i;
+		objects.add(bytes);
+		objects.add(new long[] {Long.MIN_VALUE, 1, Long.MAX_VALUE});
+		final byte[] d = saveAll(y, objects);
+		
+		final File f = File.createTempFile("yggdrasil", null);
+		try {
+			final FileOutputStream out = new FileOutputStream(f);
+			try {
+				out.write(d);
+			} finally {
+				out.close();
+			}
+			final FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+			try {
+				for (final long regionSize : new long[] {1, 7, 64, DefaultYggdrasilInputStream.MAX_REGION_SIZE}) {
+					final ByteBuffer[] regions = DefaultYggdrasilInputStream.map(channel, regionSize);
+					assert regions.length == (d.length + regionSize - 1) / regionSize : regionSize;
+					final YggdrasilInputStream l = new DefaultYggdrasilInputStream(y, regions);
+					for (final Object o : objects) {
+						final Object r = l.readObject();
+						assert equals(o, r) : regionSize + ", " + o.getClass().getName() + ": " + toString(o) + " <> " + toString(r);
+					}
+					l.close();
+				}
+				final ByteBuffer[] regions = DefaultYggdrasilInputStream.map(channel, 7);
+				final YggdrasilInputStream l = new DefaultYggdrasilInputStream(y, regions);
+				l.readObject();
+				try {
+					l.close();
+					assert false : "remaining data not detected";
+				} catch (final StreamCorruptedException e) {}
+			} finally {
+				channel.close();
+			}
+			
+			y.saveToFile(random, f);
+			final Yggdrasil ym = newYggdrasil(Yggdrasil.LATEST_VERSION);
+			ym.setUseMemoryMappedFiles(true);
+			assert equals(random, ym.loadFromFile(f, Object[].class));
+		} finally {
+			f.delete();
+		}
+	}
+	
+	@YggdrasilID("PrimitivesClass")
+	private final static class PrimitivesClass implements YggdrasilSerializable {
+		boolean z = true;
+		byte b = -1;
+		short s = Short.MIN_VALUE;
+		char c = '\u20ac';
+		int i = 1 << 20;
+		long l = Long.MAX_VALUE;
+		float f = Float.NaN;
+		double d = -0.5;
+		@Nullable
+		Object o = "primitives";
+		
+		PrimitivesClass() {}
+		
+		@Override
+		public int hashCode() {
+			return i;
+		}
+		
+		@Override
+		public boolean equals(final @Nullable Object obj) {
+			if (!(obj instanceof PrimitivesClass))
+				return false;
+			final PrimitivesClass other = (PrimitivesClass) obj;
+			return z == other.z && b == other.b && s == other.s && c == other.c && i == other.i && l == other.l
+					&& Float.compare(f, other.f) == 0 && Double.compare(d, other.d) == 0 && YggdrasilTest.equals(o, other.o);
+		}
+	}
+	
+	static {
+		y.registerSingleClass(PrimitivesClass.class);
+	}
+	
+	@Test
+	public void objectCodecTest() throws IOException {
+		final PrimitivesClass p = new PrimitivesClass();
+		p.o = p;
+		final List<Object> objects = new ArrayList<Object>(Arrays.asList(random));
+		objects.add(new PrimitivesClass());
+		objects.add(p);
+		objects.add(new Object[] {p, new PrimitivesClass(), p});
+		for (final Object o : objects) {
+			final byte[] d = save(o);
+			final byte[] dc;
+			final Object l, lc;
+			y.setUseObjectCodecs(true);
+			try {
+				l = load(d);
+				dc = save(o);
+				lc = load(dc);
+			} finally {
+				y.setUseObjectCodecs(false);
+			}
+			final Object ld = load(dc);
+			if (o == p) {
+				assert l instanceof PrimitivesClass && ((PrimitivesClass) l).o == l;
+				assert lc instanceof PrimitivesClass && ((PrimitivesClass) lc).o == lc;
+				assert ld instanceof PrimitivesClass && ((PrimitivesClass) ld).o == ld;
+				continue;
+			}
+			if (o instanceof Object[] && ((Object[]) o)[0] == p) {
+				for (final Object a : new Object[] {l, lc, ld}) {
+					final Object[] array = (Object[]) a;
+					assert array[0] == array[2] && array[0] != array[1] && ((PrimitivesClass) array[0]).o == array[0];
+				}
+				continue;
+			}
+			assert equals(o, l) : o.getClass().getName() + ": " + toString(o) + " <> " + toString(l);
+			assert equals(o, lc) : o.getClass().getName() + ": " + toString(o) + " <> " + toString(lc);
+			assert equals(o, ld) : o.getClass().getName() + ": " + toString(o) + " <> " + toString(ld);
+		}
+	}
+	
+	private static class RuntimeCodecBase implements YggdrasilSerializable {
+		protected int inherited = 3;
+		@Nullable
+		private String baseSecret = "base";
+		@YggdrasilID("baseShadowed")
+		int shadowed = 2;
+		
+		RuntimeCodecBase() {}
+	}
+	
+	@YggdrasilID("RuntimeCodecClass")
+	private final static class RuntimeCodecClass extends RuntimeCodecBase implements YggdrasilSerializable {
+		private long secret = 1L << 40;
+		final char constant = 'k';
+		@Nullable
+		Object ref = "ref";
+		@Nullable
+		int[] array = {1, 2};
+		@Nullable
+		RuntimeCodecBase base = null;
+		boolean z = false;
+		float f = 0.5f;
+		int shadowed = 3;
+		
+		private RuntimeCodecClass() {}
+		
+		RuntimeCodecClass(final int i) {
+			inherited = i;
+			secret = -i;
+			ref = "ref" + i;
+			array = new int[] {i};
+			z = true;
+			f = i;
+			((RuntimeCodecBase) this).shadowed = 2 * i;
+			shadowed = 3 * i;
+		}
+		
+		@Override
+		public int hashCode() {
+			return inherited;
+		}
+		
+		@Override
+		public boolean equals(final @Nullable Object obj) {
+			if (!(obj instanceof RuntimeCodecClass))
+				return false;
+			final RuntimeCodecClass other = (RuntimeCodecClass) obj;
+			return inherited == other.inherited && YggdrasilTest.equals(((RuntimeCodecBase) this).baseSecret, ((RuntimeCodecBase) other).baseSecret) && secret == other.secret
+					&& constant == other.constant && YggdrasilTest.equals(ref, other.ref) && Arrays.equals(array, other.array) && (base == null) == (other.base == null)
+					&& z == other.z && f == other.f && ((RuntimeCodecBase) this).shadowed == ((RuntimeCodecBase) other).shadowed && shadowed == other.shadowed;
+		}
+	}
+	
+	@Test
+	public void runtimeCodecTest() throws IOException {
+		final YggdrasilCodec<?> codec = CodecGenerator.getCodec(RuntimeCodecClass.class);
+		assert codec != null : "no codec generated";
+		assert codec.newInstance() instanceof RuntimeCodecClass;
+		
+		final Yggdrasil plain = new Yggdrasil(), codecs = new Yggdrasil();
+		for (final Yggdrasil y : new Yggdrasil[] {plain, codecs}) {
+			y.registerSingleClass(RuntimeCodecClass.class);
+			y.registerSingleClass(RuntimeCodecBase.class, "RuntimeCodecBase");
+		}
+		codecs.setUseObjectCodecs(true);
+		final RuntimeCodecClass o = new RuntimeCodecClass(-7);
+		o.base = new RuntimeCodecBase();
+		final List<Object> objects = Arrays.<Object> asList(o, new RuntimeCodecClass(), new RuntimeCodecClass[] {o, o});
+		final byte[] d = saveAll(plain, objects), dc = saveAll(codecs, objects);
+		for (final Yggdrasil y : new Yggdrasil[] {plain, codecs}) {
+			for (final byte[] data : new byte[][] {d, dc}) {
+				final YggdrasilInputStream l = y.newInputStream(new ByteArrayInputStream(data));
+				assert o.equals(l.readObject());
+				assert new RuntimeCodecClass().equals(l.readObject());
+				final RuntimeCodecClass[] array = (RuntimeCodecClass[]) l.readObject();
+				assert array[0] == array[1] && o.equals(array[0]);
+				l.close();
+			}
+		}
+	}
+	
+	static class ChildLoaderClass implements YggdrasilSerializable {
+		int i = 1;
+		@Nullable
+		String s = "s";
+		
+		ChildLoaderClass() {}
+		
+		@Override
+		public int hashCode() {
+			return i;
+		}
+		
+		@Override
+		public boolean equals(final @Nullable Object obj) {
+			if (!(obj instanceof ChildLoaderClass))
+				return false;
+			final ChildLoaderClass other = (ChildLoaderClass) obj;
+			final String s = this.s;
+			return i == other.i && (s == null ? other.s == null : s.equals(other.s)); // YggdrasilTest's methods are not accessible from another class loader
+		}
+	}
+	
+	/**
+	 * Loads {@link ChildLoaderClass} with another class loader than Yggdrasil, like classes of plugins, so that it is in another module.
+	 */
+	@Test
+	public void childLoaderCodecTest() throws Exception {
+		final String name = ChildLoaderClass.class.getName();
+		final URLClassLoader loader = new URLClassLoader(new URL[] {ChildLoaderClass.class.getProtectionDomain().getCodeSource().getLocation()}, YggdrasilTest.class.getClassLoader()) {
+			@Override
+			protected Class<?> loadClass(final @Nullable String n, final boolean resolve) throws ClassNotFoundException {
+				if (!name.equals(n))
+					return super.loadClass(n, resolve);
+				synchronized (getClassLoadingLock(n)) {
+					final Class<?> c = findLoadedClass(n);
+					return c != null ? c : findClass(n);
+				}
+			}
+		};
+		try {
+			final Class<?> c = loader.loadClass(name);
+			assert c.getClassLoader() == loader;
+			final YggdrasilCodec<?> codec = CodecGenerator.getCodec(c);
+			assert codec != null : "no codec generated";
+			assert c.isInstance(codec.newInstance());
+			
+			final Constructor<?> constructor = c.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			final Object o = constructor.newInstance();
+			final Field f = c.getDeclaredField("i");
+			f.setAccessible(true);
+			f.setInt(o, 42);
+			final Yggdrasil plain = new Yggdrasil(), codecs = new Yggdrasil();
+			for (final Yggdrasil y : new Yggdrasil[] {plain, codecs})
+				y.registerSingleClass(c, "ChildLoaderClass");
+			codecs.setUseObjectCodecs(true);
+			final List<Object> objects = Arrays.<Object> asList(o, constructor.newInstance());
+			final byte[] d = saveAll(plain, objects), dc = saveAll(codecs, objects);
+			assert Arrays.equals(d, dc);
+			assertEquals(objects, loadAll(codecs, d, objects.size()));
+		} finally {
+			loader.close();
+		}
+	}
+	
+	@Test
+	public void versionTest() throws IOException {
+		final List<Object> objects = new ArrayList<Object>(Arrays.asList(random));
+		objects.add(new PrimitivesClass());
+		
+		final Yggdrasil y1 = newYggdrasil((short) 1), y2 = newYggdrasil(Yggdrasil.LATEST_VERSION), yv = newYggdrasil(Yggdrasil.LATEST_VERSION);
+		yv.setUseVarInts(true);
+		assertLoaded(objects, loadAll(y2, saveAll(y1, objects), objects.size()));
+		assertLoaded(objects, saveSmallerAndLoad(y1, y2, objects));
+		assertLoaded(objects, saveSmallerAndLoad(y2, yv, objects));
+	}
+	
+	@Test
+	public void varIntOverflowTest() throws IOException {
+		final Yggdrasil vy = new Yggdrasil();
+		vy.setUseVarInts(true);
+		// zigzag-encoded, the minimum values have all bits set, i.e. the last byte of the varint has its highest valid bits set
+		final byte[] di = saveAll(vy, Arrays.<Object>asList(Integer.MIN_VALUE)), dl = saveAll(vy, Arrays.<Object>asList(Long.MIN_VALUE));
+		assertEquals(0x0F, di[di.length - 1]);
+		assertEquals(0x01, dl[dl.length - 1]);
+		assertEquals(Integer.MIN_VALUE, vy.newInputStream(new ByteArrayInputStream(di)).readObject());
+		assertEquals(Long.MIN_VALUE, vy.newInputStream(new ByteArrayInputStream(dl)).readObject());
+		for (final byte invalid : new byte[] {0x1F, (byte) 0x8F}) {
+			di[di.length - 1] = invalid;
+			try {
+				vy.newInputStream(new ByteArrayInputStream(di)).readObject();
+				assert false : "overlong int accepted";
+			} catch (final StreamCorruptedException e) {}
+		}
+		for (final byte invalid : new byte[] {0x03, (byte) 0x81}) {
+			dl[dl.length - 1] = invalid;
+			try {
+				vy.newInputStream(new ByteArrayInputStream(dl)).readObject();
+				assert false : "overlong long accepted";
+			} catch (final StreamCorruptedException e) {}
+		}
+	}
+	
+	@Test
+	public void classLayoutTest() throws IOException {
+		final List<Object> objects = new ArrayList<Object>(Arrays.asList(random));
+		for (int i = 0; i < 20; i++) {
+			final PrimitivesClass p = new PrimitivesClass();
+			p.i = i;
+			p.o = i % 2 == 0 ? null : new TestClass1("" + i);
+			objects.add(p);
+		}
+		final Yggdrasil yl = newYggdrasil(Yggdrasil.LATEST_VERSION);
+		yl.setUseClassLayouts(true);
+		assertLoaded(objects, saveSmallerAndLoad(newYggdrasil(Yggdrasil.LATEST_VERSION), yl, objects));
+		
+		currentModifiedClass = UnmodifiedClass.class;
+		yl.invalidateCaches();
+		final byte[] d1 = saveAll(yl, Arrays.<Object>asList(new UnmodifiedClass(1), new UnmodifiedClass(2)));
+		currentModifiedClass = ModifiedClass.class;
+		yl.invalidateCaches();
+		final YggdrasilInputStream l1 = yl.newInputStream(new ByteArrayInputStream(d1));
+		assertEquals(1, ((ModifiedClass) l1.readObject()).changed);
+		assertEquals(2, ((ModifiedClass) l1.readObject()).changed);
+		l1.close();
+	}
+	
+	@YggdrasilID("KnownTypesClass")
+	private final static class KnownTypesClass implements YggdrasilSerializable {
+		@Nullable
+		TestClass1 t1, t2;
+		@Nullable
+		TestEnum e;
+		@Nullable
+		Object o;
+		
+		KnownTypesClass() {}
+		
+		KnownTypesClass(final int i) {
+			t1 = new TestClass1("" + i);
+			t2 = i % 3 == 0 ? null : i % 3 == 1 ? t1 : new TestClass1("t2");
+			e = i % 2 == 0 ? TestEnum.SOMETHING : TestEnum.SOMETHINGELSE;
+			o = i % 2 == 0 ? e : t1;
+		}
+	}
+	
+	static {
+		y.registerSingleClass(KnownTypesClass.class);
+	}
+	
+	@Test
+	public void declaredFieldTypesTest() throws IOException {
+		final List<Object> objects = new ArrayList<Object>();
+		for (int i = 0; i < 20; i++)
+			objects.add(new KnownTypesClass(i));
+		objects.add(new KnownTypesClass());
+		final Yggdrasil yl = newYggdrasil(Yggdrasil.LATEST_VERSION), yt = newYggdrasil(Yggdrasil.LATEST_VERSION);
+		yl.setUseClassLayouts(true);
+		yt.setUseClassLayouts(true);
+		yt.setUseDeclaredFieldTypes(true);
+		final List<Object> loaded = saveSmallerAndLoad(yl, yt, objects);
+		for (int i = 0; i < objects.size(); i++) {
+			final KnownTypesClass k = (KnownTypesClass) objects.get(i), r = (KnownTypesClass) loaded.get(i);
+			assert r != null;
+			assert equals(k.t1, r.t1) && equals(k.t2, r.t2) && k.e == r.e && equals(k.o, r.o) : toString(k) + " <> " + toString(r);
+			assert (k.t1 == k.t2) == (r.t1 == r.t2) && (k.t1 == k.o) == (r.t1 == r.o);
+		}
+	}
+	
+	@Test
+	public void packedArraysTest() throws IOException {
+		final String shared = "shared";
+		final TestClass1 t = new TestClass1("t");
+		final List<Object> objects = new ArrayList<Object>(Arrays.asList(random));
+		objects.add(shared);
+		objects.add(new String[] {"a", null, shared, "b", "a", shared, "c", "d", "e", null, "f", shared});
+		objects.add(new Integer[] {1, null, 1000, -5, Integer.MIN_VALUE});
+		objects.add(new TestEnum[] {TestEnum.SOMETHING, null, TestEnum.SOMETHINGELSE, TestEnum.SOMETHING});
+		objects.add(new TestClass1[] {t, null, new TestClass1("u"), t});
+		objects.add(new PETest1[] {PETest1.PET1_0, PETest1.PETest2.PET2_0});
+		final Yggdrasil yp = newYggdrasil(Yggdrasil.LATEST_VERSION);
+		yp.setUsePackedArrays(true);
+		final List<Object> loaded = saveSmallerAndLoad(newYggdrasil(Yggdrasil.LATEST_VERSION), yp, objects);
+		assertLoaded(objects, loaded);
+		for (int i = 0; i < objects.size(); i++) {
+			final Object o = objects.get(i), r = loaded.get(i);
+			if (o instanceof String[]) {
+				final String[] a = (String[]) r;
+				assert a != null && a[2] == a[5] && a[5] == a[11] && a[0] == a[4];
+			} else if (o instanceof TestClass1[]) {
+				final TestClass1[] a = (TestClass1[]) r;
+				assert a != null && a[0] == a[3] && a[0] != a[2];
+			}
+		}
+	}
+	
+	@Test
+	public void sharedReferencesTest() throws IOException {
+		final Object ref = new Object();
+		final Map<Integer, Object> m = new HashMap<Integer, Object>();
+		m.put(1, ref);
+		m.put(2, new Object());
+		m.put(3, ref);
+		final Object[] cycle = new Object[] {null, "cycle", ref};
+		cycle[0] = cycle;
+		final TestClass1 t = new TestClass1("t");
+		final List<Object> objects = new ArrayList<Object>(Arrays.asList(random));
+		objects.add(m);
+		objects.add(cycle);
+		objects.add(new TestClass1[] {t, null, new TestClass1("u"), t});
+		objects.add(new String[] {"a", "a", "b"});
+		objects.add(t);
+		objects.add(new KnownTypesClass(1));
+		final Yggdrasil ys = newYggdrasil(Yggdrasil.LATEST_VERSION);
+		ys.setUseSharedReferencesOnly(true);
+		ys.setUsePackedArrays(true);
+		ys.setUseClassLayouts(true);
+		ys.setUseDeclaredFieldTypes(true);
+		final List<Object> loaded = loadAll(ys, saveAll(ys, objects), objects.size());
+		for (int i = 0; i < objects.size(); i++) {
+			final Object o = objects.get(i), r = loaded.get(i);
+			if (o == m) {
+				@SuppressWarnings("unchecked")
+				final Map<Integer, Object> ms = (Map<Integer, Object>) r;
+				assert ms != null && ms.get(1) == ms.get(3) && ms.get(1) != ms.get(2) : ms;
+			} else if (o == cycle) {
+				final Object[] a = (Object[]) r;
+				assert a != null && a[0] == a && "cycle".equals(a[1]) && a[2] != null : toString(a);
+			} else if (o instanceof TestClass1[]) {
+				final TestClass1[] a = (TestClass1[]) r;
+				assert a != null && a[0] == a[3] && a[0] != a[2] && equals(o, a);
+			} else if (o instanceof String[]) {
+				final String[] a = (String[]) r;
+				assert a != null && a[0] == a[1] && equals(o, a);
+			} else if (o instanceof KnownTypesClass) {
+				final KnownTypesClass k = (KnownTypesClass) r;
+				assert k != null && k.t1 == k.t2 && k.t1 == k.o && equals(((KnownTypesClass) o).t1, k.t1);
+			} else {
+				assert equals(o, r) : o.getClass().getName() + ": " + toString(o) + " <> " + toString(r);
+			}
+		}
+	}
+	
+	@Test
+	public void identityIntMapTest() {
+		final IdentityIntMap m = new IdentityIntMap();
+		final Object[] keys = new Object[10000];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = i % 2 == 0 ? new Object() : new String("" + i % 100); // equal, but not identical keys
+			assert m.putIfAbsent(keys[i], i) == IdentityIntMap.NONE;
+		}
+		assert m.size() == keys.length;
+		for (int i = 0; i < keys.length; i++) {
+			assert m.get(keys[i]) == i;
+			assert m.putIfAbsent(keys[i], -1) == i;
+		}
+		m.put(keys[5], ~5);
+		assert m.get(keys[5]) == ~5 && m.size() == keys.length;
+		assert !m.containsKey(new Object()) && !m.containsKey("" + 5);
+		m.clear();
+		assert m.isEmpty() && m.get(keys[0]) == IdentityIntMap.NONE;
+		m.put(keys[1], 1);
+		assert m.get(keys[1]) == 1 && m.size() == 1;
+	}
+	
+	/**
+	 * Creates a new Yggdrasil instance with all test classes registered, for tests that change its settings.
+	 */
+	private static Yggdrasil newYggdrasil(final short version) {
+		final Yggdrasil y = new Yggdrasil(version);
+		y.registerSingleClass(TestEnum.class);
+		y.registerSingleClass(PETest1.class);
+		y.registerSingleClass(PETest1.PETest2.class);
+		y.registerSingleClass(TestClass1.class);
+		y.registerSingleClass(TestClass2.class);
+		y.registerSingleClass(PrimitivesClass.class);
+		y.registerSingleClass(KnownTypesClass.class);
+		y.registerClassResolver(modifiedClassResolver);
+		return y;
+	}
+	
+	/**
+	 * Saves the given objects with both Yggdrasil instances, checks that the configured one writes less data, and reads the objects back from its data.
+	 */
+	private static List<Object> saveSmallerAndLoad(final Yggdrasil reference, final Yggdrasil configured, final List<Object> objects) throws IOException {
+		final byte[] d = saveAll(reference, objects), dc = saveAll(configured, objects);
+		assert dc.length < d.length : d.length + ", " + dc.length;
+		return loadAll(configured, dc, objects.size());
+	}
+	
+	private static List<Object> loadAll(final Yggdrasil y, final byte[] d, final int numObjects) throws IOException {
+		final List<Object> objects = new ArrayList<Object>(numObjects);
+		final YggdrasilInputStream l = y.newInputStream(new ByteArrayInputStream(d));
+		for (int i = 0; i < numObjects; i++)
+			objects.add(l.readObject());
+		l.close();
+		return objects;
+	}
+	
+	private void assertLoaded(final List<Object> objects, final List<Object> loaded) {
+		assertEquals(objects.size(), loaded.size());
+		for (int i = 0; i < objects.size(); i++) {
+			final Object o = objects.get(i), r = loaded.get(i);
+			assert equals(o, r) : o.getClass().getName() + ": " + toString(o) + " <> " + toString(r);
+		}
+	}
+	
+	private static byte[] saveAll(final Yggdrasil y, final List<Object> objects) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final YggdrasilOutputStream s = y.newOutputStream(out);
+		for (final Object o : objects)
+			s.writeObject(o);
+		s.close();
+		final byte[] d = out.toByteArray();
+		assert d != null;
+		return d;
+	}
+	
+	@YggdrasilID("CodecTestClass")
+	static class CodecTestClass implements YggdrasilSerializable {
+		int i = 1;
+		@Nullable
+		String s = "s";
+		@YggdrasilID("d2")
+		double d = 2;
+	}
+	
+	/**
+	 * What the annotation processor generates for {@link CodecTestClass}
+	 */
+	public final static class CodecTestClass_YggdrasilCodec extends YggdrasilCodec<CodecTestClass> {
+		static int instances = 0;
+		
+		public CodecTestClass_YggdrasilCodec() {
+			super(CodecTestClass.class, "CodecTestClass",
+					new String[] {"i", "s", "d"},
+					new String[] {"i", "s", "d2"},
+					new Class<?>[] {int.class, String.class, double.class});
+		}
+		
+		@Override
+		public CodecTestClass newInstance() {
+			instances++;
+			return new CodecTestClass();
+		}
+		
+		@Override
+		@Nullable
+		public Object get(final CodecTestClass o, final int field) {
+			switch (field) {
+				case 1:
+					return o.s;
+				default:
+					return super.get(o, field);
+			}
+		}
+		
+		@Override
+		public void set(final CodecTestClass o, final int field, final @Nullable Object value) {
+			switch (field) {
+				case 1:
+					o.s = (String) value;
+					return;
+				default:
+					super.set(o, field, value);
+			}
+		}
+		
+		@Override
+		public int getInt(final CodecTestClass o, final int field) {
+			switch (field) {
+				case 0:
+					return o.i;
+				default:
+					return super.getInt(o, field);
+			}
+		}
+		
+		@Override
+		public void setInt(final CodecTestClass o, final int field, final int value) {
+			switch (field) {
+				case 0:
+					o.i = value;
+					return;
+				default:
+					super.setInt(o, field, value);
+			}
+		}
+		
+		@Override
+		public double getDouble(final CodecTestClass o, final int field) {
+			switch (field) {
+				case 2:
+					return o.d;
+				default:
+					return super.getDouble(o, field);
+			}
+		}
+		
+		@Override
+		public void setDouble(final CodecTestClass o, final int field, final double value) {
+			switch (field) {
+				case 2:
+					o.d = value;
+					return;
+				default:
+					super.setDouble(o, field, value);
+			}
+		}
+	}
+	
+	static {
+		y.registerSingleClass(CodecTestClass.class);
+	}
+	
+	@Test
+	public void generatedCodecTest() throws IOException {
+		final CodecTestClass o = new CodecTestClass();
+		o.i = -5;
+		o.s = "codec";
+		o.d = Double.NEGATIVE_INFINITY;
+		final int instances = CodecTestClass_YggdrasilCodec.instances;
+		final byte[] d = save(new Object[] {o, o});
+		print(o, d);
+		final Object[] l = (Object[]) load(d);
+		assert l != null && l[0] == l[1];
+		final CodecTestClass c = (CodecTestClass) l[0];
+		assertEquals(o.i, c.i);
+		assertEquals(o.s, c.s);
+		assertEquals(o.d, c.d, 0);
+		assertEquals(instances + 1, CodecTestClass_YggdrasilCodec.instances);
+	}
+	
+	@YggdrasilID("TypedFieldsClass")
+	private final static class TypedFieldsClass implements YggdrasilExtendedSerializable {
+		int i = 7;
+		long l = -1L << 40;
+		double d = Double.MIN_VALUE;
+		char c = 'c';
+		boolean b = true;
+		
+		TypedFieldsClass() {}
+		
+		@Override
+		public Fields serialize() throws NotSerializableException {
+			final Fields f = new Fields();
+			f.putInt("i", i);
+			f.putLong("l", l);
+			f.putDouble("d", d);
+			f.putChar("c", c);
+			f.putBoolean("b", b);
+			return f;
+		}
+		
+		@Override
+		public void deserialize(final Fields fields) throws StreamCorruptedException, NotSerializableException {
+			i = fields.getInt("i");
+			l = fields.getLong("l");
+			d = fields.getDouble("d");
+			c = fields.getChar("c");
+			b = fields.getBoolean("b");
+			assertEquals(Integer.valueOf(i), fields.getPrimitive("i", Integer.class));
+			try {
+				fields.getLong("i");
+				assert false : "int read as long";
+			} catch (final StreamCorruptedException e) {}
+		}
+	}
+	
+	static {
+		y.registerSingleClass(TypedFieldsClass.class);
+	}
+	
+	@Test
+	public void typedFieldsTest() throws IOException {
+		final TypedFieldsClass o = new TypedFieldsClass();
+		o.i = Integer.MIN_VALUE;
+		o.l = Long.MAX_VALUE;
+		o.d = Double.NaN;
+		o.c = '\uffff';
+		o.b = false;
+		final byte[] d = save(o);
+		print(o, d);
+		final TypedFieldsClass l = (TypedFieldsClass) load(d);
+		assert l != null;
+		assertEquals(o.i, l.i);
+		assertEquals(o.l, l.l);
+		assertEquals(o.d, l.d, 0);
+		assertEquals(o.c, l.c);
+		assertEquals(o.b, l.b);
+		
+		final Fields f = new Fields();
+		f.putPrimitive("x", (short) 3);
+		assertEquals(3, f.getShort("x"));
+		f.putFloat("x", -0f);
+		assertEquals(Float.valueOf(-0f), f.getPrimitive("x"));
+	}
+	
+	@Test
+	public void fieldsTest() throws StreamCorruptedException {
+		final Fields f = new Fields();
+		for (int i = 0; i < 20; i++)
+			f.putInt("f" + i, i);
+		f.putInt("f5", -5);
+		assertEquals(20, f.size());
+		assert f.removeField("f3") && !f.removeField("f3") && !f.contains("f3");
+		assertEquals(-5, f.getInt("f5"));
+		assertEquals(19, f.getInt("f19"));
+		int expected = 0;
+		for (final Iterator<FieldContext> iter = f.iterator(); iter.hasNext();) {
+			final FieldContext c = iter.next();
+			if (expected == 3)
+				expected++;
+			assertEquals("f" + expected++, c.getID());
+			if (c.getID().equals("f10"))
+				iter.remove();
+		}
+		assertEquals(18, f.size());
+		assert !f.contains("f10") && f.contains("f11");
+	}
+	
+	@Test
+	public void concurrentTest() throws Exception {
+		final Yggdrasil fy = new Yggdrasil();
+		fy.registerSingleClass(TestEnum.class);
+		fy.registerSingleClass(PETest1.class);
+		fy.registerSingleClass(PETest1.PETest2.class);
+		fy.registerSingleClass(TestClass1.class);
+		fy.registerSingleClass(TestClass2.class);
+		fy.freeze();
+		try {
+			fy.registerSingleClass(PrimitivesClass.class);
+			assert false : "frozen Yggdrasil was modified";
+		} catch (final YggdrasilException e) {}
+		
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		final Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 20; i++) {
+							final ByteArrayOutputStream out = new ByteArrayOutputStream();
+							final YggdrasilOutputStream s = fy.newOutputStream(out);
+							for (final Object o : random)
+								s.writeObject(o);
+							s.close();
+							final YggdrasilInputStream l = fy.newInputStream(new ByteArrayInputStream(out.toByteArray()));
+							for (final Object o : random) {
+								final Object r = l.readObject();
+								assert YggdrasilTest.equals(o, r) : YggdrasilTest.this.toString(o) + " <> " + YggdrasilTest.this.toString(r);
+							}
+							l.close();
+						}
+					} catch (final Throwable e) {
+						errors.add(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (final Thread t : threads)
+			t.join();
+		assert errors.isEmpty() : errors;
+	}
+	
+	private static class PETest3 extends PseudoEnum<PETest3> {
+		PETest3(final String name) {
+			super(name);
+		}
+		
+		final static PETest3 FIRST = new PETest3("first");
+	}
+	
+	@Test
+	public void pseudoEnumConcurrencyTest() throws Exception {
+		final int numConstants = 2000;
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		final Thread writer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 1; i < numConstants; i++)
+						new PETest3("c" + i);
+				} catch (final Throwable e) {
+					errors.add(e);
+				}
+			}
+		};
+		final Thread[] readers = new Thread[4];
+		for (int t = 0; t < readers.length; t++) {
+			readers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						int last = 1;
+						while (last < numConstants) {
+							final int n = PETest3.FIRST.numConstants();
+							assert n >= last : n + " < " + last;
+							for (int i = last; i < n; i++) {
+								final PETest3 c = PETest3.FIRST.getConstant(i);
+								assert c.ordinal() == i : c.ordinal() + " != " + i;
+								assert PETest3.FIRST.valueOf("c" + i) == c : "c" + i;
+								assert PseudoEnum.valueOf(PETest3.class, c.name()) == c : c.name();
+							}
+							assert PseudoEnum.values(PETest3.class).size() >= n;
+							last = n;
+						}
+					} catch (final Throwable e) {
+						errors.add(e);
+					}
+				}
+			};
+			readers[t].start();
+		}
+		writer.start();
+		writer.join();
+		for (final Thread t : readers)
+			t.join();
+		assert errors.isEmpty() : errors;
+		assertEquals(numConstants, PETest3.FIRST.numConstants());
+		assert PETest3.FIRST.getConstant(0) == PETest3.FIRST;
+	}
+	
+	@Test
+	public void keepReferencesTest() throws IOException {
+		System.out.println();
+		final Object ref = new Object();
+		final Map<Integer, Object> m = new HashMap<Integer, Object>();
+		m.put(1, ref);
+		m.put(2, new Object());
+		m.put(3, ref);
+		final byte[] md = save(m);
+		print(m, md);
+		@SuppressWarnings("unchecked")
+		final Map<Integer, Object> ms = (Map<Integer, Object>) load(md);
+		assert ms != null && ms.get(1) == ms.get(3) && ms.get(1) != ms.get(2) : ms;
+	}
+	
+	private final static class UnmodifiedClass implements YggdrasilSerializable {
+		final int unchanged;
+		
+		@SuppressWarnings("unused")
+		UnmodifiedClass() {
+			unchanged = -10;
+		}
+		
+		UnmodifiedClass(final int c) {
+			unchanged = c;
+		}
+	}
+	
+	private final static class ModifiedClass implements YggdrasilSerializable {
+		@YggdrasilID("unchanged")
+		final int changed;
+		
+		ModifiedClass() {
+			changed = -20;
+		}
+		
+		@SuppressWarnings("unused")
+		ModifiedClass(final int c) {
+			changed = c;
+		}
+	}
+	
+	final static String modifiedClassID = "something random";
+	static Class<?> currentModifiedClass = UnmodifiedClass.class;
+	final static ClassResolver modifiedClassResolver = new ClassResolver() {
+		@Override
+		@Nullable
+		public String getID(final Class<?> c) {
+			if (c == currentModifiedClass)
+				return modifiedClassID;
+			return null;
+		}
+		
+		@Override
+		@Nullable
+		public Class<?> getClass(final String id) {
+			if (id.equals(modifiedClassID))
+				return currentModifiedClass;
+			return null;
+		}
+	};
+	static {
+		y.registerClassResolver(modifiedClassResolver);
+	}
+	
+	@Test
+	public void renameTest() throws IOException {
+		System.out.println();
+		currentModifiedClass = UnmodifiedClass.class;
+		y.invalidateCaches(); // the class resolver changed its mapping
+		final UnmodifiedClass o1 = new UnmodifiedClass(200);
+		final byte[] d1 = save(o1);
+		print(o1, d1);
+		currentModifiedClass = ModifiedClass.class;
+		y.invalidateCaches();
+		final ModifiedClass o2 = (ModifiedClass) load(d1);
+		assert o2 != null;
+		assertEquals(o1.unchanged, o2.changed);
+		
+		currentModifiedClass = ModifiedClass.class;
+		y.invalidateCaches();
+		final ModifiedClass o3 = new ModifiedClass();
+		final byte[] d3 = save(o3);
+		print(o3, d3);
+		currentModifiedClass = UnmodifiedClass.class;
+		y.invalidateCaches();
+		final UnmodifiedClass o4 = (UnmodifiedClass) load(d3);
+		assert o4 != null;
+		assertEquals(o3.changed, o4.unchanged);
+	}
+	
+	private static boolean equals(final @Nullable Object o1, final @Nullable Object o2) {
+		if (o1 == null || o2 == null)
+			return o1 == o2;
+		if (o1.getClass() != o2.getClass())
+			return false;
+		if (o1.getClass().isArray()) {
+			final int l1 = Array.getLength(o1);
+			final int l2 = Array.getLength(o2);
+			if (l1 != l2)
+				return false;
+			for (int i = 0; i < l1; i++) {
+				if (!equals(Array.get(o1, i), Array.get(o2, i)))
+					return false;
+			}
+			return true;
+		} else if (o1 instanceof Collection) {
+			final Iterator<?> i1 = ((Collection<?>) o1).iterator(), i2 = ((Collection<?>) o2).iterator();
+			while (i1.hasNext()) {
+				if (!i2.hasNext())
+					return false;
+				if (!equals(i1.next(), i2.next()))
+					return false;
+			}
+			return !i1.hasNext();
+		} else {
+			return o1.equals(o2);
+		}
+	}
+	
+	private String toString(final @Nullable Object o) {
+		if (o == null)
+			return "null";
+		if (o.getClass().isArray()) {
+			final StringBuilder b = new StringBuilder("[");
+			b.append(o.getClass().getCanonicalName()).append("::");
+			final int l = Array.getLength(o);
+			for (int i = 0; i < l; i++) {
+				if (i != 0)
+					b.append(", ");
+				b.append(toString(Array.get(o, i)));
+			}
+			b.append("]");
+			return "" + b;
+		}
+		return "" + o;
+	}
+	
+	private final static void print(final @Nullable Object o, final byte[] d) {
+		System.out.print(o);
+		System.out.print(": ");
+		for (final byte b : d) {
+			if (Pattern.matches("[a-zA-Z.]", "" + ((char) b))) {
+				System.out.print((char) b);
+			} else {
+				final String h = Integer.toHexString(b & 0xFF);
+				System.out.print(" " + (h.length() == 1 ? "0" : "") + h + " ");
+			}
+		}
+		System.out.println();
+		System.out.println();
+	}
+	
+}
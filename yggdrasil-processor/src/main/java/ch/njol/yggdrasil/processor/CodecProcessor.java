@@ -0,0 +1,357 @@
+/*
+ *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
+ *
+ *  Yggdrasil is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Yggdrasil is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2013-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.yggdrasil.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Generates a <tt>YggdrasilCodec</tt> for every class annotated with <tt>@YggdrasilID</tt> that implements <tt>YggdrasilSerializable</tt> (but not
+ * <tt>YggdrasilExtendedSerializable</tt>), so that such classes can be (de)serialised without reflection.
+ * <p>
+ * The generated codec of a class <tt>a.b.C</tt> is named <tt>a.b.C_YggdrasilCodec</tt> and serialises the same fields with the same IDs as the default serialisation, i.e.
+ * all non-static and non-transient fields of the class and its superclasses. Codecs access fields that are neither private nor final directly; all other fields, fields of
+ * inaccessible superclasses and fields with an inaccessible type are left to <tt>YggdrasilCodec</tt>, which uses reflection for them. The same applies to a private nullary
+ * constructor. No codec is generated for abstract, generic or inaccessible classes and classes without a nullary constructor (a note saying why is printed instead), and
+ * they are serialised using reflection as usual.
+ * 
+ * @author Peter Güttinger
+ */
+@SupportedAnnotationTypes(CodecProcessor.YGGDRASIL_ID)
+public class CodecProcessor extends AbstractProcessor {
+	
+	final static String YGGDRASIL_ID = "ch.njol.yggdrasil.YggdrasilID",
+			YGGDRASIL_SERIALIZABLE = "ch.njol.yggdrasil.YggdrasilSerializable",
+			YGGDRASIL_EXTENDED_SERIALIZABLE = "ch.njol.yggdrasil.YggdrasilSerializable.YggdrasilExtendedSerializable",
+			YGGDRASIL_CODEC = "ch.njol.yggdrasil.YggdrasilCodec";
+	
+	/** Must be the same as <tt>YggdrasilCodec.CLASS_NAME_SUFFIX</tt> */
+	final static String CLASS_NAME_SUFFIX = "_YggdrasilCodec";
+	
+	private final static String[] PRIMITIVES = {"boolean", "byte", "short", "char", "int", "long", "float", "double"};
+	
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+	
+	@Override
+	public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+		final TypeElement yggdrasilID = processingEnv.getElementUtils().getTypeElement(YGGDRASIL_ID);
+		final TypeElement serializable = processingEnv.getElementUtils().getTypeElement(YGGDRASIL_SERIALIZABLE);
+		final TypeElement extended = processingEnv.getElementUtils().getTypeElement(YGGDRASIL_EXTENDED_SERIALIZABLE);
+		if (yggdrasilID == null || serializable == null || extended == null)
+			return false;
+		for (final Element e : roundEnv.getElementsAnnotatedWith(yggdrasilID)) {
+			if (e.getKind() != ElementKind.CLASS)
+				continue; // IDs of fields and enums
+			final TypeElement t = (TypeElement) e;
+			final TypeMirror type = processingEnv.getTypeUtils().erasure(t.asType());
+			if (!processingEnv.getTypeUtils().isAssignable(type, serializable.asType()) || processingEnv.getTypeUtils().isAssignable(type, extended.asType()))
+				continue;
+			try {
+				generate(t);
+			} catch (final UnsupportedClassException ex) {
+				processingEnv.getMessager().printMessage(Kind.NOTE, "No Yggdrasil codec generated for " + t.getQualifiedName() + ": " + ex.getMessage(), t);
+			} catch (final IOException ex) {
+				processingEnv.getMessager().printMessage(Kind.ERROR, "Could not write the Yggdrasil codec of " + t.getQualifiedName() + ": " + ex, t);
+			}
+		}
+		return false; // @YggdrasilID may be used by other processors as well
+	}
+	
+	private final static class UnsupportedClassException extends Exception {
+		private static final long serialVersionUID = 3184522153226271307L;
+		
+		public UnsupportedClassException(final String message) {
+			super(message);
+		}
+	}
+	
+	/**
+	 * A serialisable field of the class a codec is generated for.
+	 */
+	private final static class FieldInfo {
+		final String name;
+		final String id;
+		/** The erasure of the field's type */
+		final String type;
+		/** Whether the generated code can name the field's type */
+		final boolean typeAccessible;
+		/** How to access the field from the generated code, e.g. <tt>((a.b.Super) o).field</tt>, or null if it is accessed with reflection */
+		@Nullable
+		final String access;
+		
+		FieldInfo(final String name, final String id, final String type, final boolean typeAccessible, final @Nullable String access) {
+			this.name = name;
+			this.id = id;
+			this.type = type;
+			this.typeAccessible = typeAccessible;
+			this.access = access;
+		}
+		
+		public boolean isDirect(final String primitive) {
+			return access != null && type.equals(primitive);
+		}
+		
+		public boolean isPrimitive() {
+			for (final String p : PRIMITIVES) {
+				if (type.equals(p))
+					return true;
+			}
+			return false;
+		}
+	}
+	
+	private final void generate(final TypeElement t) throws UnsupportedClassException, IOException {
+		if (t.getModifiers().contains(Modifier.ABSTRACT))
+			throw new UnsupportedClassException("it is abstract");
+		checkAccessible(t);
+		if (!t.getTypeParameters().isEmpty())
+			throw new UnsupportedClassException("it is generic");
+		final String packageName = processingEnv.getElementUtils().getPackageOf(t).getQualifiedName().toString();
+		Boolean accessibleConstructor = null;
+		for (final ExecutableElement c : ElementFilter.constructorsIn(t.getEnclosedElements())) {
+			if (c.getParameters().isEmpty())
+				accessibleConstructor = !c.getModifiers().contains(Modifier.PRIVATE);
+		}
+		if (accessibleConstructor == null)
+			throw new UnsupportedClassException("it has no nullary constructor");
+		
+		final List<FieldInfo> fields = new ArrayList<FieldInfo>();
+		final Set<String> ids = new HashSet<String>();
+		for (TypeElement sc = t; sc != null; sc = superclass(sc)) {
+			final boolean samePackage = processingEnv.getElementUtils().getPackageOf(sc).getQualifiedName().toString().equals(packageName);
+			final boolean accessible = sc == t || isAccessible(sc, packageName);
+			for (final VariableElement f : ElementFilter.fieldsIn(sc.getEnclosedElements())) {
+				final Set<Modifier> m = f.getModifiers();
+				if (m.contains(Modifier.STATIC) || m.contains(Modifier.TRANSIENT))
+					continue;
+				final String name = f.getSimpleName().toString();
+				String id = getYggdrasilID(f);
+				if (id == null)
+					id = name;
+				if (!ids.add(id))
+					throw new UnsupportedClassException("duplicate field id '" + id + "'");
+				final TypeMirror type = processingEnv.getTypeUtils().erasure(f.asType());
+				final boolean typeAccessible = isAccessible(type, packageName);
+				final boolean direct = accessible && typeAccessible && !m.contains(Modifier.FINAL) && !m.contains(Modifier.PRIVATE) && (samePackage || m.contains(Modifier.PUBLIC));
+				fields.add(new FieldInfo(name, id, type.toString(), typeAccessible, direct ? (sc == t ? "o" : "((" + sc.getQualifiedName() + ") o)") + "." + name : null));
+			}
+		}
+		
+		final String id = getYggdrasilID(t);
+		assert id != null;
+		final String binaryName = processingEnv.getElementUtils().getBinaryName(t).toString();
+		final String codecName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)) + CLASS_NAME_SUFFIX;
+		final Writer w = processingEnv.getFiler().createSourceFile(packageName.isEmpty() ? codecName : packageName + "." + codecName, t).openWriter();
+		try {
+			w.write(generateSource(packageName, codecName, t.getQualifiedName().toString(), id, accessibleConstructor, fields));
+		} finally {
+			w.close();
+		}
+	}
+	
+	private final static void checkAccessible(final TypeElement t) throws UnsupportedClassException {
+		for (Element e = t; e instanceof TypeElement; e = e.getEnclosingElement()) {
+			final TypeElement te = (TypeElement) e;
+			if (te.getModifiers().contains(Modifier.PRIVATE))
+				throw new UnsupportedClassException(te.getSimpleName() + " is private");
+			if (te.getNestingKind() == NestingKind.LOCAL || te.getNestingKind() == NestingKind.ANONYMOUS)
+				throw new UnsupportedClassException(te + " is a local class");
+			if (te.getNestingKind() == NestingKind.MEMBER && !te.getModifiers().contains(Modifier.STATIC))
+				throw new UnsupportedClassException(te.getSimpleName() + " is an inner class");
+		}
+	}
+	
+	/**
+	 * @return Whether code in the given package can refer to the given class
+	 */
+	private final boolean isAccessible(final TypeElement t, final String packageName) {
+		for (Element e = t; e instanceof TypeElement; e = e.getEnclosingElement()) {
+			final TypeElement te = (TypeElement) e;
+			if (te.getModifiers().contains(Modifier.PRIVATE) || te.getNestingKind() == NestingKind.LOCAL || te.getNestingKind() == NestingKind.ANONYMOUS)
+				return false;
+			if (!te.getModifiers().contains(Modifier.PUBLIC) && !processingEnv.getElementUtils().getPackageOf(te).getQualifiedName().contentEquals(packageName))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * @return Whether code in the given package can refer to the given type, which must be an erasure
+	 */
+	private final boolean isAccessible(final TypeMirror type, final String packageName) {
+		if (type.getKind() == TypeKind.ARRAY)
+			return isAccessible(((ArrayType) type).getComponentType(), packageName);
+		if (type.getKind() != TypeKind.DECLARED)
+			return true;
+		return isAccessible((TypeElement) ((DeclaredType) type).asElement(), packageName);
+	}
+	
+	@Nullable
+	private final static TypeElement superclass(final TypeElement t) {
+		final TypeMirror s = t.getSuperclass();
+		if (s.getKind() != TypeKind.DECLARED)
+			return null;
+		final TypeElement st = (TypeElement) ((DeclaredType) s).asElement();
+		if (st.getQualifiedName().contentEquals("java.lang.Object"))
+			return null;
+		return st;
+	}
+	
+	/**
+	 * @return The value of the element's <tt>@YggdrasilID</tt> annotation, or null if it doesn't have one
+	 */
+	@Nullable
+	private final static String getYggdrasilID(final Element e) {
+		for (final AnnotationMirror a : e.getAnnotationMirrors()) {
+			if (!((TypeElement) a.getAnnotationType().asElement()).getQualifiedName().contentEquals(YGGDRASIL_ID))
+				continue;
+			for (final Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> v : a.getElementValues().entrySet()) {
+				if (v.getKey().getSimpleName().contentEquals("value"))
+					return (String) v.getValue().getValue();
+			}
+		}
+		return null;
+	}
+	
+	private final static String generateSource(final String packageName, final String codecName, final String className, final String id, final boolean accessibleConstructor,
+			final List<FieldInfo> fields) {
+		final StringBuilder b = new StringBuilder();
+		if (!packageName.isEmpty())
+			b.append("package ").append(packageName).append(";\n\n");
+		b.append("/**\n * Generated by the Yggdrasil annotation processor from {@link ").append(className).append("}, do not edit.\n */\n");
+		b.append("@SuppressWarnings({\"rawtypes\", \"unchecked\", \"cast\", \"null\"})\n");
+		b.append("public final class ").append(codecName).append(" extends ").append(YGGDRASIL_CODEC).append("<").append(className).append("> {\n\n");
+		
+		b.append("\tpublic ").append(codecName).append("() {\n");
+		b.append("\t\tsuper(").append(className).append(".class, ").append(literal(id)).append(",\n");
+		b.append("\t\t\t\tnew String[] {");
+		for (int i = 0; i < fields.size(); i++)
+			b.append(i == 0 ? "" : ", ").append(literal(fields.get(i).name));
+		b.append("},\n\t\t\t\tnew String[] {");
+		for (int i = 0; i < fields.size(); i++)
+			b.append(i == 0 ? "" : ", ").append(literal(fields.get(i).id));
+		b.append("},\n\t\t\t\tnew Class<?>[] {");
+		for (int i = 0; i < fields.size(); i++)
+			b.append(i == 0 ? "" : ", ").append(fields.get(i).typeAccessible ? fields.get(i).type + ".class" : "null");
+		b.append("});\n\t}\n\n");
+		
+		if (accessibleConstructor) {
+			b.append("\t@Override\n\tpublic ").append(className).append(" newInstance() {\n");
+			b.append("\t\treturn new ").append(className).append("();\n\t}\n\n");
+		}
+		
+		boolean any = false;
+		for (final FieldInfo f : fields)
+			any |= f.access != null && !f.isPrimitive();
+		if (any) {
+			b.append("\t@Override\n\tpublic Object get(final ").append(className).append(" o, final int field) {\n\t\tswitch (field) {\n");
+			for (int i = 0; i < fields.size(); i++) {
+				final FieldInfo f = fields.get(i);
+				if (f.access != null && !f.isPrimitive())
+					b.append("\t\t\tcase ").append(i).append(":\n\t\t\t\treturn ").append(f.access).append(";\n");
+			}
+			b.append("\t\t\tdefault:\n\t\t\t\treturn super.get(o, field);\n\t\t}\n\t}\n\n");
+			
+			b.append("\t@Override\n\tpublic void set(final ").append(className).append(" o, final int field, final Object value) {\n\t\tswitch (field) {\n");
+			for (int i = 0; i < fields.size(); i++) {
+				final FieldInfo f = fields.get(i);
+				if (f.access != null && !f.isPrimitive())
+					b.append("\t\t\tcase ").append(i).append(":\n\t\t\t\t").append(f.access).append(" = (").append(f.type).append(") value;\n\t\t\t\treturn;\n");
+			}
+			b.append("\t\t\tdefault:\n\t\t\t\tsuper.set(o, field, value);\n\t\t}\n\t}\n\n");
+		}
+		
+		for (final String p : PRIMITIVES) {
+			any = false;
+			for (final FieldInfo f : fields)
+				any |= f.isDirect(p);
+			if (!any)
+				continue;
+			final String n = Character.toUpperCase(p.charAt(0)) + p.substring(1);
+			b.append("\t@Override\n\tpublic ").append(p).append(" get").append(n).append("(final ").append(className).append(" o, final int field) {\n\t\tswitch (field) {\n");
+			for (int i = 0; i < fields.size(); i++) {
+				final FieldInfo f = fields.get(i);
+				if (f.isDirect(p))
+					b.append("\t\t\tcase ").append(i).append(":\n\t\t\t\treturn ").append(f.access).append(";\n");
+			}
+			b.append("\t\t\tdefault:\n\t\t\t\treturn super.get").append(n).append("(o, field);\n\t\t}\n\t}\n\n");
+			b.append("\t@Override\n\tpublic void set").append(n).append("(final ").append(className).append(" o, final int field, final ").append(p).append(" value) {\n\t\tswitch (field) {\n");
+			for (int i = 0; i < fields.size(); i++) {
+				final FieldInfo f = fields.get(i);
+				if (f.isDirect(p))
+					b.append("\t\t\tcase ").append(i).append(":\n\t\t\t\t").append(f.access).append(" = value;\n\t\t\t\treturn;\n");
+			}
+			b.append("\t\t\tdefault:\n\t\t\t\tsuper.set").append(n).append("(o, field, value);\n\t\t}\n\t}\n\n");
+		}
+		
+		b.append("}\n");
+		return "" + b;
+	}
+	
+	private final static String literal(final String s) {
+		final StringBuilder b = new StringBuilder(s.length() + 2);
+		b.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+				b.append('\\').append(c);
+			else if (c < 0x20) // octal, as escaped line breaks would end the literal: unicode escapes are translated before the source is tokenised
+				b.append(String.format("\\%03o", (int) c));
+			else if (c > 0x7E)
+				b.append(String.format("\\u%04x", (int) c));
+			else
+				b.append(c);
+		}
+		return "" + b.append('"');
+	}
+	
+}
@@ -0,0 +1,8 @@
+/**
+ * @author Peter Güttinger
+ */
+@NonNullByDefault
+package ch.njol.yggdrasil.processor;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
@@ -0,0 +1,230 @@
+/*
+ *   This file is part of Yggdrasil, a data format to store object graphs, and the Java implementation thereof.
+ *
+ *  Yggdrasil is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Yggdrasil is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2013-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.yggdrasil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.Test;
+
+import ch.njol.yggdrasil.processor.CodecProcessor;
+
+/**
+ * Compiles sample classes with and without the {@link CodecProcessor} and checks that the generated codec is found and behaves exactly like the default serialisation.
+ * 
+ * @author Peter Güttinger
+ */
+@SuppressWarnings("null")
+public class CodecProcessorTest {
+	
+	private final static String BASE = ""
+			+ "package sample.base;\n"
+			+ "public class Base {\n"
+			+ "	public float visible;\n"
+			+ "	protected short inherited;\n"
+			+ "	private String baseSecret;\n"
+			+ "	@ch.njol.yggdrasil.YggdrasilID(\"baseShadowed\")\n"
+			+ "	private int shadowed;\n"
+			+ "	protected Base() {}\n"
+			+ "	protected Base(final int seed) {\n"
+			+ "		visible = seed / 2f;\n"
+			+ "		inherited = (short) -seed;\n"
+			+ "		baseSecret = \"base\" + seed;\n"
+			+ "		shadowed = 2 * seed;\n"
+			+ "	}\n"
+			+ "	protected boolean baseEquals(final Base b) {\n"
+			+ "		return visible == b.visible && inherited == b.inherited && baseSecret.equals(b.baseSecret) && shadowed == b.shadowed;\n"
+			+ "	}\n"
+			+ "}\n";
+	
+	private final static String SAMPLE = ""
+			+ "package sample;\n"
+			+ "import ch.njol.yggdrasil.YggdrasilID;\n"
+			+ "import ch.njol.yggdrasil.YggdrasilSerializable;\n"
+			+ "@YggdrasilID(\"Sample\")\n"
+			+ "public class Sample extends sample.base.Base implements YggdrasilSerializable {\n"
+			+ "	@YggdrasilID(\"Hidden\")\n"
+			+ "	private static enum Hidden {A, B}\n"
+			+ "	int i;\n"
+			+ "	@YggdrasilID(\"text\")\n"
+			+ "	public String s;\n"
+			+ "	private long secret;\n"
+			+ "	final double constant;\n"
+			+ "	Hidden hidden;\n"
+			+ "	int[] array;\n"
+			+ "	transient int ignored;\n"
+			+ "	private int shadowed;\n"
+			+ "	@YggdrasilID(\"line\\r\\nbreak\\t\\0\")\n"
+			+ "	short lines;\n"
+			+ "	private Sample() {\n"
+			+ "		constant = 0;\n"
+			+ "	}\n"
+			+ "	public Sample(final int seed) {\n"
+			+ "		super(seed);\n"
+			+ "		i = seed;\n"
+			+ "		s = \"sample\" + seed;\n"
+			+ "		secret = -1L << seed;\n"
+			+ "		constant = seed * 1.5;\n"
+			+ "		hidden = Hidden.B;\n"
+			+ "		array = new int[] {seed, -seed};\n"
+			+ "		ignored = seed;\n"
+			+ "		shadowed = 3 * seed;\n"
+			+ "		lines = (short) seed;\n"
+			+ "	}\n"
+			+ "	@Override\n"
+			+ "	public boolean equals(final Object o) {\n"
+			+ "		if (!(o instanceof Sample))\n"
+			+ "			return false;\n"
+			+ "		final Sample other = (Sample) o;\n"
+			+ "		return baseEquals(other) && i == other.i && s.equals(other.s) && secret == other.secret && constant == other.constant\n"
+			+ "				&& hidden == other.hidden && java.util.Arrays.equals(array, other.array) && shadowed == other.shadowed && lines == other.lines;\n"
+			+ "	}\n"
+			+ "	@Override\n"
+			+ "	public int hashCode() {\n"
+			+ "		return i;\n"
+			+ "	}\n"
+			+ "}\n";
+	
+	private final static class Source extends SimpleJavaFileObject {
+		private final String code;
+		
+		Source(final String name, final String code) {
+			super(URI.create("string:///" + name + Kind.SOURCE.extension), Kind.SOURCE);
+			this.code = code;
+		}
+		
+		@Override
+		public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+			return code;
+		}
+	}
+	
+	/**
+	 * Compiles the sample classes into a new temporary directory.
+	 * 
+	 * @param process Whether to run the codec processor
+	 */
+	private final static File compile(final boolean process) throws IOException, URISyntaxException {
+		final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		assert compiler != null : "This test must be run with a JDK";
+		final File dir = Files.createTempDirectory("yggdrasil").toFile();
+		final StandardJavaFileManager files = compiler.getStandardFileManager(null, null, null);
+		try {
+			files.setLocation(StandardLocation.CLASS_OUTPUT, Arrays.asList(dir));
+			files.setLocation(StandardLocation.SOURCE_OUTPUT, Arrays.asList(dir));
+			files.setLocation(StandardLocation.CLASS_PATH, Arrays.asList(new File(YggdrasilCodec.class.getProtectionDomain().getCodeSource().getLocation().toURI())));
+			final List<String> options = process ? Arrays.<String> asList() : Arrays.asList("-proc:none");
+			final CompilationTask task = compiler.getTask(null, files, null, options, null, Arrays.asList(new Source("sample/base/Base", BASE), new Source("sample/Sample", SAMPLE)));
+			if (process)
+				task.setProcessors(Arrays.asList(new CodecProcessor()));
+			assert task.call() : "compilation failed";
+		} finally {
+			files.close();
+		}
+		return dir;
+	}
+	
+	private final static void delete(final File f) {
+		final File[] children = f.listFiles();
+		if (children != null) {
+			for (final File c : children)
+				delete(c);
+		}
+		f.delete();
+	}
+	
+	private final static byte[] save(final Yggdrasil y, final Object o) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final YggdrasilOutputStream s = y.newOutputStream(out);
+		s.writeObject(o);
+		s.close();
+		return out.toByteArray();
+	}
+	
+	@Nullable
+	private final static Object load(final Yggdrasil y, final byte[] d) throws IOException {
+		final YggdrasilInputStream s = y.newInputStream(new ByteArrayInputStream(d));
+		final Object o = s.readObject();
+		s.close();
+		return o;
+	}
+	
+	@Test
+	public void generatedCodecTest() throws Exception {
+		final File generated = compile(true), plain = compile(false);
+		final URLClassLoader gl = new URLClassLoader(new URL[] {generated.toURI().toURL()}, getClass().getClassLoader()),
+				pl = new URLClassLoader(new URL[] {plain.toURI().toURL()}, getClass().getClassLoader());
+		try {
+			assert new File(generated, "sample/Sample" + YggdrasilCodec.CLASS_NAME_SUFFIX + ".java").exists();
+			assert !new File(generated, "sample/Sample$Hidden" + YggdrasilCodec.CLASS_NAME_SUFFIX + ".java").exists() : "codec generated for a private class";
+			final Class<?> gc = gl.loadClass("sample.Sample"), pc = pl.loadClass("sample.Sample");
+			
+			final YggdrasilCodec<?> codec = YggdrasilCodec.find(gc);
+			assert codec != null && YggdrasilCodec.find(pc) == null;
+			assert codec.id.equals("Sample");
+			final FieldAccessor[] accessors = Fields.getAccessors(gc);
+			assert codec.ids.length == accessors.length : Arrays.toString(codec.ids);
+			for (int i = 0; i < accessors.length; i++) {
+				assert codec.names[i].equals(accessors[i].field.getName()) : codec.names[i];
+				assert codec.ids[i].equals(Yggdrasil.getID(accessors[i].field)) : codec.ids[i];
+				assert codec.classes[i] == accessors[i].field.getType() : codec.classes[i];
+			}
+			
+			final Yggdrasil gy = new Yggdrasil(), py = new Yggdrasil();
+			gy.registerSingleClass(gc);
+			gy.registerSingleClass(gl.loadClass("sample.Sample$Hidden"));
+			py.registerSingleClass(pc);
+			py.registerSingleClass(pl.loadClass("sample.Sample$Hidden"));
+			assert gy.getGeneratedCodec(gc) != null && py.getGeneratedCodec(pc) == null;
+			
+			final Object g = gc.getConstructor(int.class).newInstance(7), p = pc.getConstructor(int.class).newInstance(7);
+			final byte[] gd = save(gy, g), pd = save(py, p);
+			assert Arrays.equals(gd, pd) : "generated codec and default serialisation differ";
+			assert g.equals(load(gy, pd));
+			assert p.equals(load(py, gd));
+		} finally {
+			gl.close();
+			pl.close();
+			delete(generated);
+			delete(plain);
+		}
+	}
+	
+}